@@ -0,0 +1,103 @@
+package com.pdfprocessor.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pdfprocessor.server.PhraseSearch;
+import com.pdfprocessor.shared.BinaryCodec;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Finds a common phrase in a large text and builds the response: once the old
+ * way (normalized copy of the text, indexOf loop, a substring per context)
+ * and once with {@link PhraseSearch}, whose contexts are offsets encoded
+ * straight from the text. Run with {@code -prof gc} to compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextExtractionBenchmark {
+    private static final int CONTEXT_SIZE = 50;
+
+    @Param({"1000000", "8000000"})
+    public int textChars;
+
+    @Param({"contract", "party"})
+    public String phrase;
+
+    private String text;
+    private PhraseSearch search;
+    private ByteArrayOutputStream buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = SyntheticPages.text(textChars / 7, 42);
+        search = new PhraseSearch(Collections.singletonList(phrase), 0);
+        buffer = new ByteArrayOutputStream(1 << 20);
+    }
+
+    @Benchmark
+    public List<String> legacyContexts() {
+        return legacySearch();
+    }
+
+    @Benchmark
+    public List<PDFProtocol.PhraseMatches> spanContexts() {
+        return search.search(text);
+    }
+
+    @Benchmark
+    public int legacyContextsEncoded() throws IOException {
+        List<String> contexts = legacySearch();
+        return encode(new PDFProtocol.SearchResponse(!contexts.isEmpty(), contexts, null, contexts.size(), 0));
+    }
+
+    @Benchmark
+    public int spanContextsEncoded() throws IOException {
+        List<PDFProtocol.PhraseMatches> matches = search.search(text);
+        int total = PhraseSearch.countMatches(matches);
+        return encode(new PDFProtocol.SearchResponse(total > 0, null, null, total, 0, 0, 0, null, matches));
+    }
+
+    private List<String> legacySearch() {
+        String formattedText = text.replaceAll("\\r|\\n", " ").toLowerCase();
+        List<String> contexts = new ArrayList<>();
+        int lastIndex = 0;
+        while ((lastIndex = formattedText.indexOf(phrase, lastIndex)) != -1) {
+            int start = Math.max(0, lastIndex - CONTEXT_SIZE);
+            int end = Math.min(formattedText.length(), lastIndex + phrase.length() + CONTEXT_SIZE);
+            contexts.add("..." + formattedText.substring(start, end) + "...");
+            lastIndex += phrase.length();
+        }
+        return contexts;
+    }
+
+    private int encode(PDFProtocol.SearchResponse response) throws IOException {
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        BinaryCodec.writeMessage(out, 1, response);
+        out.flush();
+        return buffer.size();
+    }
+}
@@ -0,0 +1,424 @@
+package com.pdfprocessor.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import com.pdfprocessor.server.PDFServer;
+import com.pdfprocessor.shared.PDFConnection;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Headless load test: drives a PDFServer with a synthetic PDF corpus from a
+ * fixed number of concurrent callers, each sending its next search as soon as
+ * the previous one is answered, and reports throughput and latency
+ * percentiles. Without {@code --host} it starts a server in this process,
+ * with its files in a temp directory, so it runs on any machine without
+ * network access.
+ *
+ * <p>By default every request carries a document the server has not seen
+ * (a corpus PDF with a unique trailing comment), so each one is uploaded and
+ * extracted; {@code --repeat} sends the corpus as it is and measures the
+ * cached path instead.
+ */
+public final class LoadGenerator {
+    private static final int DEFAULT_CONCURRENCY = 8;
+    private static final int DEFAULT_REQUESTS = 500;
+    private static final int DEFAULT_DOCUMENTS = 20;
+    private static final int DEFAULT_PAGES = 5;
+    private static final int LINES_PER_PAGE = 36;
+    private static final long STARTUP_TIMEOUT_MILLIS = 60000;
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    // Held so the level set in main is not lost when the logger is collected.
+    private static final Logger PDFBOX_LOGGER = Logger.getLogger("org.apache.pdfbox");
+
+    private final String host;
+    private final int port;
+    private final int concurrency;
+    private final int warmupRequests;
+    private final int requests;
+    private final long durationMillis;
+    private final List<String> phrases;
+    private final boolean streaming;
+    private final boolean repeat;
+    private final int pagesPerDocument;
+    private final List<byte[]> corpus;
+
+    private final AtomicInteger issued = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger busyRetries = new AtomicInteger();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private volatile long deadlineNanos;
+    private volatile String firstError;
+
+    private LoadGenerator(String host, int port, int concurrency, int warmupRequests, int requests,
+                          long durationMillis, List<String> phrases, boolean streaming, boolean repeat,
+                          int pagesPerDocument, List<byte[]> corpus) {
+        this.host = host;
+        this.port = port;
+        this.concurrency = concurrency;
+        this.warmupRequests = warmupRequests;
+        this.requests = requests;
+        this.durationMillis = durationMillis;
+        this.phrases = phrases;
+        this.streaming = streaming;
+        this.repeat = repeat;
+        this.pagesPerDocument = pagesPerDocument;
+        this.corpus = corpus;
+    }
+
+    private void run() throws Exception {
+        if (warmupRequests > 0) {
+            System.out.println("Warming up with " + warmupRequests + " requests...");
+            runPhase(warmupRequests, 0);
+        }
+        errors.set(0);
+        busyRetries.set(0);
+        uploadedBytes.set(0);
+
+        System.out.println(durationMillis > 0
+            ? "Running for " + durationMillis / 1000 + " s with " + concurrency + " concurrent callers..."
+            : "Running " + requests + " requests with " + concurrency + " concurrent callers...");
+        long start = System.nanoTime();
+        long[] latencies = runPhase(durationMillis > 0 ? Integer.MAX_VALUE : requests, durationMillis);
+        report(latencies, System.nanoTime() - start);
+    }
+
+    /**
+     * Runs the callers until {@code count} requests were sent or
+     * {@code durationMillis} passed, and returns the latency of each answered
+     * request in nanoseconds, sorted.
+     */
+    private long[] runPhase(int count, long durationMillis) throws Exception {
+        issued.set(0);
+        deadlineNanos = durationMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis) : 0;
+        List<Caller> callers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Caller caller = new Caller(count, i);
+            caller.thread.start();
+            callers.add(caller);
+        }
+        List<long[]> results = new ArrayList<>();
+        int total = 0;
+        for (Caller caller : callers) {
+            caller.thread.join();
+            if (caller.failure != null) {
+                throw caller.failure;
+            }
+            long[] latencies = Arrays.copyOf(caller.latencies, caller.completed);
+            results.add(latencies);
+            total += latencies.length;
+        }
+        long[] merged = new long[total];
+        int position = 0;
+        for (long[] latencies : results) {
+            System.arraycopy(latencies, 0, merged, position, latencies.length);
+            position += latencies.length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * One caller with a connection of its own.
+     */
+    private final class Caller implements Runnable {
+        final Thread thread;
+        private final int count;
+        long[] latencies = new long[256];
+        int completed;
+        Exception failure;
+
+        Caller(int count, int index) {
+            this.count = count;
+            this.thread = new Thread(this, "load-" + index);
+        }
+
+        @Override
+        public void run() {
+            try (PDFConnection connection = PDFConnection.open(host, port)) {
+                int sequence;
+                while ((sequence = issued.getAndIncrement()) < count
+                       && (deadlineNanos == 0 || System.nanoTime() < deadlineNanos)) {
+                    byte[] pdf = document(sequence);
+                    PDFProtocol.SearchRequest request = new PDFProtocol.SearchRequest(pdf, phrases, 0,
+                                                                                      "load-" + sequence + ".pdf",
+                                                                                      streaming);
+                    long start = System.nanoTime();
+                    PDFProtocol.SearchResponse response = search(connection, request);
+                    long latency = System.nanoTime() - start;
+                    uploadedBytes.addAndGet(pdf.length);
+                    if (response.getError() != null) {
+                        errors.incrementAndGet();
+                        if (firstError == null) {
+                            firstError = response.getError();
+                        }
+                    }
+                    if (completed == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, completed * 2);
+                    }
+                    latencies[completed++] = latency;
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        private PDFProtocol.SearchResponse search(PDFConnection connection, PDFProtocol.SearchRequest request)
+                throws InterruptedException, ExecutionException {
+            while (true) {
+                PDFProtocol.SearchResponse response = connection.search(request, null).get();
+                if (!response.isServerBusy()) {
+                    return response;
+                }
+                busyRetries.incrementAndGet();
+                Thread.sleep(response.getRetryAfterMillis());
+            }
+        }
+    }
+
+    private byte[] document(int sequence) {
+        byte[] pdf = corpus.get(sequence % corpus.size());
+        if (repeat) {
+            return pdf;
+        }
+        // A comment after %%EOF changes the content hash but not the document.
+        byte[] suffix = ("%" + System.nanoTime() + "-" + sequence + "\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] unique = Arrays.copyOf(pdf, pdf.length + suffix.length);
+        System.arraycopy(suffix, 0, unique, pdf.length, suffix.length);
+        return unique;
+    }
+
+    private void report(long[] latencies, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("Requests:    %d (%d errors, %d busy retries)%n", latencies.length, errors.get(),
+                          busyRetries.get());
+        if (firstError != null) {
+            System.out.println("First error: " + firstError);
+        }
+        System.out.printf("Elapsed:     %.2f s%n", seconds);
+        System.out.printf("Throughput:  %.1f requests/s, %.1f pages/s, %.1f MB/s of PDFs%n",
+                          latencies.length / seconds, latencies.length * (double) pagesPerDocument / seconds,
+                          uploadedBytes.get() / seconds / (1024 * 1024));
+        if (latencies.length == 0) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("Latency ms: ");
+        for (double percentile : PERCENTILES) {
+            line.append(String.format("  p%s %.2f", label(percentile), percentile(latencies, percentile) / 1e6));
+        }
+        line.append(String.format("  max %.2f", latencies[latencies.length - 1] / 1e6));
+        System.out.println(line);
+    }
+
+    private static String label(double percentile) {
+        String digits = Double.toString(percentile).substring(2);
+        return digits.length() == 1 ? digits + "0" : digits;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     */
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static List<byte[]> createCorpus(int documents, int pages, boolean scanned) throws IOException {
+        List<byte[]> corpus = new ArrayList<>(documents);
+        long bytes = 0;
+        for (int i = 0; i < documents; i++) {
+            byte[] pdf = SyntheticPages.pdf(pages, LINES_PER_PAGE, 1000L * i, scanned);
+            corpus.add(pdf);
+            bytes += pdf.length;
+        }
+        System.out.printf("Corpus: %d %s PDFs of %d pages, %.1f KB on average%n", documents,
+                          scanned ? "scanned" : "text", pages, bytes / 1024.0 / documents);
+        return corpus;
+    }
+
+    /**
+     * Starts a server in this process with its files in {@code directory}
+     * and waits until it accepts connections.
+     */
+    private static PDFServer startServer(int port, Path directory) throws IOException, InterruptedException {
+        System.setProperty("pdfprocessor.files.directory", directory.toString());
+        if (System.getProperty("pdfprocessor.metrics.port") == null) {
+            System.setProperty("pdfprocessor.metrics.port", "0");
+        }
+        if (System.getProperty("pdfprocessor.log.level") == null) {
+            System.setProperty("pdfprocessor.log.level", "WARN");
+        }
+        PDFServer server = new PDFServer(port);
+        Thread thread = new Thread(server::start, "pdf-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                PDFConnection.open("localhost", port).close();
+                return server;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline || !thread.isAlive()) {
+                    throw new IOException("Server did not start on port " + port, e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not delete " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: LoadGenerator [options]");
+        System.out.println("  --host <host>          server to load (default: start one in this process)");
+        System.out.println("  --port <port>          server port (default " + PDFProtocol.DEFAULT_PORT
+                           + ", or a free port for the local server)");
+        System.out.println("  --concurrency <n>      concurrent callers, one connection each (default "
+                           + DEFAULT_CONCURRENCY + ")");
+        System.out.println("  --requests <n>         requests to measure (default " + DEFAULT_REQUESTS + ")");
+        System.out.println("  --duration <seconds>   measure for a fixed time instead of a request count");
+        System.out.println("  --warmup <n>           unmeasured requests first (default: 5 per caller)");
+        System.out.println("  --documents <n>        PDFs in the synthetic corpus (default " + DEFAULT_DOCUMENTS + ")");
+        System.out.println("  --pages <n>            pages per PDF (default " + DEFAULT_PAGES + ")");
+        System.out.println("  --scanned              image-only pages that need OCR (needs Tesseract)");
+        System.out.println("  --repeat               send the corpus unchanged, so repeats hit the server's caches");
+        System.out.println("  --phrases <a;b>        phrases to search for (default payment;termination)");
+        System.out.println("  --streaming            request per-page results");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = null;
+        int port = -1;
+        int concurrency = DEFAULT_CONCURRENCY;
+        int requests = DEFAULT_REQUESTS;
+        long durationMillis = 0;
+        int warmup = -1;
+        int documents = DEFAULT_DOCUMENTS;
+        int pages = DEFAULT_PAGES;
+        boolean scanned = false;
+        boolean repeat = false;
+        boolean streaming = false;
+        String phraseList = "payment;termination";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--concurrency":
+                        concurrency = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--requests":
+                        requests = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--duration":
+                        durationMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Long.parseLong(args[++i])));
+                        break;
+                    case "--warmup":
+                        warmup = Math.max(0, Integer.parseInt(args[++i]));
+                        break;
+                    case "--documents":
+                        documents = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--pages":
+                        pages = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--scanned":
+                        scanned = true;
+                        break;
+                    case "--repeat":
+                        repeat = true;
+                        break;
+                    case "--streaming":
+                        streaming = true;
+                        break;
+                    case "--phrases":
+                        phraseList = args[++i];
+                        break;
+                    default:
+                        printUsage();
+                        System.exit(2);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            System.exit(2);
+        }
+
+        List<String> phrases = new ArrayList<>();
+        for (String phrase : phraseList.split(";")) {
+            if (!phrase.trim().isEmpty()) {
+                phrases.add(phrase.trim());
+            }
+        }
+        if (phrases.isEmpty()) {
+            printUsage();
+            System.exit(2);
+        }
+
+        // PDFBox warns about every standard font it substitutes, which says nothing about the load.
+        PDFBOX_LOGGER.setLevel(Level.SEVERE);
+        List<byte[]> corpus = createCorpus(documents, pages, scanned);
+        PDFServer server = null;
+        Path directory = null;
+        if (host == null) {
+            host = "localhost";
+            port = port > 0 ? port : freePort();
+            directory = Files.createTempDirectory("pdf-load-");
+            server = startServer(port, directory);
+            System.out.println("Started a local server on port " + port);
+        } else if (port <= 0) {
+            port = PDFProtocol.DEFAULT_PORT;
+        }
+
+        try {
+            new LoadGenerator(host, port, concurrency, warmup >= 0 ? warmup : concurrency * 5, requests,
+                              durationMillis, phrases, streaming, repeat, pages, corpus).run();
+        } finally {
+            if (server != null) {
+                server.shutdown();
+                deleteRecursively(directory);
+            }
+        }
+        System.exit(0);
+    }
+}
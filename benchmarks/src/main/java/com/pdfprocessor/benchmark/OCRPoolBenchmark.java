@@ -0,0 +1,117 @@
+package com.pdfprocessor.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.pdfprocessor.server.OCRProcessor;
+
+/**
+ * OCRs a fixed batch of synthetic pages with a varying number of concurrent
+ * callers. With a pooled engine per core the batch time should drop roughly
+ * linearly until the parallelism exceeds the pool size. The engines are
+ * warmed up before the trial, so no measured batch pays for loading the
+ * language data. Requires a local Tesseract installation.
+ * <p>
+ * Run it through {@link #main}, which measures 1, 2, 4, ... callers up to
+ * the number of cores and then twice that, to show where the pool saturates
+ * on the machine at hand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OCRPoolBenchmark {
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int PAGES_PER_BATCH = Math.max(8, 2 * CORES);
+
+    /**
+     * Set by {@link #main} from the number of cores, or with
+     * {@code -p parallelism=...}.
+     */
+    @Param({"1"})
+    public int parallelism;
+
+    private OCRProcessor processor;
+    private List<BufferedImage> pages;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        processor = OCRProcessor.getInstance();
+        processor.warmUp();
+        pages = new ArrayList<>();
+        for (int i = 0; i < PAGES_PER_BATCH; i++) {
+            pages.add(SyntheticPages.page(30, i));
+        }
+        executor = Executors.newFixedThreadPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int ocrBatch() throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+        for (BufferedImage page : pages) {
+            results.add(executor.submit(() -> processor.extractTextFromImage(page)));
+        }
+        int chars = 0;
+        for (Future<String> result : results) {
+            chars += result.get().length();
+        }
+        return chars;
+    }
+
+    /**
+     * Runs the benchmark with the parallelism levels for this machine. Other
+     * arguments are passed to JMH, and {@code -p parallelism=...} overrides
+     * the levels.
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(commandLine)
+            .include(OCRPoolBenchmark.class.getName());
+        if (!commandLine.getParameter("parallelism").hasValue()) {
+            options.param("parallelism", parallelismLevels());
+        }
+        new Runner(options.build()).run();
+    }
+
+    private static String[] parallelismLevels() {
+        List<String> levels = new ArrayList<>();
+        for (int level = 1; level < CORES; level *= 2) {
+            levels.add(String.valueOf(level));
+        }
+        levels.add(String.valueOf(CORES));
+        levels.add(String.valueOf(2 * CORES));
+        return levels.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,168 @@
+package com.pdfprocessor.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pdfprocessor.server.ImagePreprocessor;
+import com.pdfprocessor.server.OCRProcessor;
+import com.pdfprocessor.server.OCRSettings;
+
+import net.sourceforge.tess4j.TesseractException;
+
+/**
+ * Time per page and character accuracy of the OCR settings over a small
+ * corpus of noisy, skewed 600 dpi scans with one blank page. Each scan is
+ * first resampled to the setting's resolution, as rendering a PDF page at
+ * that resolution would. {@code preprocess} only times the preprocessing
+ * steps; {@code ocr} times preprocessing plus OCR and needs a local
+ * Tesseract installation. The accuracy of each setting is printed once per
+ * trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class OCRSettingsBenchmark {
+    private static final int SCAN_DPI = 600;
+    private static final int LINES_PER_PAGE = 30;
+    private static final int PAGES = 5;
+    private static final double[] SKEW_DEGREES = {0, 1.5, -2.5, 0.8, 0};
+
+    /**
+     * {@code legacy} is the old behaviour: automatic segmentation with
+     * orientation detection and no preprocessing. {@code clean} deskews and
+     * skips blank pages.
+     */
+    @Param({"legacy", "psm3", "psm3-clean", "psm3-clean-binary", "psm6-clean", "psm3-clean-200dpi"})
+    public String setting;
+
+    private OCRSettings settings;
+    private OCRProcessor processor;
+    private List<BufferedImage> pages;
+    private List<String> expected;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        settings = parse(setting);
+        pages = new ArrayList<>();
+        expected = new ArrayList<>();
+        for (int i = 0; i < PAGES; i++) {
+            // The last page is blank.
+            int lines = i == PAGES - 1 ? 0 : LINES_PER_PAGE;
+            BufferedImage scan = SyntheticPages.scan(lines, i, SCAN_DPI, SKEW_DEGREES[i]);
+            pages.add(SyntheticPages.resample(scan, settings.getRenderDpi() / SCAN_DPI));
+            expected.add(lines > 0 ? SyntheticPages.pageText(lines, i) : "");
+        }
+        processor = OCRProcessor.getInstance();
+        processor.warmUp();
+    }
+
+    @TearDown(Level.Trial)
+    public void reportAccuracy() {
+        long errors = 0;
+        long chars = 0;
+        try {
+            for (int i = 0; i < PAGES; i++) {
+                String truth = normalize(expected.get(i));
+                errors += editDistance(normalize(ocr(pages.get(i))), truth);
+                chars += truth.length();
+            }
+        } catch (TesseractException | RuntimeException | LinkageError e) {
+            System.out.println("Accuracy of " + setting + " not measured: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Character accuracy of %s: %.2f%%%n", setting,
+                          100.0 * Math.max(0, chars - errors) / chars);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public int preprocess() {
+        int blank = 0;
+        for (BufferedImage page : pages) {
+            if (ImagePreprocessor.prepare(page, settings) == null) {
+                blank++;
+            }
+        }
+        return blank;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public int ocr() throws TesseractException {
+        int chars = 0;
+        for (BufferedImage page : pages) {
+            chars += ocr(page).length();
+        }
+        return chars;
+    }
+
+    private String ocr(BufferedImage page) throws TesseractException {
+        BufferedImage prepared = ImagePreprocessor.prepare(page, settings);
+        if (prepared == null) {
+            return "";
+        }
+        return processor.extractTextFromImage(prepared, settings.getPageSegMode(), settings.getOcrEngineMode());
+    }
+
+    private static OCRSettings parse(String name) {
+        switch (name) {
+            case "legacy":
+                return new OCRSettings(1, 1, 300, false, false, false);
+            case "psm3":
+                return new OCRSettings(3, 1, 300, false, false, false);
+            case "psm3-clean":
+                return new OCRSettings(3, 1, 300, false, true, true);
+            case "psm3-clean-binary":
+                return new OCRSettings(3, 1, 300, true, true, true);
+            case "psm6-clean":
+                return new OCRSettings(6, 1, 300, false, true, true);
+            case "psm3-clean-200dpi":
+                return new OCRSettings(3, 1, 200, false, true, true);
+            default:
+                throw new IllegalArgumentException("Unknown setting: " + name);
+        }
+    }
+
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+    private static int editDistance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
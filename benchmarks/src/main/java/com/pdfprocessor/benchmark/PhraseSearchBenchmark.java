@@ -0,0 +1,84 @@
+package com.pdfprocessor.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pdfprocessor.server.PhraseMatcher;
+
+/**
+ * Counts the matches of N phrases in a large text: once with the old approach
+ * of normalizing the text and running an indexOf loop per phrase, once with a
+ * single pass of the Aho-Corasick matcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhraseSearchBenchmark {
+    private static final String[] TERMS = {
+        "contract", "agreement", "party", "payment", "term", "liability", "notice", "clause",
+        "confidential", "termination", "warranty", "invoice", "delivery", "schedule", "amendment"
+    };
+
+    @Param({"1", "10", "50"})
+    public int phraseCount;
+
+    @Param({"1000000", "8000000"})
+    public int textChars;
+
+    private String text;
+    private List<String> phrases;
+    private PhraseMatcher matcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = SyntheticPages.text(textChars / 7, 42);
+        Random random = new Random(7);
+        phrases = new ArrayList<>();
+        while (phrases.size() < phraseCount) {
+            String phrase = TERMS[random.nextInt(TERMS.length)] + " " + TERMS[random.nextInt(TERMS.length)];
+            if (!phrases.contains(phrase)) {
+                phrases.add(phrase);
+            }
+        }
+        matcher = new PhraseMatcher(phrases, false, false);
+    }
+
+    @Benchmark
+    public int repeatedIndexOf() {
+        String formattedText = text.replaceAll("\\r|\\n", " ").toLowerCase();
+        int matches = 0;
+        for (String phrase : phrases) {
+            int lastIndex = 0;
+            while ((lastIndex = formattedText.indexOf(phrase, lastIndex)) != -1) {
+                matches++;
+                lastIndex += phrase.length();
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int ahoCorasick() {
+        int[] matches = new int[1];
+        matcher.match(text, (phrase, start, end) -> matches[0]++);
+        return matches[0];
+    }
+}
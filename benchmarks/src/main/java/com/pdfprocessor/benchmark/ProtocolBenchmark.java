@@ -0,0 +1,92 @@
+package com.pdfprocessor.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pdfprocessor.shared.BinaryCodec;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Encode and decode cost of a search request in the legacy Java serialization
+ * format versus the binary format. Run with {@code -prof gc} to compare
+ * allocation per operation. Binary decoding includes spooling the PDF chunks
+ * to a temp file, which is what the server does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolBenchmark {
+    @Param({"65536", "1048576", "10485760"})
+    public int payloadSize;
+
+    private PDFProtocol.SearchRequest request;
+    private ByteArrayOutputStream buffer;
+    private byte[] javaEncoded;
+    private byte[] binaryEncoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] pdf = new byte[payloadSize];
+        new Random(42).nextBytes(pdf);
+        request = new PDFProtocol.SearchRequest(pdf, "termination clause", "contract-2024-001.pdf", true);
+        buffer = new ByteArrayOutputStream(payloadSize + 4096);
+        javaEncoded = encodeJava();
+        binaryEncoded = encodeBinary();
+    }
+
+    @Benchmark
+    public byte[] encodeJava() throws IOException {
+        buffer.reset();
+        ObjectOutputStream out = new ObjectOutputStream(buffer);
+        out.writeObject(request);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() throws IOException {
+        buffer.reset();
+        DataOutputStream out = new DataOutputStream(buffer);
+        BinaryCodec.writeMessage(out, 1, request);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public Object decodeJava() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaEncoded));
+        return in.readObject();
+    }
+
+    @Benchmark
+    public Object decodeBinary() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(binaryEncoded));
+        PDFProtocol.SearchRequest decoded = (PDFProtocol.SearchRequest) BinaryCodec.readMessage(in).getMessage();
+        Files.delete(decoded.getPdfFile().toPath());
+        return decoded;
+    }
+}
@@ -0,0 +1,171 @@
+package com.pdfprocessor.benchmark;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+final class SyntheticPages {
+    private static final String[] WORDS = {
+        "contract", "agreement", "party", "payment", "term", "liability", "notice", "clause",
+        "confidential", "termination", "warranty", "invoice", "delivery", "schedule", "amendment",
+        "the", "of", "and", "to", "in", "shall", "be", "by", "for", "with", "any", "such"
+    };
+
+    private SyntheticPages() {
+    }
+
+    static String text(int words, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(i % 12 == 0 ? '\n' : ' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The text drawn by {@link #page} and {@link #scan}, one row per line.
+     */
+    static String pageText(int lines, long seed) {
+        return text(lines * 12, seed);
+    }
+
+    static BufferedImage page(int lines, long seed) {
+        int width = 1275;
+        int height = 1650;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setColor(Color.BLACK);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 28));
+            String[] rows = text(lines * 12, seed).split("\n");
+            int y = 80;
+            for (int i = 0; i < rows.length && y < height - 40; i++) {
+                graphics.drawString(rows[i], 60, y);
+                y += 40;
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * A page as a scanner would deliver it: rendered at {@code dpi} on a
+     * slightly gray background, rotated by {@code skewDegrees} and covered
+     * in sensor noise and dust specks. {@code lines} of 0 gives a blank page.
+     */
+    static BufferedImage scan(int lines, long seed, int dpi, double skewDegrees) {
+        double scale = dpi / 150.0;
+        int width = (int) (1275 * scale);
+        int height = (int) (1650 * scale);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(new Color(235, 235, 235));
+            graphics.fillRect(0, 0, width, height);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.rotate(Math.toRadians(skewDegrees), width / 2.0, height / 2.0);
+            graphics.scale(scale, scale);
+            graphics.setColor(new Color(30, 30, 30));
+            graphics.setFont(new Font(Font.SERIF, Font.PLAIN, 28));
+            if (lines > 0) {
+                String[] rows = pageText(lines, seed).split("\n");
+                int y = 80;
+                for (int i = 0; i < rows.length && y < 1650 - 40; i++) {
+                    graphics.drawString(rows[i], 60, y);
+                    y += 40;
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        Random random = new Random(seed);
+        WritableRaster raster = image.getRaster();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+            for (int x = 0; x < width; x++) {
+                int value = row[x] + (int) (random.nextGaussian() * 12);
+                if (random.nextInt(50000) == 0) {
+                    value = 0;
+                }
+                row[x] = Math.max(0, Math.min(255, value));
+            }
+            raster.setSamples(0, y, width, 1, 0, row);
+        }
+        return image;
+    }
+
+    /**
+     * Resamples an image as if it had been rendered at a different
+     * resolution.
+     */
+    static BufferedImage resample(BufferedImage image, double factor) {
+        int width = (int) Math.round(image.getWidth() * factor);
+        int height = (int) Math.round(image.getHeight() * factor);
+        BufferedImage resampled = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = resampled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resampled;
+    }
+
+    /**
+     * A letter-size PDF of {@code pages} pages of {@link #pageText}. With
+     * {@code scanned} each page is an image from {@link #scan} at 150 dpi
+     * and needs OCR; otherwise the text is in the text layer.
+     */
+    static byte[] pdf(int pages, int lines, long seed, boolean scanned) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(PDRectangle.LETTER);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    if (scanned) {
+                        PDImageXObject image = LosslessFactory.createFromImage(document, scan(lines, seed + i, 150, 0.5));
+                        content.drawImage(image, 0, 0, PDRectangle.LETTER.getWidth(), PDRectangle.LETTER.getHeight());
+                    } else {
+                        content.beginText();
+                        content.setFont(PDType1Font.TIMES_ROMAN, 11);
+                        content.setLeading(19);
+                        content.newLineAtOffset(30, PDRectangle.LETTER.getHeight() - 40);
+                        for (String row : pageText(lines, seed + i).split("\n")) {
+                            content.showText(row);
+                            content.newLine();
+                        }
+                        content.endText();
+                    }
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+}
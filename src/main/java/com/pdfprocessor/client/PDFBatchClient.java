@@ -0,0 +1,488 @@
+package com.pdfprocessor.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pdfprocessor.shared.ContentHashes;
+import com.pdfprocessor.shared.PDFConnectionPool;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Headless client that searches every PDF under a directory tree.
+ *
+ * Files are discovered while earlier ones are still being processed. Up to
+ * {@code --concurrency} requests are in flight at once: uploads run on one
+ * thread per connection, so the next files are read and sent while the
+ * server is still OCRing the previous ones. Each result is appended to a
+ * JSON-lines file, and each finished file to a progress file; running again
+ * with {@code --resume} skips files that are already done and unchanged.
+ * Content hashes are kept in a hashes file next to it, so later runs ask the
+ * server for unchanged files by hash without reading them again.
+ * "Server busy" responses are retried after the delay the server suggests.
+ */
+public class PDFBatchClient {
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_CONNECTIONS = 2;
+    private static final int MAX_BUSY_RETRIES = 50;
+    private static final long STATUS_INTERVAL_SECONDS = 5;
+
+    private final String host;
+    private final int port;
+    private final List<String> phrases;
+    private final int matchOptions;
+    private final int pageSegMode;
+    private final int ocrEngineMode;
+    private final int maxMatches;
+    private final int concurrency;
+    private final Path outputFile;
+    private final Path progressFile;
+    private final Path hashesFile;
+    private final boolean resume;
+
+    private final Set<String> completed = new HashSet<>();
+    private final Map<String, String> knownHashes = new HashMap<>();
+    private final AtomicInteger submittedFiles = new AtomicInteger();
+    private final AtomicInteger finishedFiles = new AtomicInteger();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final AtomicInteger skippedFiles = new AtomicInteger();
+    private final AtomicLong totalMatches = new AtomicLong();
+    private Semaphore inFlight;
+    private ExecutorService uploadExecutor;
+    private ScheduledExecutorService retryScheduler;
+    private PDFConnectionPool connectionPool;
+    private Writer output;
+    private Writer progress;
+    private Writer hashes;
+
+    private PDFBatchClient(String host, int port, List<String> phrases, int matchOptions,
+                           int pageSegMode, int ocrEngineMode, int maxMatches, int concurrency, Path outputFile,
+                           boolean resume) {
+        this.host = host;
+        this.port = port;
+        this.phrases = phrases;
+        this.matchOptions = matchOptions;
+        this.pageSegMode = pageSegMode;
+        this.ocrEngineMode = ocrEngineMode;
+        this.maxMatches = maxMatches;
+        this.concurrency = concurrency;
+        this.outputFile = outputFile;
+        this.progressFile = Paths.get(outputFile + ".progress");
+        this.hashesFile = Paths.get(outputFile + ".hashes");
+        this.resume = resume;
+    }
+
+    /**
+     * Searches all PDFs under {@code root} and returns the number of files
+     * that could not be searched.
+     */
+    private int run(Path root, int connections) throws IOException, InterruptedException {
+        if (resume) {
+            loadProgress();
+        } else {
+            Files.deleteIfExists(progressFile);
+        }
+        // Hashes do not depend on the search, so they are kept even without --resume.
+        loadHashes();
+        StandardOpenOption mode = resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        output = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                         StandardOpenOption.WRITE, mode);
+        progress = Files.newBufferedWriter(progressFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        hashes = Files.newBufferedWriter(hashesFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                                         StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        inFlight = new Semaphore(concurrency);
+        uploadExecutor = Executors.newFixedThreadPool(connections);
+        retryScheduler = Executors.newSingleThreadScheduledExecutor();
+        connectionPool = new PDFConnectionPool(host, port, connections);
+        retryScheduler.scheduleAtFixedRate(this::printStatus, STATUS_INTERVAL_SECONDS, STATUS_INTERVAL_SECONDS,
+                                           TimeUnit.SECONDS);
+        long startTime = System.currentTimeMillis();
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    if (attributes.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".pdf")) {
+                        submit(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.out.println("Skipping " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            // All permits are back once every submitted file has finished.
+            inFlight.acquire(concurrency);
+        } finally {
+            retryScheduler.shutdownNow();
+            uploadExecutor.shutdownNow();
+            connectionPool.close();
+            synchronized (this) {
+                output.close();
+                progress.close();
+                hashes.close();
+            }
+        }
+
+        System.out.println("Searched " + finishedFiles.get() + " files in "
+            + (System.currentTimeMillis() - startTime) / 1000 + " s: " + totalMatches.get() + " matches, "
+            + failedFiles.get() + " failed, " + skippedFiles.get() + " skipped as already done");
+        System.out.println("Results written to " + outputFile);
+        return failedFiles.get();
+    }
+
+    private void loadProgress() throws IOException {
+        if (!Files.exists(progressFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(progressFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                completed.add(line);
+            }
+        }
+        System.out.println("Resuming: " + completed.size() + " files already done");
+    }
+
+    /**
+     * Reads the hashes earlier runs computed, one {@code hash<TAB>key} line per
+     * file. Lines of files that have changed since are never looked up again.
+     */
+    private void loadHashes() throws IOException {
+        if (!Files.exists(hashesFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(hashesFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    knownHashes.put(line.substring(tab + 1), line.substring(0, tab));
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the hash of {@code file} known to the connection, reading the
+     * file only if no earlier run hashed it as it is now.
+     */
+    private void rememberHash(File file) throws IOException {
+        String key = progressKey(file);
+        String hash;
+        synchronized (this) {
+            hash = knownHashes.get(key);
+        }
+        if (hash != null) {
+            ContentHashes.remember(file, hash);
+            return;
+        }
+        hash = ContentHashes.ofFile(file);
+        synchronized (this) {
+            knownHashes.put(key, hash);
+            hashes.write(hash);
+            hashes.write('\t');
+            hashes.write(key);
+            hashes.write('\n');
+            hashes.flush();
+        }
+    }
+
+    private static String progressKey(File file) {
+        return file.lastModified() + "\t" + file.length() + "\t" + file.getAbsolutePath();
+    }
+
+    private void submit(File file) throws IOException {
+        if (completed.contains(progressKey(file))) {
+            skippedFiles.incrementAndGet();
+            return;
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to submit " + file, e);
+        }
+        submittedFiles.incrementAndGet();
+        uploadExecutor.execute(() -> upload(file, 1, System.currentTimeMillis()));
+    }
+
+    private void upload(File file, int attempt, long startTime) {
+        CompletableFuture<PDFProtocol.SearchResponse> response;
+        try {
+            if (file.length() > PDFProtocol.MAX_FILE_SIZE) {
+                finish(file, startTime, null, "File too large", true);
+                return;
+            }
+
+            PDFProtocol.SearchRequest request;
+            if (PDFProtocol.useBinaryProtocol()) {
+                rememberHash(file);
+                request = new PDFProtocol.SearchRequest(file, phrases, matchOptions, file.getName(), false);
+            } else {
+                request = new PDFProtocol.SearchRequest(
+                    Files.readAllBytes(file.toPath()), phrases, matchOptions, file.getName(), false
+                );
+            }
+            request = request.withOcrModes(pageSegMode, ocrEngineMode).withMaxMatches(maxMatches);
+            // A PDF the server does not know is uploaded on this same pool.
+            response = connectionPool.acquire().search(request, null, uploadExecutor);
+        } catch (IOException | RuntimeException e) {
+            finish(file, startTime, null, e.getMessage(), false);
+            return;
+        }
+
+        response.whenComplete((searchResponse, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                finish(file, startTime, null, cause.getMessage(), false);
+            } else if (searchResponse.isServerBusy() && attempt <= MAX_BUSY_RETRIES) {
+                retryScheduler.schedule(() -> uploadExecutor.execute(() -> upload(file, attempt + 1, startTime)),
+                                        searchResponse.getRetryAfterMillis(), TimeUnit.MILLISECONDS);
+            } else {
+                // Errors reported by the server are final; a busy server after all retries is not.
+                boolean done = !searchResponse.isServerBusy();
+                finish(file, startTime, searchResponse, searchResponse.getError(), done);
+            }
+        });
+    }
+
+    /**
+     * Records the outcome of one file and frees its slot. Files that failed
+     * for transient reasons are not marked done, so a resumed run tries them
+     * again.
+     */
+    private void finish(File file, long startTime, PDFProtocol.SearchResponse response, String error, boolean done) {
+        String line = toJson(file, System.currentTimeMillis() - startTime, response, error);
+        try {
+            synchronized (this) {
+                output.write(line);
+                output.write('\n');
+                output.flush();
+                if (error == null || done) {
+                    progress.write(progressKey(file));
+                    progress.write('\n');
+                    progress.flush();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing result for " + file + ": " + e.getMessage());
+        } finally {
+            finishedFiles.incrementAndGet();
+            if (error != null) {
+                failedFiles.incrementAndGet();
+            } else {
+                totalMatches.addAndGet(response.getTotalMatches());
+            }
+            inFlight.release();
+        }
+    }
+
+    private void printStatus() {
+        System.out.println("Progress: " + finishedFiles.get() + "/" + submittedFiles.get() + " files done, "
+            + totalMatches.get() + " matches, " + failedFiles.get() + " failed");
+    }
+
+    private String toJson(File file, long elapsedMillis, PDFProtocol.SearchResponse response, String error) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"file\":");
+        appendJsonString(json, file.getPath());
+        json.append(",\"elapsedMillis\":").append(elapsedMillis);
+        if (error != null) {
+            json.append(",\"error\":");
+            appendJsonString(json, error);
+        } else {
+            json.append(",\"documentId\":");
+            appendJsonString(json, response.getDocumentId());
+            json.append(",\"found\":").append(response.isFound())
+                .append(",\"totalMatches\":").append(response.getTotalMatches())
+                .append(",\"queueWaitMillis\":").append(response.getQueueWaitMillis())
+                .append(",\"phrases\":[");
+            List<PDFProtocol.PhraseMatches> phraseMatches = response.getPhraseMatches();
+            for (int i = 0; i < phraseMatches.size(); i++) {
+                PDFProtocol.PhraseMatches matches = phraseMatches.get(i);
+                json.append(i > 0 ? ",{" : "{").append("\"phrase\":");
+                appendJsonString(json, matches.getPhrase());
+                json.append(",\"matches\":").append(matches.getMatchCount()).append(",\"contexts\":[");
+                List<String> contexts = matches.getContexts();
+                for (int j = 0; j < contexts.size(); j++) {
+                    if (j > 0) {
+                        json.append(',');
+                    }
+                    appendJsonString(json, contexts.get(j));
+                }
+                json.append("]}");
+            }
+            json.append(']');
+        }
+        return json.append('}').toString();
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: PDFBatchClient [options] <directory> <phrase>[;<phrase>...]");
+        System.out.println("  --host <host>          server host (default localhost)");
+        System.out.println("  --port <port>          server port (default " + PDFProtocol.DEFAULT_PORT + ")");
+        System.out.println("  --concurrency <n>      requests in flight (default " + DEFAULT_CONCURRENCY + ")");
+        System.out.println("  --connections <n>      connections to the server (default " + DEFAULT_CONNECTIONS + ")");
+        System.out.println("  --output <file>        JSON-lines results file (default results.jsonl)");
+        System.out.println("  --resume               skip files finished by an earlier run");
+        System.out.println("  --psm <mode>           Tesseract page segmentation mode (default: server's)");
+        System.out.println("  --oem <mode>           Tesseract engine mode (default: server's)");
+        System.out.println("  --max-matches <n>      stop searching a file after n matches (default: all)");
+        System.out.println("  --exists               only find out whether each file matches (--max-matches 1)");
+        System.out.println("  --match-case, --whole-word, --regex");
+    }
+
+    public static void main(String[] args) {
+        String host = "localhost";
+        int port = PDFProtocol.DEFAULT_PORT;
+        int concurrency = DEFAULT_CONCURRENCY;
+        int connections = DEFAULT_CONNECTIONS;
+        String output = "results.jsonl";
+        boolean resume = false;
+        int matchOptions = 0;
+        int pageSegMode = PDFProtocol.DEFAULT_OCR_MODE;
+        int ocrEngineMode = PDFProtocol.DEFAULT_OCR_MODE;
+        int maxMatches = 0;
+        List<String> positional = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--concurrency":
+                        concurrency = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--connections":
+                        connections = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--output":
+                        output = args[++i];
+                        break;
+                    case "--resume":
+                        resume = true;
+                        break;
+                    case "--match-case":
+                        matchOptions |= PDFProtocol.MATCH_CASE;
+                        break;
+                    case "--whole-word":
+                        matchOptions |= PDFProtocol.WHOLE_WORD;
+                        break;
+                    case "--regex":
+                        matchOptions |= PDFProtocol.REGEX;
+                        break;
+                    case "--psm":
+                        pageSegMode = Integer.parseInt(args[++i]);
+                        break;
+                    case "--oem":
+                        ocrEngineMode = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-matches":
+                        maxMatches = Math.max(0, Integer.parseInt(args[++i]));
+                        break;
+                    case "--exists":
+                        maxMatches = 1;
+                        break;
+                    default:
+                        positional.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            System.exit(2);
+        }
+
+        List<String> phrases = new ArrayList<>();
+        if (positional.size() == 2) {
+            for (String phrase : positional.get(1).split(";")) {
+                if (!phrase.trim().isEmpty()) {
+                    phrases.add(phrase.trim());
+                }
+            }
+        }
+        if (phrases.isEmpty() || !new File(positional.get(0)).isDirectory()) {
+            printUsage();
+            System.exit(2);
+        }
+
+        try {
+            PDFBatchClient client = new PDFBatchClient(host, port, phrases, matchOptions, pageSegMode,
+                                                       ocrEngineMode, maxMatches, concurrency, Paths.get(output),
+                                                       resume);
+            int failed = client.run(Paths.get(positional.get(0)), Math.min(connections, concurrency));
+            System.exit(failed == 0 ? 0 : 1);
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Batch search failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
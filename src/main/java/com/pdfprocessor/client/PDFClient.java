@@ -4,19 +4,21 @@ import java.awt.BorderLayout;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
 import java.io.File;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -28,21 +30,34 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
 
+import com.pdfprocessor.shared.PDFConnectionPool;
 import com.pdfprocessor.shared.PDFProtocol;
 
 public class PDFClient extends JFrame {
+    private static final int MAX_CONNECTIONS = 2;
+    private static final int MAX_BUSY_RETRIES = 5;
+    private static final long JOB_POLL_INTERVAL_MILLIS = 1000;
+    private static final int MAX_POLL_FAILURES = 5;
     private final JTextField hostField;
     private final JTextField portField;
     private final JTextField searchField;
     private final JTextArea resultArea;
     private final JButton selectFileButton;
     private final JButton searchButton;
+    private final JCheckBox streamCheckBox;
+    private final JCheckBox stopAtFirstMatchCheckBox;
+    private final JCheckBox matchCaseCheckBox;
+    private final JCheckBox wholeWordCheckBox;
+    private final JCheckBox regexCheckBox;
+    private final JCheckBox jobsCheckBox;
     private final DefaultListModel<String> fileListModel;
     private final JList<String> fileList;
     private final List<File> selectedFiles;
     private final ExecutorService executorService;
+    private final ScheduledExecutorService jobPoller;
     private int completedSearches;
     private final Object completionLock = new Object();
+    private PDFConnectionPool connectionPool;
 
     public PDFClient() {
         super("PDF Search Client");
@@ -50,6 +65,11 @@ public class PDFClient extends JFrame {
         setLayout(new BorderLayout(5, 5));
 
         executorService = Executors.newFixedThreadPool(2);
+        jobPoller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "job-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
         selectedFiles = new ArrayList<>();
 
         JPanel topPanel = new JPanel(new GridLayout(3, 2, 5, 5));
@@ -64,6 +84,12 @@ public class PDFClient extends JFrame {
         selectFileButton = new JButton("Select PDF Files");
         searchButton = new JButton("Search All");
         searchButton.setEnabled(false);
+        streamCheckBox = new JCheckBox("Stream results per page", true);
+        stopAtFirstMatchCheckBox = new JCheckBox("Stop at first match");
+        matchCaseCheckBox = new JCheckBox("Match case");
+        wholeWordCheckBox = new JCheckBox("Whole words");
+        regexCheckBox = new JCheckBox("Regex");
+        jobsCheckBox = new JCheckBox("Run as background jobs");
 
         fileListModel = new DefaultListModel<>();
         fileList = new JList<>(fileListModel);
@@ -74,7 +100,7 @@ public class PDFClient extends JFrame {
         topPanel.add(hostField);
         topPanel.add(new JLabel("Port:"));
         topPanel.add(portField);
-        topPanel.add(new JLabel("Search Text:"));
+        topPanel.add(new JLabel("Search Phrases (separate with ;):"));
         topPanel.add(searchField);
 
         centerPanel.add(fileListScroller, BorderLayout.NORTH);
@@ -82,6 +108,12 @@ public class PDFClient extends JFrame {
 
         bottomPanel.add(selectFileButton);
         bottomPanel.add(searchButton);
+        bottomPanel.add(streamCheckBox);
+        bottomPanel.add(stopAtFirstMatchCheckBox);
+        bottomPanel.add(matchCaseCheckBox);
+        bottomPanel.add(wholeWordCheckBox);
+        bottomPanel.add(regexCheckBox);
+        bottomPanel.add(jobsCheckBox);
 
         add(topPanel, BorderLayout.NORTH);
         add(centerPanel, BorderLayout.CENTER);
@@ -131,9 +163,21 @@ public class PDFClient extends JFrame {
 
         String host = hostField.getText().trim();
         int port = Integer.parseInt(portField.getText().trim());
-        String searchText = searchField.getText().trim();
-
-        if (searchText.isEmpty()) {
+        List<String> phrases = new ArrayList<>();
+        for (String phrase : searchField.getText().split(";")) {
+            if (!phrase.trim().isEmpty()) {
+                phrases.add(phrase.trim());
+            }
+        }
+        int matchOptions = (matchCaseCheckBox.isSelected() ? PDFProtocol.MATCH_CASE : 0)
+            | (wholeWordCheckBox.isSelected() ? PDFProtocol.WHOLE_WORD : 0)
+            | (regexCheckBox.isSelected() ? PDFProtocol.REGEX : 0);
+        boolean background = jobsCheckBox.isSelected();
+        // Jobs are never streamed; their progress is polled instead.
+        boolean streaming = !background && streamCheckBox.isSelected();
+        boolean stopAtFirstMatch = streaming && stopAtFirstMatchCheckBox.isSelected();
+
+        if (phrases.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Please enter search text.", "Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
@@ -145,75 +189,253 @@ public class PDFClient extends JFrame {
 
         int totalFiles = selectedFiles.size();
         for (File file : selectedFiles) {
-            executorService.submit(() -> {
-                processFile(file, host, port, searchText);
-                synchronized (completionLock) {
-                    completedSearches++;
-                    if (completedSearches == totalFiles) {
-                        SwingUtilities.invokeLater(() -> {
-                            selectedFiles.clear();
-                            fileListModel.clear();
-                            setUIEnabled(true);
-                            appendToResults("\n=== All files processed ===\n");
-                            appendToResults("Select new files to perform another search\n");
-                        });
-                    }
-                }
-            });
+            if (background) {
+                executorService.submit(() -> submitJob(file, host, port, phrases, matchOptions,
+                                                       () -> fileFinished(totalFiles)));
+            } else {
+                executorService.submit(() -> {
+                    processFile(file, host, port, phrases, matchOptions, streaming, stopAtFirstMatch);
+                    fileFinished(totalFiles);
+                });
+            }
         }
     }
 
-    private void processFile(File file, String host, int port, String searchText) {
+    private void fileFinished(int totalFiles) {
+        synchronized (completionLock) {
+            completedSearches++;
+            if (completedSearches == totalFiles) {
+                SwingUtilities.invokeLater(() -> {
+                    selectedFiles.clear();
+                    fileListModel.clear();
+                    setUIEnabled(true);
+                    appendToResults("\n=== All files processed ===\n");
+                    appendToResults("Select new files to perform another search\n");
+                });
+            }
+        }
+    }
+
+    private static PDFProtocol.SearchRequest createRequest(File file, List<String> phrases, int matchOptions,
+                                                           boolean streaming) throws IOException {
+        if (PDFProtocol.useBinaryProtocol()) {
+            return new PDFProtocol.SearchRequest(file, phrases, matchOptions, file.getName(), streaming);
+        }
+        return new PDFProtocol.SearchRequest(
+            Files.readAllBytes(file.toPath()), phrases, matchOptions, file.getName(), streaming
+        );
+    }
+
+    private void processFile(File file, String host, int port, List<String> phrases, int matchOptions,
+                             boolean streaming, boolean stopAtFirstMatch) {
         try {
             appendToResults("\nStarting search in: " + file.getName() + "\n");
-            
-            Socket socket = new Socket();
-            socket.connect(new java.net.InetSocketAddress(host, port), 5000);
-            socket.setTcpNoDelay(true);
-            socket.setKeepAlive(true);
 
-            try (ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+            if (file.length() > PDFProtocol.MAX_FILE_SIZE) {
+                appendToResults("Error for " + file.getName() + ": File too large\n");
+                return;
+            }
 
-                byte[] pdfContent = Files.readAllBytes(file.toPath());
+            PDFProtocol.SearchRequest request = createRequest(file, phrases, matchOptions, streaming);
 
-                if (pdfContent.length > PDFProtocol.MAX_FILE_SIZE) {
-                    appendToResults("Error for " + file.getName() + ": File too large\n");
-                    return;
-                }
-
-                PDFProtocol.SearchRequest request = new PDFProtocol.SearchRequest(
-                    pdfContent, searchText, file.getName()
-                );
-
-                out.writeObject(request);
-                out.flush();
-
-                Object response = in.readObject();
-                if (response instanceof PDFProtocol.SearchResponse) {
-                    PDFProtocol.SearchResponse searchResponse = (PDFProtocol.SearchResponse) response;
-                    if (searchResponse.getError() != null) {
-                        appendToResults("Error in " + file.getName() + ": " + searchResponse.getError() + "\n");
-                    } else if (searchResponse.isFound()) {
-                        List<String> contexts = searchResponse.getContexts();
-                        appendToResults("Found " + contexts.size() + " matches in " + file.getName() + ":\n");
-                        for (int i = 0; i < contexts.size(); i++) {
-                            appendToResults("Match " + (i + 1) + ":\n");
-                            appendToResults(contexts.get(i) + "\n");
+            PDFProtocol.SearchResponse searchResponse;
+            for (int attempt = 1; ; attempt++) {
+                CompletableFuture<Void> firstMatch = new CompletableFuture<>();
+                CompletableFuture<PDFProtocol.SearchResponse> response = getConnectionPool(host, port).acquire()
+                    .search(request, pageResult -> {
+                        showPageResult(file, pageResult);
+                        if (!pageResult.getContexts().isEmpty()) {
+                            firstMatch.complete(null);
                         }
-                        appendToResults("\n");
-                    } else {
-                        appendToResults("No matches found in " + file.getName() + "\n");
+                    });
+
+                if (stopAtFirstMatch) {
+                    CompletableFuture.anyOf(response, firstMatch).join();
+                    if (!response.isDone()) {
+                        response.cancel(true);
+                        appendToResults("Stopped searching " + file.getName() + " after first match\n\n");
+                        return;
                     }
                 }
-            } finally {
-                socket.close();
+
+                searchResponse = response.get();
+                if (!searchResponse.isServerBusy() || attempt > MAX_BUSY_RETRIES) {
+                    break;
+                }
+                appendToResults("Server busy, retrying " + file.getName() + " in "
+                    + searchResponse.getRetryAfterMillis() + " ms\n");
+                Thread.sleep(searchResponse.getRetryAfterMillis());
             }
+
+            showResponse(file, searchResponse, phrases, streaming);
+        } catch (ExecutionException e) {
+            appendToResults("Error processing " + file.getName() + ": " + e.getCause().getMessage() + "\n");
         } catch (Exception e) {
             appendToResults("Error processing " + file.getName() + ": " + e.getMessage() + "\n");
         }
     }
 
+    private void showResponse(File file, PDFProtocol.SearchResponse searchResponse, List<String> phrases,
+                              boolean streaming) {
+        if (searchResponse.getError() != null) {
+            appendToResults("Error in " + file.getName() + ": " + searchResponse.getError() + "\n");
+        } else if (streaming) {
+            appendToResults("Finished " + file.getName() + ": " + searchResponse.getTotalMatches()
+                + " matches in " + searchResponse.getPagesSearched() + " pages (queued "
+                + searchResponse.getQueueWaitMillis() + " ms)\n");
+            if (phrases.size() > 1) {
+                for (PDFProtocol.PhraseMatches matches : searchResponse.getPhraseMatches()) {
+                    appendToResults("  '" + matches.getPhrase() + "': " + matches.getMatchCount() + " matches\n");
+                }
+            }
+            appendToResults("\n");
+        } else if (searchResponse.isFound()) {
+            appendToResults("Found " + searchResponse.getTotalMatches() + " matches in " + file.getName() + ":\n");
+            for (PDFProtocol.PhraseMatches matches : searchResponse.getPhraseMatches()) {
+                List<String> contexts = matches.getContexts();
+                appendToResults("'" + matches.getPhrase() + "': " + contexts.size() + " matches\n");
+                for (int i = 0; i < contexts.size(); i++) {
+                    appendToResults("Match " + (i + 1) + ":\n");
+                    appendToResults(contexts.get(i) + "\n");
+                }
+            }
+            appendToResults("\n");
+        } else {
+            appendToResults("No matches found in " + file.getName() + "\n");
+        }
+    }
+
+    /**
+     * Submits the search as a job and polls it until it finishes. No thread
+     * waits for the job in between, so any number of files can be in flight.
+     */
+    private void submitJob(File file, String host, int port, List<String> phrases, int matchOptions,
+                           Runnable finished) {
+        boolean queued = false;
+        try {
+            if (file.length() > PDFProtocol.MAX_FILE_SIZE) {
+                appendToResults("Error for " + file.getName() + ": File too large\n");
+                return;
+            }
+
+            PDFProtocol.SearchRequest request = createRequest(file, phrases, matchOptions, false);
+            PDFProtocol.JobStatus status;
+            for (int attempt = 1; ; attempt++) {
+                status = getConnectionPool(host, port).acquire().submit(request).get();
+                if (!status.isServerBusy() || attempt > MAX_BUSY_RETRIES) {
+                    break;
+                }
+                appendToResults("Server busy, retrying " + file.getName() + " in "
+                    + status.getRetryAfterMillis() + " ms\n");
+                Thread.sleep(status.getRetryAfterMillis());
+            }
+
+            if (status.getState() == PDFProtocol.JobStatus.State.REJECTED) {
+                appendToResults("Error submitting " + file.getName() + ": " + status.getError() + "\n");
+                return;
+            }
+            appendToResults("Submitted " + file.getName() + " as job " + status.getJobId() + "\n");
+            pollJob(file, status.getJobId(), host, port, phrases, matchOptions, -1, 0, finished);
+            queued = true;
+        } catch (ExecutionException e) {
+            appendToResults("Error submitting " + file.getName() + ": " + e.getCause().getMessage() + "\n");
+        } catch (Exception e) {
+            appendToResults("Error submitting " + file.getName() + ": " + e.getMessage() + "\n");
+        } finally {
+            if (!queued) {
+                finished.run();
+            }
+        }
+    }
+
+    private void pollJob(File file, String jobId, String host, int port, List<String> phrases, int matchOptions,
+                         int reportedPages, int failures, Runnable finished) {
+        jobPoller.schedule(() -> {
+            CompletableFuture<PDFProtocol.JobStatus> fetched;
+            try {
+                fetched = getConnectionPool(host, port).acquire().fetchJob(jobId);
+            } catch (IOException e) {
+                fetched = new CompletableFuture<>();
+                fetched.completeExceptionally(e);
+            }
+            fetched.whenComplete((status, error) -> {
+                if (error != null) {
+                    // The job keeps running on the server; try again on a new connection.
+                    if (failures + 1 >= MAX_POLL_FAILURES) {
+                        appendToResults("Gave up on job for " + file.getName() + ": " + error.getMessage() + "\n");
+                        finished.run();
+                    } else {
+                        pollJob(file, jobId, host, port, phrases, matchOptions, reportedPages, failures + 1, finished);
+                    }
+                    return;
+                }
+                switch (status.getState()) {
+                    case DONE:
+                        showResponse(file, status.getResult(), phrases, false);
+                        finished.run();
+                        break;
+                    case REJECTED:
+                        if (status.isUnknownDocument()) {
+                            // The server dropped the document before the job ran; submitting
+                            // again uploads the PDF. That waits for replies, so not on this thread.
+                            appendToResults("Server no longer has " + file.getName() + ", submitting it again\n");
+                            executorService.submit(() -> submitJob(file, host, port, phrases, matchOptions,
+                                                                   finished));
+                            break;
+                        }
+                        appendToResults("Job for " + file.getName() + " rejected: " + status.getError() + "\n");
+                        finished.run();
+                        break;
+                    case QUEUED:
+                    case RUNNING:
+                        int pages = status.getPagesCompleted();
+                        if (pages != reportedPages && status.getState() == PDFProtocol.JobStatus.State.RUNNING) {
+                            appendToResults(file.getName() + " - " + pages + "/" + status.getPageCount()
+                                + " pages done\n");
+                        }
+                        pollJob(file, jobId, host, port, phrases, matchOptions,
+                                status.getState() == PDFProtocol.JobStatus.State.RUNNING ? pages : reportedPages,
+                                0, finished);
+                        break;
+                    default:
+                        appendToResults("Job for " + file.getName() + " ended: "
+                            + status.getState().name().toLowerCase() + "\n");
+                        finished.run();
+                        break;
+                }
+            });
+        }, JOB_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized PDFConnectionPool getConnectionPool(String host, int port) {
+        if (connectionPool == null || !connectionPool.getHost().equals(host) || connectionPool.getPort() != port) {
+            if (connectionPool != null) {
+                connectionPool.close();
+            }
+            connectionPool = new PDFConnectionPool(host, port, MAX_CONNECTIONS);
+        }
+        return connectionPool;
+    }
+
+    private void showPageResult(File file, PDFProtocol.PageResult pageResult) {
+        List<String> contexts = pageResult.getContexts();
+        StringBuilder text = new StringBuilder();
+        text.append(file.getName()).append(" - page ").append(pageResult.getPageNumber())
+            .append(" (").append(pageResult.getPagesCompleted()).append('/').append(pageResult.getPageCount())
+            .append(" done): ");
+        if (contexts.isEmpty()) {
+            text.append("no matches\n");
+        } else {
+            text.append(contexts.size()).append(" matches\n");
+            for (PDFProtocol.PhraseMatches matches : pageResult.getPhraseMatches()) {
+                for (String context : matches.getContexts()) {
+                    text.append('[').append(matches.getPhrase()).append("] ").append(context).append('\n');
+                }
+            }
+        }
+        appendToResults(text.toString());
+    }
+
     private void appendToResults(String text) {
         SwingUtilities.invokeLater(() -> {
             resultArea.append(text);
@@ -225,11 +447,19 @@ public class PDFClient extends JFrame {
         hostField.setEnabled(enabled);
         portField.setEnabled(enabled);
         searchField.setEnabled(enabled);
+        streamCheckBox.setEnabled(enabled);
+        stopAtFirstMatchCheckBox.setEnabled(enabled);
+        jobsCheckBox.setEnabled(enabled);
         selectFileButton.setEnabled(enabled);
         searchButton.setEnabled(enabled && !selectedFiles.isEmpty());
     }
 
     private void shutdownExecutor() {
+        synchronized (this) {
+            if (connectionPool != null) {
+                connectionPool.close();
+            }
+        }
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -241,6 +471,10 @@ public class PDFClient extends JFrame {
     }
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            PDFBatchClient.main(args);
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             new PDFClient().setVisible(true);
         });
@@ -1,20 +1,266 @@
 package com.pdfprocessor.server;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import com.pdfprocessor.shared.Compression;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Server settings. Each one is looked up as a system property
+ * ({@code -Dpdfprocessor.ocr.workers=4}), then as an environment variable
+ * ({@code PDFPROCESSOR_OCR_WORKERS=4}), then in the configuration file, and
+ * falls back to its default. The file is {@code pdfprocessor.properties} in
+ * the working directory unless the {@code pdfprocessor.config} property
+ * names another one.
+ *
+ * <p>A Config is an immutable snapshot. Once {@link #startWatching()} has
+ * been called, changes to the file are picked up while the server runs: the
+ * new snapshot replaces the current one and listeners resize pools, queues
+ * and caches to match. A few settings, such as the files directory, are only
+ * read at startup.
+ */
 public class Config {
-    private static Config instance;
+    private static final String FILE_PROPERTY = "pdfprocessor.config";
+    private static final String DEFAULT_FILE = "pdfprocessor.properties";
+    private static final String PROPERTY_PREFIX = "pdfprocessor.";
+    private static final String ENVIRONMENT_PREFIX = "PDFPROCESSOR_";
+    private static final long WATCH_INTERVAL_MILLIS = 2000;
+
+    /** Settings that only take effect when the server starts. */
+    private static final Set<String> STARTUP_KEYS = new HashSet<>(Arrays.asList(
+        "files.directory", "ocr.disk-cache", "metrics.port", "worker.connections", "worker.retry-millis"));
+
+    private static volatile Config instance;
+    private static final List<Consumer<Config>> listeners = new CopyOnWriteArrayList<>();
+    private static Thread watcher;
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+    private final Path file;
     private final int maxConcurrentThreads;
     private final String filesDirectory;
+    private final int ocrWorkers;
+    private final int ocrCacheMaxEntries;
+    private final long ocrCacheMaxChars;
+    private final boolean ocrDiskCacheEnabled;
+    private final long ocrDiskCacheMaxBytes;
+    private final int jobQueueDepth;
+    private final int maxQueuedJobsPerClient;
+    private final boolean documentIndexEnabled;
+    private final int indexQueryThreads;
+    private final int maxIndexedDocuments;
+    private final int metricsPort;
+    private final int coordinatorPagesPerShard;
+    private final int coordinatorMaxAttempts;
+    private final int workerConnections;
+    private final long workerRetryMillis;
+    private final int ocrPageSegMode;
+    private final int ocrEngineMode;
+    private final float ocrRenderDpi;
+    private final boolean ocrBinarize;
+    private final boolean ocrDeskew;
+    private final boolean ocrSkipBlankPages;
+    private final String tessdataPath;
+    private final String ocrLanguages;
+    private final long spoolQuotaBytes;
+    private final int spoolIdleFiles;
+    private final int retainedDocumentsPerConnection;
+    private final long maxUploadBytes;
+    private final int socketTimeoutMillis;
+    private final long regexTimeoutMillis;
+    private final List<Compression> compression;
+    private final int maxWaitingJobs;
+    private final long maxJobWaitSeconds;
+    private final long jobResultTtlSeconds;
+    private final int maxJobResults;
+    private final Log.Level logLevel;
 
-    private Config() {
+    private Config(Path file, Properties properties) {
+        Settings settings = new Settings(properties);
+        this.file = file;
         this.maxConcurrentThreads = Runtime.getRuntime().availableProcessors();
-        this.filesDirectory = "pdfs";
+        this.filesDirectory = settings.getString("files.directory", "pdfs");
+        this.ocrWorkers = settings.getInt("ocr.workers", maxConcurrentThreads, 1, 1024);
+        this.ocrCacheMaxEntries = settings.getInt("ocr.cache.max-entries", 256, 0, Integer.MAX_VALUE);
+        this.ocrCacheMaxChars = settings.getLong("ocr.cache.max-chars", 64L * 1024 * 1024, 0, Long.MAX_VALUE);
+        this.ocrDiskCacheEnabled = settings.getBoolean("ocr.disk-cache", true);
+        this.ocrDiskCacheMaxBytes = settings.getLong("ocr.disk-cache.max-bytes", 1024L * 1024 * 1024,
+                                                     0, Long.MAX_VALUE);
+        this.jobQueueDepth = settings.getInt("queue.depth", Math.max(16, ocrWorkers * 8), 1, Integer.MAX_VALUE);
+        this.maxQueuedJobsPerClient = settings.getInt("queue.per-client", Math.max(1, jobQueueDepth / 2),
+                                                      1, Integer.MAX_VALUE);
+        this.documentIndexEnabled = settings.getBoolean("index.enabled", true);
+        this.indexQueryThreads = settings.getInt("index.query-threads", 2, 1, 1024);
+        this.maxIndexedDocuments = settings.getInt("index.max-documents", 10000, 0, Integer.MAX_VALUE);
+        this.metricsPort = settings.getInt("metrics.port", 12350, 0, 65535);
+        this.coordinatorPagesPerShard = settings.getInt("coordinator.pages-per-shard", 16, 1, Integer.MAX_VALUE);
+        this.coordinatorMaxAttempts = settings.getInt("coordinator.max-attempts", 3, 1, 100);
+        this.workerConnections = settings.getInt("worker.connections", 2, 1, 1024);
+        this.workerRetryMillis = settings.getLong("worker.retry-millis", 1000, 0, Long.MAX_VALUE);
+        this.ocrPageSegMode = settings.getInt("ocr.psm", 3, OCRSettings.MIN_PAGE_SEG_MODE,
+                                              OCRSettings.MAX_PAGE_SEG_MODE);
+        this.ocrEngineMode = settings.getInt("ocr.oem", 1, OCRSettings.MIN_OCR_ENGINE_MODE,
+                                             OCRSettings.MAX_OCR_ENGINE_MODE);
+        this.ocrRenderDpi = settings.getInt("ocr.dpi", 300, (int) OCRSettings.MIN_RENDER_DPI,
+                                            (int) OCRSettings.MAX_RENDER_DPI);
+        this.ocrBinarize = settings.getBoolean("ocr.binarize", false);
+        this.ocrDeskew = settings.getBoolean("ocr.deskew", true);
+        this.ocrSkipBlankPages = settings.getBoolean("ocr.skip-blank-pages", true);
+        this.tessdataPath = settings.getString("ocr.tessdata", "C:\\Program Files\\Tesseract-OCR\\tessdata");
+        this.ocrLanguages = settings.getString("ocr.languages", "eng");
+        this.spoolQuotaBytes = settings.getLong("spool.quota-bytes", 2L * 1024 * 1024 * 1024, 0, Long.MAX_VALUE);
+        this.spoolIdleFiles = settings.getInt("spool.idle-files", ocrWorkers * 2, 0, Integer.MAX_VALUE);
+        this.retainedDocumentsPerConnection = settings.getInt("connection.retained-documents", 4,
+                                                              0, Integer.MAX_VALUE);
+        this.maxUploadBytes = settings.getLong("upload.max-bytes", PDFProtocol.MAX_FILE_SIZE,
+                                               1, PDFProtocol.MAX_FILE_SIZE);
+        this.socketTimeoutMillis = settings.getInt("socket.timeout-millis", 60000, 1000, Integer.MAX_VALUE);
+        this.regexTimeoutMillis = settings.getLong("search.regex-timeout-millis", 5000, 1, Long.MAX_VALUE / 1000000);
+        this.compression = settings.getCompression("compression", Compression.DEFAULT);
+        this.maxWaitingJobs = settings.getInt("jobs.max-waiting", 1024, 0, Integer.MAX_VALUE);
+        this.maxJobWaitSeconds = settings.getLong("jobs.max-wait-seconds", 3600, 0, Long.MAX_VALUE / 1000);
+        this.jobResultTtlSeconds = settings.getLong("jobs.result-ttl-seconds", 600, 0, Long.MAX_VALUE / 1000);
+        this.maxJobResults = settings.getInt("jobs.max-results", 1024, 0, Integer.MAX_VALUE);
+        this.logLevel = Log.parseLevel(settings.getString("log.level", Log.Level.INFO.name()), Log.Level.INFO);
+        settings.warnAboutUnknownKeys();
+    }
+
+    public static Config getInstance() {
+        Config config = instance;
+        if (config == null) {
+            synchronized (Config.class) {
+                if (instance == null) {
+                    instance = load();
+                    Log.setLevel(instance.logLevel);
+                }
+                config = instance;
+            }
+        }
+        return config;
     }
 
-    public static synchronized Config getInstance() {
-        if (instance == null) {
-            instance = new Config();
+    private static Config load() {
+        String name = System.getProperty(FILE_PROPERTY);
+        if (name == null) {
+            name = System.getenv(ENVIRONMENT_PREFIX + "CONFIG");
+        }
+        Path file = Paths.get(name != null ? name : DEFAULT_FILE);
+        Properties properties = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+                Log.info("Loaded configuration from " + file.toAbsolutePath());
+            } catch (IOException | IllegalArgumentException e) {
+                Log.error("Could not read configuration file " + file + ": " + e.getMessage());
+            }
+        } else if (name != null) {
+            Log.warn("Configuration file " + file + " not found, using defaults");
+        }
+        return new Config(file, properties);
+    }
+
+    /**
+     * Reads the configuration again and, if anything changed, makes the new
+     * settings current and passes them to the listeners.
+     */
+    public static void reload() {
+        Config previous = getInstance();
+        Config current;
+        synchronized (Config.class) {
+            current = load();
+            if (current.values.equals(previous.values)) {
+                return;
+            }
+            instance = current;
+        }
+
+        List<String> changes = new ArrayList<>();
+        for (Map.Entry<String, String> entry : current.values.entrySet()) {
+            String key = entry.getKey();
+            if (!Objects.equals(entry.getValue(), previous.values.get(key))) {
+                changes.add(key + "=" + entry.getValue());
+                if (STARTUP_KEYS.contains(key)) {
+                    Log.warn("Changed setting " + key + " takes effect after a restart");
+                }
+            }
+        }
+        Log.info("Configuration changed: " + String.join(", ", changes));
+        Log.setLevel(current.logLevel);
+        for (Consumer<Config> listener : listeners) {
+            try {
+                listener.accept(current);
+            } catch (RuntimeException e) {
+                Log.error("Error applying configuration: " + e.getMessage(), e);
+            }
         }
-        return instance;
+    }
+
+    /**
+     * Registers {@code listener} to be called with the new settings whenever
+     * they change.
+     */
+    public static void addListener(Consumer<Config> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts checking the configuration file for changes in the background.
+     */
+    public static synchronized void startWatching() {
+        if (watcher != null) {
+            return;
+        }
+        watcher = new Thread(Config::watch, "config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private static void watch() {
+        Path file = getInstance().file;
+        long lastModified = lastModified(file);
+        while (true) {
+            try {
+                Thread.sleep(WATCH_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long modified = lastModified(file);
+            if (modified != lastModified) {
+                lastModified = modified;
+                reload();
+            }
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The effective value of every setting, by key.
+     */
+    public Map<String, String> getValues() {
+        return Collections.unmodifiableMap(values);
     }
 
     public int getMaxConcurrentThreads() {
@@ -24,4 +270,285 @@ public class Config {
     public String getFilesDirectory() {
         return filesDirectory;
     }
-} 
\ No newline at end of file
+
+    public int getOcrWorkers() {
+        return ocrWorkers;
+    }
+
+    public int getOcrCacheMaxEntries() {
+        return ocrCacheMaxEntries;
+    }
+
+    public long getOcrCacheMaxChars() {
+        return ocrCacheMaxChars;
+    }
+
+    public boolean isOcrDiskCacheEnabled() {
+        return ocrDiskCacheEnabled;
+    }
+
+    /**
+     * Bytes of extracted text the disk cache keeps; the least recently used
+     * documents are deleted beyond that.
+     */
+    public long getOcrDiskCacheMaxBytes() {
+        return ocrDiskCacheMaxBytes;
+    }
+
+    public int getJobQueueDepth() {
+        return jobQueueDepth;
+    }
+
+    public int getMaxQueuedJobsPerClient() {
+        return maxQueuedJobsPerClient;
+    }
+
+    public boolean isDocumentIndexEnabled() {
+        return documentIndexEnabled;
+    }
+
+    public int getIndexQueryThreads() {
+        return indexQueryThreads;
+    }
+
+    /**
+     * Documents the full-text index keeps; those indexed longest ago are
+     * dropped beyond that.
+     */
+    public int getMaxIndexedDocuments() {
+        return maxIndexedDocuments;
+    }
+
+    /**
+     * Local port of the HTTP metrics endpoint, or 0 to disable it.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Documents with more pages than this are split across workers by a
+     * coordinator.
+     */
+    public int getCoordinatorPagesPerShard() {
+        return coordinatorPagesPerShard;
+    }
+
+    public int getCoordinatorMaxAttempts() {
+        return coordinatorMaxAttempts;
+    }
+
+    public int getWorkerConnections() {
+        return workerConnections;
+    }
+
+    public long getWorkerRetryMillis() {
+        return workerRetryMillis;
+    }
+
+    /**
+     * Tesseract page segmentation mode used unless a request asks for another.
+     * 3 (fully automatic, no orientation detection) is much faster than 1.
+     */
+    public int getOcrPageSegMode() {
+        return ocrPageSegMode;
+    }
+
+    public int getOcrEngineMode() {
+        return ocrEngineMode;
+    }
+
+    /**
+     * Resolution image-only pages are rendered at for OCR, whatever the
+     * resolution of the scan embedded in the PDF.
+     */
+    public float getOcrRenderDpi() {
+        return ocrRenderDpi;
+    }
+
+    public boolean isOcrBinarize() {
+        return ocrBinarize;
+    }
+
+    public boolean isOcrDeskew() {
+        return ocrDeskew;
+    }
+
+    public boolean isOcrSkipBlankPages() {
+        return ocrSkipBlankPages;
+    }
+
+    /**
+     * Directory with Tesseract's {@code .traineddata} files.
+     */
+    public String getTessdataPath() {
+        return tessdataPath;
+    }
+
+    /**
+     * Tesseract languages to recognize, such as {@code eng} or
+     * {@code eng+deu}.
+     */
+    public String getOcrLanguages() {
+        return ocrLanguages;
+    }
+
+    /**
+     * Disk space uploads may take up in the spool directory at once. Uploads
+     * beyond it are answered with "server busy".
+     */
+    public long getSpoolQuotaBytes() {
+        return spoolQuotaBytes;
+    }
+
+    public int getSpoolIdleFiles() {
+        return spoolIdleFiles;
+    }
+
+    /**
+     * How many uploads each connection keeps for follow-up requests that
+     * refer to them by document id.
+     */
+    public int getRetainedDocumentsPerConnection() {
+        return retainedDocumentsPerConnection;
+    }
+
+    /**
+     * Largest PDF the server accepts, at most
+     * {@link PDFProtocol#MAX_FILE_SIZE}.
+     */
+    public long getMaxUploadBytes() {
+        return maxUploadBytes;
+    }
+
+    /**
+     * How long a connection without requests in flight may stay silent
+     * before the server closes it.
+     */
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    /**
+     * How long the regular expressions of a request may run on one page, or
+     * on a whole document when it is searched at once.
+     */
+    public long getRegexTimeoutMillis() {
+        return regexTimeoutMillis;
+    }
+
+    /**
+     * Codecs the server accepts from clients, most preferred first; empty to
+     * never compress. Applies to new connections.
+     */
+    public List<Compression> getCompression() {
+        return compression;
+    }
+
+    /**
+     * How many submitted jobs may wait for a worker before further
+     * submissions are refused as busy.
+     */
+    public int getMaxWaitingJobs() {
+        return maxWaitingJobs;
+    }
+
+    /**
+     * How long a submitted job may wait for a worker before it is given up.
+     */
+    public long getMaxJobWaitSeconds() {
+        return maxJobWaitSeconds;
+    }
+
+    /**
+     * How long the result of a finished job is kept for fetching.
+     */
+    public long getJobResultTtlSeconds() {
+        return jobResultTtlSeconds;
+    }
+
+    public int getMaxJobResults() {
+        return maxJobResults;
+    }
+
+    public Log.Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Looks up raw values and records the effective value of each key in
+     * {@link #values}.
+     */
+    private final class Settings {
+        private final Properties file;
+
+        Settings(Properties file) {
+            this.file = file;
+        }
+
+        String getString(String key, String defaultValue) {
+            String value = System.getProperty(PROPERTY_PREFIX + key);
+            if (value == null) {
+                value = System.getenv(ENVIRONMENT_PREFIX + key.toUpperCase(Locale.ROOT).replace('.', '_')
+                                                                .replace('-', '_'));
+            }
+            if (value == null) {
+                value = file.getProperty(key);
+            }
+            value = value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+            values.put(key, value);
+            return value;
+        }
+
+        int getInt(String key, int defaultValue, int min, int max) {
+            return (int) getLong(key, defaultValue, min, max);
+        }
+
+        long getLong(String key, long defaultValue, long min, long max) {
+            String value = getString(key, Long.toString(defaultValue));
+            try {
+                long parsed = Long.parseLong(value);
+                if (parsed >= min && parsed <= max) {
+                    return parsed;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below.
+            }
+            Log.warn("Invalid value '" + value + "' for " + key + " (expected " + min + " to " + max
+                     + "), using " + defaultValue);
+            values.put(key, Long.toString(defaultValue));
+            return defaultValue;
+        }
+
+        boolean getBoolean(String key, boolean defaultValue) {
+            String value = getString(key, Boolean.toString(defaultValue));
+            if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+                return Boolean.parseBoolean(value);
+            }
+            Log.warn("Invalid value '" + value + "' for " + key + " (expected true or false), using "
+                     + defaultValue);
+            values.put(key, Boolean.toString(defaultValue));
+            return defaultValue;
+        }
+
+        List<Compression> getCompression(String key, String defaultValue) {
+            String value = getString(key, defaultValue);
+            try {
+                return Compression.parse(value);
+            } catch (IllegalArgumentException e) {
+                Log.warn("Invalid value '" + value + "' for " + key + " (" + e.getMessage() + "), using "
+                         + defaultValue);
+                values.put(key, defaultValue);
+                return Compression.parse(defaultValue);
+            }
+        }
+
+        void warnAboutUnknownKeys() {
+            for (String key : file.stringPropertyNames()) {
+                if (!values.containsKey(key)) {
+                    Log.warn("Unknown setting " + key + " in configuration file");
+                }
+            }
+        }
+    }
+}
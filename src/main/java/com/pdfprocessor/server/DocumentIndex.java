@@ -0,0 +1,706 @@
+package com.pdfprocessor.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Persistent inverted index over extracted document text, so repeat searches
+ * of a known document need neither an upload nor OCR.
+ *
+ * Each document is stored in its own file under {@code <files>/index}, named
+ * by its content hash:
+ *
+ * <pre>
+ * header:     int magic ("PDFI"), byte version, int pageCount, int termCount,
+ *             int postingCount, long dictionaryOffset, long postingsOffset,
+ *             long pagesOffset
+ * name:       UTF file name
+ * dictionary: termCount x (int length, UTF-8 term, int firstPosting, int postingCount), sorted
+ * postings:   postingCount x (int page, int position, int start, int end)
+ * pages:      (pageCount + 1) x long offset, then UTF-8 page texts
+ * </pre>
+ *
+ * Only the term dictionaries are held in memory, as term to document postings
+ * lists. Positions and page text are read from disk for the few documents a
+ * query actually matches. Beyond {@link Config#getMaxIndexedDocuments()},
+ * the documents indexed longest ago are dropped, along with their files; they
+ * are indexed again when they are next searched.
+ */
+public class DocumentIndex {
+    private static DocumentIndex instance;
+    private static final String INDEX_DIRECTORY = "index";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int MAGIC = 0x50444649;
+    private static final byte VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 1 + 4 * 3 + 8 * 3;
+    private static final int POSTING_SIZE = 16;
+    private static final int MAX_FILE_NAME_LENGTH = 1024;
+    private static final int CONTEXT_SIZE = 50;
+    private static final int MAX_CONTEXTS_PER_DOCUMENT = 100;
+
+    private final Path directory;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Document> documents = new HashMap<>();
+    /** Documents in the order they were indexed, oldest first. */
+    private final LinkedHashMap<String, Document> documentsById = new LinkedHashMap<>();
+    private final Map<String, TermPostings> terms = new HashMap<>();
+    private final Set<String> indexing = new HashSet<>();
+    private volatile int maxDocuments;
+    private int nextOrdinal;
+
+    private DocumentIndex() {
+        Config config = Config.getInstance();
+        this.directory = Paths.get(config.getFilesDirectory(), INDEX_DIRECTORY);
+        this.maxDocuments = config.getMaxIndexedDocuments();
+        load();
+        trim();
+        Config.addListener(this::resize);
+    }
+
+    private void resize(Config config) {
+        if (config.getMaxIndexedDocuments() != maxDocuments) {
+            maxDocuments = config.getMaxIndexedDocuments();
+            trim();
+        }
+    }
+
+    public static synchronized DocumentIndex getInstance() {
+        if (instance == null) {
+            instance = new DocumentIndex();
+        }
+        return instance;
+    }
+
+    private void load() {
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(directory);
+            List<Path> files = new ArrayList<>();
+            Map<Path, FileTime> modified = new HashMap<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + INDEX_SUFFIX)) {
+                for (Path file : entries) {
+                    files.add(file);
+                    modified.put(file, Files.getLastModifiedTime(file));
+                }
+            }
+            // Oldest first, so they are also the first to be dropped.
+            files.sort(Comparator.comparing(modified::get));
+            for (Path file : files) {
+                try {
+                    loadDocument(file);
+                } catch (IOException e) {
+                    // The index only holds text that can be extracted again.
+                    Log.warn("Dropping unreadable index file " + file + ": " + e.getMessage());
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            Log.info("Loaded document index with " + documents.size() + " documents and "
+                     + terms.size() + " terms in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            Log.error("Error loading document index: " + e.getMessage());
+        }
+    }
+
+    private void loadDocument(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        String documentId = fileName.substring(0, fileName.length() - INDEX_SUFFIX.length());
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            Header header = readHeader(in);
+            // The dictionary directly follows the file name.
+            Document document = new Document(nextOrdinal++, documentId, in.readUTF(), header, file);
+            for (int i = 0; i < header.termCount; i++) {
+                String term = readTerm(in);
+                int firstPosting = in.readInt();
+                int postingCount = in.readInt();
+                postingsFor(term).add(document.ordinal, firstPosting, postingCount);
+            }
+            register(document);
+        }
+    }
+
+    private TermPostings postingsFor(String term) {
+        TermPostings postings = terms.get(term);
+        if (postings == null) {
+            postings = new TermPostings();
+            terms.put(term, postings);
+        }
+        return postings;
+    }
+
+    private void register(Document document) {
+        documents.put(document.ordinal, document);
+        documentsById.put(document.documentId, document);
+    }
+
+    /**
+     * Drops the documents indexed longest ago until no more than the
+     * configured number are left. A dropped document disappears from queries
+     * at once; its postings and its file are removed afterwards, outside the
+     * lock.
+     */
+    private void trim() {
+        List<Document> dropped = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            Iterator<Document> eldest = documentsById.values().iterator();
+            while (documentsById.size() > maxDocuments && eldest.hasNext()) {
+                Document document = eldest.next();
+                eldest.remove();
+                documents.remove(document.ordinal);
+                dropped.add(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (Document document : dropped) {
+            try {
+                List<String> documentTerms = readTerms(document.file);
+                lock.writeLock().lock();
+                try {
+                    for (String term : documentTerms) {
+                        TermPostings postings = terms.get(term);
+                        if (postings != null && postings.remove(document.ordinal) && postings.size == 0) {
+                            terms.remove(term);
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                synchronized (indexing) {
+                    // The document may be indexed again into the same file meanwhile.
+                    if (!indexing.contains(document.documentId) && !contains(document.documentId)) {
+                        Files.deleteIfExists(document.file);
+                    }
+                }
+            } catch (IOException e) {
+                Log.warn("Error dropping " + document.documentId + " from the document index: " + e.getMessage());
+            }
+        }
+        if (!dropped.isEmpty()) {
+            Log.debug("Dropped " + dropped.size() + " documents from the document index");
+        }
+    }
+
+    private static List<String> readTerms(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            Header header = readHeader(in);
+            in.readUTF();
+            List<String> documentTerms = new ArrayList<>(header.termCount);
+            for (int i = 0; i < header.termCount; i++) {
+                documentTerms.add(readTerm(in));
+                in.readInt();
+                in.readInt();
+            }
+            return documentTerms;
+        }
+    }
+
+    /**
+     * Terms are written as a length and their UTF-8 bytes, since
+     * {@code writeUTF} cannot hold a run of letters or digits longer than
+     * 64 KB.
+     */
+    private static void writeTerm(DataOutputStream out, String term) throws IOException {
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readTerm(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid term length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public boolean contains(String documentId) {
+        lock.readLock().lock();
+        try {
+            return documentsById.containsKey(documentId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return documentsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes the pages of a document unless it is already indexed. The index
+     * file is written before the document becomes visible to queries.
+     */
+    public void addDocument(String documentId, String fileName, List<String> pages) {
+        synchronized (indexing) {
+            if (contains(documentId) || !indexing.add(documentId)) {
+                return;
+            }
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Path file = directory.resolve(documentId + INDEX_SUFFIX);
+            TreeMap<String, List<int[]>> documentTerms = tokenizePages(pages);
+            Header header = writeDocument(file, fileName, pages, documentTerms);
+
+            lock.writeLock().lock();
+            try {
+                Document document = new Document(nextOrdinal++, documentId, truncate(fileName), header, file);
+                int posting = 0;
+                for (Map.Entry<String, List<int[]>> entry : documentTerms.entrySet()) {
+                    postingsFor(entry.getKey()).add(document.ordinal, posting, entry.getValue().size());
+                    posting += entry.getValue().size();
+                }
+                register(document);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Log.debug("Indexed " + fileName + " (" + pages.size() + " pages, " + documentTerms.size()
+                      + " terms) in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            Log.warn("Error indexing " + fileName + ": " + e.getMessage());
+        } finally {
+            synchronized (indexing) {
+                indexing.remove(documentId);
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Maps every term to its postings, each {page, position, start, end}, in
+     * page and position order.
+     */
+    private static TreeMap<String, List<int[]>> tokenizePages(List<String> pages) {
+        TreeMap<String, List<int[]>> documentTerms = new TreeMap<>();
+        for (int page = 0; page < pages.size(); page++) {
+            String text = pages.get(page);
+            int position = 0;
+            int i = 0;
+            while (i < text.length()) {
+                if (!Character.isLetterOrDigit(text.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                    i++;
+                }
+                String term = text.substring(start, i).toLowerCase(Locale.ROOT);
+                List<int[]> postings = documentTerms.get(term);
+                if (postings == null) {
+                    postings = new ArrayList<>();
+                    documentTerms.put(term, postings);
+                }
+                postings.add(new int[] {page + 1, position++, start, i});
+            }
+        }
+        return documentTerms;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        return tokens;
+    }
+
+    private Header writeDocument(Path file, String fileName, List<String> pages,
+                                 TreeMap<String, List<int[]>> documentTerms) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+
+        out.writeUTF(truncate(fileName));
+        long dictionaryOffset = HEADER_SIZE + out.size();
+        int posting = 0;
+        for (Map.Entry<String, List<int[]>> entry : documentTerms.entrySet()) {
+            writeTerm(out, entry.getKey());
+            out.writeInt(posting);
+            out.writeInt(entry.getValue().size());
+            posting += entry.getValue().size();
+        }
+
+        long postingsOffset = HEADER_SIZE + out.size();
+        for (List<int[]> postings : documentTerms.values()) {
+            for (int[] entry : postings) {
+                out.writeInt(entry[0]);
+                out.writeInt(entry[1]);
+                out.writeInt(entry[2]);
+                out.writeInt(entry[3]);
+            }
+        }
+
+        long pagesOffset = HEADER_SIZE + out.size();
+        List<byte[]> pageBytes = new ArrayList<>(pages.size());
+        long textOffset = 0;
+        out.writeLong(textOffset);
+        for (String page : pages) {
+            byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+            pageBytes.add(bytes);
+            textOffset += bytes.length;
+            out.writeLong(textOffset);
+        }
+        for (byte[] bytes : pageBytes) {
+            out.write(bytes);
+        }
+        out.flush();
+
+        Header header = new Header(pages.size(), documentTerms.size(), posting,
+                                   dictionaryOffset, postingsOffset, pagesOffset);
+        Path tempFile = Files.createTempFile(directory, "index", ".tmp");
+        try {
+            try (DataOutputStream fileOut = new DataOutputStream(Files.newOutputStream(tempFile))) {
+                header.write(fileOut);
+                body.writeTo(fileOut);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return header;
+    }
+
+    /**
+     * Finds {@code phrase} in the given documents, or in all indexed documents
+     * when {@code documentIds} is empty. Terms must appear consecutively, so
+     * punctuation and line breaks between words are ignored.
+     */
+    public PDFProtocol.IndexSearchResponse search(Collection<String> documentIds, String phrase, int maxDocuments)
+            throws IOException {
+        List<String> phraseTerms = tokenize(phrase);
+        if (phraseTerms.isEmpty()) {
+            return new PDFProtocol.IndexSearchResponse(null, 0, "Search phrase contains no words");
+        }
+
+        List<Document> candidates = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Set<Integer> allowed = null;
+            if (documentIds != null && !documentIds.isEmpty()) {
+                allowed = new HashSet<>();
+                for (String documentId : documentIds) {
+                    Document document = documentsById.get(documentId);
+                    if (document != null) {
+                        allowed.add(document.ordinal);
+                    } else {
+                        unknown.add(documentId);
+                    }
+                }
+            }
+            collectCandidates(phraseTerms, allowed, candidates, ranges);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<PDFProtocol.DocumentMatch> matches = new ArrayList<>();
+        int totalMatches = 0;
+        for (int i = 0; i < candidates.size() && matches.size() < maxDocuments; i++) {
+            PDFProtocol.DocumentMatch match;
+            try {
+                match = matchDocument(candidates.get(i), ranges.get(i), phraseTerms.size());
+            } catch (NoSuchFileException e) {
+                // Dropped from the index since the candidates were collected.
+                continue;
+            }
+            if (match != null) {
+                matches.add(match);
+                totalMatches += match.getMatchCount();
+            }
+        }
+        String error = unknown.isEmpty() ? null : "Unknown documents: " + unknown;
+        return new PDFProtocol.IndexSearchResponse(matches, totalMatches, error);
+    }
+
+    /**
+     * Intersects the document lists of all phrase terms. For each candidate
+     * document, {@code ranges} receives the {first, count} posting range of
+     * every term.
+     */
+    private void collectCandidates(List<String> phraseTerms, Set<Integer> allowed,
+                                   List<Document> candidates, List<int[]> ranges) {
+        TermPostings[] postings = new TermPostings[phraseTerms.size()];
+        for (int i = 0; i < postings.length; i++) {
+            postings[i] = terms.get(phraseTerms.get(i));
+            if (postings[i] == null) {
+                return;
+            }
+        }
+
+        // Document lists are sorted by ordinal, so intersect by advancing the rarest list.
+        TermPostings rarest = postings[0];
+        for (TermPostings candidate : postings) {
+            if (candidate.size < rarest.size) {
+                rarest = candidate;
+            }
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            int ordinal = rarest.documents[i];
+            if (allowed != null && !allowed.contains(ordinal)) {
+                continue;
+            }
+            int[] range = new int[postings.length * 2];
+            boolean inAll = true;
+            for (int t = 0; t < postings.length && inAll; t++) {
+                int index = Arrays.binarySearch(postings[t].documents, 0, postings[t].size, ordinal);
+                if (index < 0) {
+                    inAll = false;
+                } else {
+                    range[t * 2] = postings[t].firstPostings[index];
+                    range[t * 2 + 1] = postings[t].postingCounts[index];
+                }
+            }
+            Document document = documents.get(ordinal);
+            if (inAll && document != null) {
+                candidates.add(document);
+                ranges.add(range);
+            }
+        }
+    }
+
+    private PDFProtocol.DocumentMatch matchDocument(Document document, int[] range, int termCount) throws IOException {
+        try (FileChannel channel = FileChannel.open(document.file, StandardOpenOption.READ)) {
+            int[][][] postings = new int[termCount][][];
+            long[][] keys = new long[termCount][];
+            for (int t = 0; t < termCount; t++) {
+                postings[t] = readPostings(channel, document, range[t * 2], range[t * 2 + 1]);
+                keys[t] = new long[postings[t].length];
+                for (int i = 0; i < postings[t].length; i++) {
+                    keys[t][i] = positionKey(postings[t][i][0], postings[t][i][1]);
+                }
+            }
+
+            List<String> contexts = new ArrayList<>();
+            List<Integer> contextPages = new ArrayList<>();
+            int matchCount = 0;
+            int loadedPage = -1;
+            String pageText = null;
+            for (int[] first : postings[0]) {
+                int[] last = first;
+                for (int t = 1; t < termCount && last != null; t++) {
+                    int index = Arrays.binarySearch(keys[t], positionKey(first[0], first[1] + t));
+                    last = index >= 0 ? postings[t][index] : null;
+                }
+                if (last == null) {
+                    continue;
+                }
+                matchCount++;
+                if (contexts.size() >= MAX_CONTEXTS_PER_DOCUMENT) {
+                    continue;
+                }
+                if (first[0] != loadedPage) {
+                    loadedPage = first[0];
+                    pageText = readPage(channel, document, loadedPage);
+                }
+                contexts.add(extractContext(pageText, first[2], last[3]));
+                contextPages.add(first[0]);
+            }
+            if (matchCount == 0) {
+                return null;
+            }
+            return new PDFProtocol.DocumentMatch(document.documentId, document.fileName, matchCount,
+                                                 contexts, contextPages);
+        }
+    }
+
+    private static long positionKey(int page, int position) {
+        return ((long) page << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    private static int[][] readPostings(FileChannel channel, Document document, int first, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count * POSTING_SIZE);
+        readFully(channel, buffer, document.header.postingsOffset + (long) first * POSTING_SIZE);
+        int[][] postings = new int[count][4];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < 4; j++) {
+                postings[i][j] = buffer.getInt();
+            }
+        }
+        return postings;
+    }
+
+    private static String readPage(FileChannel channel, Document document, int page) throws IOException {
+        ByteBuffer offsets = ByteBuffer.allocate(16);
+        readFully(channel, offsets, document.header.pagesOffset + (long) (page - 1) * 8);
+        long start = offsets.getLong();
+        long end = offsets.getLong();
+        long textStart = document.header.pagesOffset + (long) (document.header.pageCount + 1) * 8;
+        ByteBuffer text = ByteBuffer.allocate((int) (end - start));
+        readFully(channel, text, textStart + start);
+        return new String(text.array(), StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Index file is truncated");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static String extractContext(String text, int start, int end) {
+        int from = Math.max(0, start - CONTEXT_SIZE);
+        int to = Math.min(text.length(), end + CONTEXT_SIZE);
+        return "..." + text.substring(from, to).replace('\r', ' ').replace('\n', ' ').toLowerCase(Locale.ROOT) + "...";
+    }
+
+    private static Header readHeader(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an index file");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported index version " + version);
+        }
+        return new Header(in.readInt(), in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    private static String truncate(String fileName) {
+        String name = fileName != null ? fileName : "";
+        return name.length() > MAX_FILE_NAME_LENGTH ? name.substring(0, MAX_FILE_NAME_LENGTH) : name;
+    }
+
+    private static final class Header {
+        final int pageCount;
+        final int termCount;
+        final int postingCount;
+        final long dictionaryOffset;
+        final long postingsOffset;
+        final long pagesOffset;
+
+        Header(int pageCount, int termCount, int postingCount,
+               long dictionaryOffset, long postingsOffset, long pagesOffset) {
+            this.pageCount = pageCount;
+            this.termCount = termCount;
+            this.postingCount = postingCount;
+            this.dictionaryOffset = dictionaryOffset;
+            this.postingsOffset = postingsOffset;
+            this.pagesOffset = pagesOffset;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(pageCount);
+            out.writeInt(termCount);
+            out.writeInt(postingCount);
+            out.writeLong(dictionaryOffset);
+            out.writeLong(postingsOffset);
+            out.writeLong(pagesOffset);
+        }
+    }
+
+    private static final class Document {
+        final int ordinal;
+        final String documentId;
+        final String fileName;
+        final Header header;
+        final Path file;
+
+        Document(int ordinal, String documentId, String fileName, Header header, Path file) {
+            this.ordinal = ordinal;
+            this.documentId = documentId;
+            this.fileName = fileName;
+            this.header = header;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Documents containing one term, in ordinal order, with the range of the
+     * term's postings inside each document's index file.
+     */
+    private static final class TermPostings {
+        int[] documents = new int[2];
+        int[] firstPostings = new int[2];
+        int[] postingCounts = new int[2];
+        int size;
+
+        void add(int document, int firstPosting, int postingCount) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                firstPostings = Arrays.copyOf(firstPostings, size * 2);
+                postingCounts = Arrays.copyOf(postingCounts, size * 2);
+            }
+            documents[size] = document;
+            firstPostings[size] = firstPosting;
+            postingCounts[size] = postingCount;
+            size++;
+        }
+
+        /**
+         * Removes a document's entry, keeping the others in ordinal order.
+         */
+        boolean remove(int document) {
+            int index = Arrays.binarySearch(documents, 0, size, document);
+            if (index < 0) {
+                return false;
+            }
+            int moved = size - index - 1;
+            System.arraycopy(documents, index + 1, documents, index, moved);
+            System.arraycopy(firstPostings, index + 1, firstPostings, index, moved);
+            System.arraycopy(postingCounts, index + 1, postingCounts, index, moved);
+            size--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.pdfprocessor.server;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+
+/**
+ * Cleans up a rendered page before it goes to Tesseract: pages without ink
+ * are detected so OCR can be skipped, skewed scans are straightened and the
+ * page can be reduced to black and white. The page analysis runs on a coarse
+ * grid of blocks, so it costs a few milliseconds rather than a second OCR
+ * pass.
+ */
+public final class ImagePreprocessor {
+    /** Fraction of the page ignored at each edge, where scanners leave shadows. */
+    private static final double MARGIN = 0.03;
+    /** Pages where fewer blocks than this fraction contain ink are blank. */
+    private static final double BLANK_INK_RATIO = 0.0001;
+    /** Pixels lighter than this never count as ink, however light the page is. */
+    private static final int MAX_INK_LEVEL = 160;
+    private static final double MAX_SKEW_DEGREES = 5;
+    private static final double COARSE_SKEW_STEP_DEGREES = 0.5;
+    private static final double SKEW_STEP_DEGREES = 0.1;
+    /** Smaller skews are left alone; Tesseract copes with them. */
+    private static final double MIN_SKEW_DEGREES = 0.2;
+    private static final int MIN_SKEW_SAMPLES = 100;
+    private static final int MAX_SKEW_SAMPLES = 20000;
+
+    private ImagePreprocessor() {
+    }
+
+    /**
+     * Applies the preprocessing steps enabled in {@code settings} and returns
+     * the image to OCR, or null if the page is blank.
+     */
+    public static BufferedImage prepare(BufferedImage page, OCRSettings settings) {
+        BufferedImage gray = toGray(page);
+        if (settings.isSkipBlankPages() || settings.isDeskew()) {
+            InkMap ink = new InkMap(gray);
+            if (settings.isSkipBlankPages() && ink.isBlank()) {
+                return null;
+            }
+            if (settings.isDeskew()) {
+                double skew = ink.estimateSkew();
+                if (Math.abs(skew) >= MIN_SKEW_DEGREES) {
+                    gray = rotate(gray, -skew);
+                }
+            }
+        }
+        return settings.isBinarize() ? binarize(gray) : gray;
+    }
+
+    public static boolean isBlank(BufferedImage page) {
+        return new InkMap(toGray(page)).isBlank();
+    }
+
+    /**
+     * Angle in degrees, clockwise, by which the text lines on the page are
+     * rotated, or 0 if it cannot be determined.
+     */
+    public static double estimateSkew(BufferedImage page) {
+        return new InkMap(toGray(page)).estimateSkew();
+    }
+
+    /**
+     * Rotates the page clockwise about its center with bilinear
+     * interpolation, filling uncovered corners with white.
+     */
+    public static BufferedImage rotate(BufferedImage page, double degrees) {
+        BufferedImage gray = toGray(page);
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        byte[] source = pixelsOf(gray);
+        BufferedImage rotated = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] target = pixelsOf(rotated);
+        // Source positions in 16.16 fixed point; each target pixel moves (cos, -sin) along the source.
+        long sin = Math.round(Math.sin(Math.toRadians(degrees)) * 65536);
+        long cos = Math.round(Math.cos(Math.toRadians(degrees)) * 65536);
+        long centerX = (long) width << 15;
+        long centerY = (long) height << 15;
+        long maxX = (long) (width - 1) << 16;
+        long maxY = (long) (height - 1) << 16;
+
+        for (int y = 0; y < height; y++) {
+            long dy = ((long) y << 16) - centerY;
+            long sourceX = ((-cos * centerX + sin * dy) >> 16) + centerX;
+            long sourceY = ((sin * centerX + cos * dy) >> 16) + centerY;
+            int offset = y * width;
+            for (int x = 0; x < width; x++, sourceX += cos, sourceY -= sin) {
+                if (sourceX < 0 || sourceY < 0 || sourceX >= maxX || sourceY >= maxY) {
+                    target[offset + x] = (byte) 255;
+                    continue;
+                }
+                int index = (int) (sourceY >> 16) * width + (int) (sourceX >> 16);
+                int fx = (int) (sourceX & 0xffff) >> 8;
+                int fy = (int) (sourceY & 0xffff) >> 8;
+                int top = (source[index] & 0xff) * (256 - fx) + (source[index + 1] & 0xff) * fx;
+                int bottom = (source[index + width] & 0xff) * (256 - fx) + (source[index + width + 1] & 0xff) * fx;
+                target[offset + x] = (byte) ((top * (256 - fy) + bottom * fy + 32768) >> 16);
+            }
+        }
+        return rotated;
+    }
+
+    /**
+     * Converts the page to pure black and white at its Otsu threshold.
+     */
+    public static BufferedImage binarize(BufferedImage page) {
+        BufferedImage gray = toGray(page);
+        byte[] pixels = pixelsOf(gray);
+        int threshold = otsuThreshold(pixels);
+        BufferedImage binary = new BufferedImage(gray.getWidth(), gray.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        byte[] target = pixelsOf(binary);
+        for (int i = 0; i < pixels.length; i++) {
+            target[i] = (pixels[i] & 0xff) < threshold ? 0 : (byte) 255;
+        }
+        return binary;
+    }
+
+    /**
+     * Returns the page as an 8-bit grayscale image with its own pixel array,
+     * converting it if necessary.
+     */
+    static BufferedImage toGray(BufferedImage page) {
+        if (page.getType() == BufferedImage.TYPE_BYTE_GRAY
+                && page.getRaster().getDataBuffer() instanceof DataBufferByte
+                && ((DataBufferByte) page.getRaster().getDataBuffer()).getData().length
+                   == page.getWidth() * page.getHeight()) {
+            return page;
+        }
+        BufferedImage gray = new BufferedImage(page.getWidth(), page.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = gray.createGraphics();
+        try {
+            graphics.drawImage(page, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return gray;
+    }
+
+    private static byte[] pixelsOf(BufferedImage gray) {
+        return ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * The gray level that best separates dark from light pixels, maximizing
+     * the between-class variance.
+     */
+    static int otsuThreshold(byte[] pixels) {
+        long[] histogram = new long[256];
+        for (byte pixel : pixels) {
+            histogram[pixel & 0xff]++;
+        }
+        double totalSum = 0;
+        for (int level = 0; level < 256; level++) {
+            totalSum += (double) level * histogram[level];
+        }
+        long total = pixels.length;
+        long darkCount = 0;
+        double darkSum = 0;
+        double bestVariance = -1;
+        int threshold = 128;
+        for (int level = 0; level < 256; level++) {
+            darkCount += histogram[level];
+            if (darkCount == 0) {
+                continue;
+            }
+            long lightCount = total - darkCount;
+            if (lightCount == 0) {
+                break;
+            }
+            darkSum += (double) level * histogram[level];
+            double darkMean = darkSum / darkCount;
+            double lightMean = (totalSum - darkSum) / lightCount;
+            double variance = (double) darkCount * lightCount * (darkMean - lightMean) * (darkMean - lightMean);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = level + 1;
+            }
+        }
+        return threshold;
+    }
+
+    /**
+     * Which blocks of the page, excluding its margins, contain ink. A block
+     * counts when at least a quarter of its pixels are darker than the page's
+     * Otsu threshold, so isolated specks of scanner noise are ignored.
+     */
+    private static final class InkMap {
+        private final int columns;
+        private final int rows;
+        private final boolean[] ink;
+        private int inkBlocks;
+
+        InkMap(BufferedImage gray) {
+            int width = gray.getWidth();
+            int height = gray.getHeight();
+            byte[] pixels = pixelsOf(gray);
+            int inkLevel = Math.min(otsuThreshold(pixels), MAX_INK_LEVEL);
+            // About 600 blocks across, i.e. 4 pixels per block for a letter-size page at 300 dpi.
+            int block = Math.max(1, width / 600);
+            int left = (int) (width * MARGIN);
+            int top = (int) (height * MARGIN);
+            columns = Math.max(1, (width - 2 * left) / block);
+            rows = Math.max(1, (height - 2 * top) / block);
+            ink = new boolean[columns * rows];
+            int minDark = Math.max(1, block * block / 4);
+
+            int[] dark = new int[columns];
+            for (int row = 0; row < rows; row++) {
+                Arrays.fill(dark, 0);
+                int y0 = top + row * block;
+                for (int y = y0; y < y0 + block; y++) {
+                    int offset = y * width + left;
+                    for (int column = 0, x = 0; column < columns; column++) {
+                        int count = 0;
+                        for (int end = x + block; x < end; x++) {
+                            if ((pixels[offset + x] & 0xff) < inkLevel) {
+                                count++;
+                            }
+                        }
+                        dark[column] += count;
+                    }
+                }
+                for (int column = 0; column < columns; column++) {
+                    if (dark[column] >= minDark) {
+                        ink[row * columns + column] = true;
+                        inkBlocks++;
+                    }
+                }
+            }
+        }
+
+        boolean isBlank() {
+            return inkBlocks < BLANK_INK_RATIO * ink.length;
+        }
+
+        /**
+         * Projects the ink blocks onto lines at each candidate angle. Text
+         * lines line up with the projection at the page's skew angle, where
+         * the row profile is sharpest and its sum of squares largest.
+         */
+        double estimateSkew() {
+            if (inkBlocks < MIN_SKEW_SAMPLES) {
+                return 0;
+            }
+            int stride = Math.max(1, inkBlocks / MAX_SKEW_SAMPLES);
+            int samples = inkBlocks / stride;
+            int[] xs = new int[samples];
+            int[] ys = new int[samples];
+            int seen = 0;
+            int count = 0;
+            for (int i = 0; i < ink.length && count < samples; i++) {
+                if (ink[i] && seen++ % stride == 0) {
+                    xs[count] = i % columns;
+                    ys[count] = i / columns;
+                    count++;
+                }
+            }
+
+            int offset = (int) Math.ceil(columns * Math.sin(Math.toRadians(MAX_SKEW_DEGREES))) + 1;
+            int[] profile = new int[rows + 2 * offset + 1];
+            double coarse = bestAngle(xs, ys, count, profile, offset, -MAX_SKEW_DEGREES, MAX_SKEW_DEGREES,
+                                      COARSE_SKEW_STEP_DEGREES);
+            double bestAngle = bestAngle(xs, ys, count, profile, offset,
+                                         Math.max(-MAX_SKEW_DEGREES, coarse - COARSE_SKEW_STEP_DEGREES),
+                                         Math.min(MAX_SKEW_DEGREES, coarse + COARSE_SKEW_STEP_DEGREES),
+                                         SKEW_STEP_DEGREES);
+            return bestAngle;
+        }
+
+        private static double bestAngle(int[] xs, int[] ys, int count, int[] profile, int offset,
+                                        double from, double to, double step) {
+            int steps = (int) Math.round((to - from) / step);
+            double bestAngle = 0;
+            long bestScore = -1;
+            for (int i = 0; i <= steps; i++) {
+                double angle = from + i * step;
+                double sin = Math.sin(Math.toRadians(angle));
+                double cos = Math.cos(Math.toRadians(angle));
+                Arrays.fill(profile, 0);
+                for (int j = 0; j < count; j++) {
+                    profile[(int) Math.round(ys[j] * cos - xs[j] * sin) + offset]++;
+                }
+                long score = 0;
+                for (int value : profile) {
+                    score += (long) value * value;
+                }
+                if (score > bestScore || (score == bestScore && Math.abs(angle) < Math.abs(bestAngle))) {
+                    bestScore = score;
+                    bestAngle = angle;
+                }
+            }
+            return bestAngle;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.pdfprocessor.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded job queue in front of the OCR worker threads. Each client gets its
+ * own queue and workers take jobs from the clients in turn, so one client
+ * submitting a large batch cannot starve the others. Jobs beyond the total
+ * queue depth, or beyond a client's fair share of it, are refused so the caller
+ * can tell the client to retry later instead of letting work pile up.
+ * The number of workers and the queue limits can be changed while running.
+ */
+class JobScheduler {
+    private static final long MIN_RETRY_AFTER_MILLIS = 250;
+    private static final long MAX_RETRY_AFTER_MILLIS = 30000;
+    private static final double SERVICE_TIME_WEIGHT = 0.2;
+
+    private final List<Thread> workers = new ArrayList<>();
+    private final Map<Object, Deque<Runnable>> queues = new HashMap<>();
+    private final Deque<Object> readyClients = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int queueDepth;
+    private int maxQueuedPerClient;
+    private int workerCount;
+    private int nextWorkerId;
+    private int queued;
+    private int running;
+    private double averageServiceMillis = 1000;
+    private boolean shutdown;
+
+    JobScheduler(int workerCount, int queueDepth, int maxQueuedPerClient) {
+        setQueueLimits(queueDepth, maxQueuedPerClient);
+        setWorkerCount(workerCount);
+    }
+
+    /**
+     * Starts or retires workers until {@code count} are running. A retiring
+     * worker finishes its current job first.
+     */
+    void setWorkerCount(int count) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+            workerCount = Math.max(1, count);
+            while (workers.size() < workerCount) {
+                Thread worker = new Thread(this::work, "pdf-worker-" + (++nextWorkerId));
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes the queue depth and the per-client limit. Jobs already queued
+     * beyond the new limits stay queued.
+     */
+    void setQueueLimits(int queueDepth, int maxQueuedPerClient) {
+        lock.lock();
+        try {
+            this.queueDepth = Math.max(1, queueDepth);
+            this.maxQueuedPerClient = Math.max(1, maxQueuedPerClient);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues {@code job} on behalf of {@code client}. Returns false, without
+     * queueing, when the server or the client's share of it is full.
+     */
+    boolean offer(Object client, Runnable job) {
+        lock.lock();
+        try {
+            if (shutdown || queued >= queueDepth) {
+                return false;
+            }
+            Deque<Runnable> queue = queues.get(client);
+            int clientQueued = queue != null ? queue.size() : 0;
+            if (clientQueued >= fairShare(queue == null)) {
+                return false;
+            }
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(client, queue);
+                readyClients.addLast(client);
+            }
+            queue.addLast(job);
+            queued++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A client may hold its configured maximum of queue slots, but no more than
+     * an equal split of the queue between the clients currently waiting.
+     */
+    private int fairShare(boolean newClient) {
+        int clients = queues.size() + (newClient ? 1 : 0);
+        return Math.min(maxQueuedPerClient, Math.max(1, queueDepth / Math.max(1, clients)));
+    }
+
+    /**
+     * Drops a job that was cancelled while still waiting for a worker.
+     */
+    void remove(Object client, Runnable job) {
+        lock.lock();
+        try {
+            Deque<Runnable> queue = queues.get(client);
+            if (queue != null && queue.remove(job)) {
+                queued--;
+                if (queue.isEmpty()) {
+                    queues.remove(client);
+                    readyClients.remove(client);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next job round-robin across clients, or returns null once the
+     * scheduler is shut down and drained or the calling worker is retired.
+     */
+    private Runnable take() {
+        lock.lock();
+        try {
+            while (true) {
+                if (workers.size() > workerCount && !shutdown) {
+                    workers.remove(Thread.currentThread());
+                    return null;
+                }
+                if (!readyClients.isEmpty()) {
+                    break;
+                }
+                if (shutdown) {
+                    return null;
+                }
+                notEmpty.awaitUninterruptibly();
+            }
+            Object client = readyClients.pollFirst();
+            Deque<Runnable> queue = queues.get(client);
+            Runnable job = queue.pollFirst();
+            if (queue.isEmpty()) {
+                queues.remove(client);
+            } else {
+                readyClients.addLast(client);
+            }
+            queued--;
+            running++;
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        Runnable job;
+        while ((job = take()) != null) {
+            long start = System.nanoTime();
+            try {
+                job.run();
+            } catch (RuntimeException e) {
+                Log.error("Job failed: " + e.getMessage());
+            } finally {
+                // A cancelled job may leave the interrupt flag set; it must not leak into the next one.
+                Thread.interrupted();
+                finished(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+    }
+
+    private void finished(long serviceMillis) {
+        lock.lock();
+        try {
+            running--;
+            averageServiceMillis += SERVICE_TIME_WEIGHT * (serviceMillis - averageServiceMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimates how long a refused client should wait before retrying: the
+     * time the workers need to work through what is queued now.
+     */
+    long getRetryAfterMillis() {
+        lock.lock();
+        try {
+            double estimate = averageServiceMillis * (queued + 1) / workerCount;
+            return Math.max(MIN_RETRY_AFTER_MILLIS, Math.min(MAX_RETRY_AFTER_MILLIS, (long) estimate));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getQueuedJobs() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getRunningJobs() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting jobs and waits for queued and running ones to finish.
+     */
+    boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        List<Thread> running;
+        lock.lock();
+        try {
+            shutdown = true;
+            running = new ArrayList<>(workers);
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : running) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                worker.join(remaining);
+            }
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Interrupts the workers and discards everything still queued.
+     */
+    void shutdownNow() {
+        List<Runnable> discarded = new ArrayList<>();
+        List<Thread> running;
+        lock.lock();
+        try {
+            shutdown = true;
+            running = new ArrayList<>(workers);
+            for (Deque<Runnable> queue : queues.values()) {
+                discarded.addAll(queue);
+            }
+            queues.clear();
+            readyClients.clear();
+            queued = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Runnable job : discarded) {
+            if (job instanceof Future) {
+                ((Future<?>) job).cancel(false);
+            }
+        }
+        for (Thread worker : running) {
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.pdfprocessor.server;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.pdfprocessor.shared.ContentHashes;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Searches submitted as jobs. A job does not belong to the connection that
+ * submitted it: it waits here until the OCR workers have room, runs like any
+ * other search, and its result is kept for {@code jobs.result-ttl-seconds}
+ * so the client can fetch it later on any connection.
+ * <p>
+ * Waiting jobs are handed to the scheduler only while its queue holds fewer
+ * jobs than there are workers, so a large batch keeps the workers busy
+ * without filling the queue that interactive searches use. They are started
+ * smallest upload first, each upload's deadline pushed back by a second per
+ * megabyte, so quick documents do not wait behind large scans and large
+ * scans still get their turn.
+ */
+final class JobTable implements Closeable {
+    private static final long BYTES_PER_MILLI = 1024;
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 250;
+
+    private final JobScheduler scheduler;
+    private final Map<String, Job> jobs = new HashMap<>();
+    private final PriorityQueue<Job> waiting = new PriorityQueue<>(
+        Comparator.comparingLong((Job job) -> job.deadline).thenComparingLong(job -> job.sequence));
+    private final Deque<Job> finished = new ArrayDeque<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService maintenance;
+    private long nextSequence;
+
+    JobTable(JobScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pdf-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL_MILLIS,
+                                           MAINTENANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a job for {@code request}, or returns null when
+     * {@code jobs.max-waiting} jobs are already waiting.
+     */
+    synchronized Job create(Object client, PDFProtocol.SearchRequest request) {
+        if (waiting.size() >= Config.getInstance().getMaxWaitingJobs()) {
+            return null;
+        }
+        byte[] id = new byte[16];
+        random.nextBytes(id);
+        long submittedAt = System.currentTimeMillis();
+        long deadline = submittedAt + Math.max(0, request.getContentLength()) / BYTES_PER_MILLI;
+        Job job = new Job(ContentHashes.toHex(id), client, submittedAt, deadline, nextSequence++);
+        jobs.put(job.id, job);
+        return job;
+    }
+
+    /**
+     * Queues a job created by {@link #create} to run {@code task}.
+     */
+    void submit(Job job, FutureTask<?> task) {
+        synchronized (this) {
+            job.task = task;
+            waiting.add(job);
+        }
+        pump();
+    }
+
+    /**
+     * Hands waiting jobs to the scheduler while its queue has room for them.
+     */
+    void pump() {
+        int target = Config.getInstance().getOcrWorkers();
+        synchronized (this) {
+            if (waiting.isEmpty()) {
+                return;
+            }
+            List<Job> refused = new ArrayList<>();
+            while (!waiting.isEmpty() && scheduler.getQueuedJobs() < target) {
+                Job job = waiting.poll();
+                if (!scheduler.offer(job.client, job.task)) {
+                    // The client's share of the queue is full; try the next client's jobs.
+                    refused.add(job);
+                }
+            }
+            waiting.addAll(refused);
+        }
+    }
+
+    synchronized PDFProtocol.JobStatus getStatus(String jobId, boolean includeResult) {
+        expire();
+        Job job = jobId != null ? jobs.get(jobId) : null;
+        if (job == null) {
+            return new PDFProtocol.JobStatus(jobId, PDFProtocol.JobStatus.State.UNKNOWN, 0, 0, null, 0, null);
+        }
+        return job.toStatus(includeResult);
+    }
+
+    /**
+     * Cancels a job that has not finished. A job still waiting here is
+     * dropped at once; a running one stops at its next page.
+     */
+    PDFProtocol.JobStatus cancel(String jobId) {
+        FutureTask<?> task;
+        synchronized (this) {
+            Job job = jobId != null ? jobs.get(jobId) : null;
+            if (job == null || job.state != PDFProtocol.JobStatus.State.QUEUED
+                               && job.state != PDFProtocol.JobStatus.State.RUNNING) {
+                return getStatus(jobId, false);
+            }
+            waiting.remove(job);
+            finish(job, PDFProtocol.JobStatus.State.CANCELLED, null);
+            task = job.task;
+        }
+        if (task != null) {
+            task.cancel(true);
+        }
+        return getStatus(jobId, false);
+    }
+
+    synchronized int getWaitingJobs() {
+        return waiting.size();
+    }
+
+    synchronized int getFinishedJobs() {
+        return finished.size();
+    }
+
+    private void maintain() {
+        try {
+            List<FutureTask<?>> abandoned;
+            synchronized (this) {
+                abandoned = expireWaiting();
+                expire();
+            }
+            // Cancelling releases the spooled uploads of jobs that never ran.
+            for (FutureTask<?> task : abandoned) {
+                task.cancel(false);
+            }
+            pump();
+        } catch (RuntimeException e) {
+            Log.warn("Error maintaining jobs: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Forgets finished jobs whose results have outlived their time to live,
+     * and the oldest beyond {@code jobs.max-results}.
+     */
+    private void expire() {
+        Config config = Config.getInstance();
+        long oldest = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(config.getJobResultTtlSeconds());
+        while (!finished.isEmpty()
+               && (finished.peekFirst().finishedAt < oldest || finished.size() > config.getMaxJobResults())) {
+            jobs.remove(finished.pollFirst().id);
+        }
+    }
+
+    /**
+     * Gives up on jobs that have waited longer than {@code jobs.max-wait-seconds}
+     * for a worker, and returns their tasks for the caller to cancel.
+     */
+    private List<FutureTask<?>> expireWaiting() {
+        List<FutureTask<?>> abandoned = new ArrayList<>();
+        long oldest = System.currentTimeMillis()
+                      - TimeUnit.SECONDS.toMillis(Config.getInstance().getMaxJobWaitSeconds());
+        for (Iterator<Job> it = waiting.iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (job.submittedAt < oldest) {
+                it.remove();
+                finish(job, PDFProtocol.JobStatus.State.EXPIRED, null);
+                abandoned.add(job.task);
+            }
+        }
+        return abandoned;
+    }
+
+    private void finish(Job job, PDFProtocol.JobStatus.State state, PDFProtocol.SearchResponse result) {
+        job.state = state;
+        job.result = result;
+        job.finishedAt = System.currentTimeMillis();
+        finished.addLast(job);
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+    }
+
+    /**
+     * One submitted search. Its search reports progress and the final
+     * response here, which becomes the job's result.
+     */
+    final class Job implements SearchResults {
+        private final String id;
+        private final Object client;
+        private final long submittedAt;
+        private final long deadline;
+        private final long sequence;
+        private FutureTask<?> task;
+        private volatile PDFProtocol.JobStatus.State state = PDFProtocol.JobStatus.State.QUEUED;
+        private volatile int pagesCompleted;
+        private volatile int pageCount;
+        private PDFProtocol.SearchResponse result;
+        private String error;
+        private long finishedAt;
+
+        private Job(String id, Object client, long submittedAt, long deadline, long sequence) {
+            this.id = id;
+            this.client = client;
+            this.submittedAt = submittedAt;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        /**
+         * Marks the job as running, unless it was cancelled while waiting.
+         */
+        boolean start() {
+            synchronized (JobTable.this) {
+                if (state != PDFProtocol.JobStatus.State.QUEUED) {
+                    return false;
+                }
+                state = PDFProtocol.JobStatus.State.RUNNING;
+            }
+            // A worker took the job, so the scheduler's queue has room again.
+            pump();
+            return true;
+        }
+
+        /**
+         * Ends a job whose search returned without a response, which only
+         * happens when it was interrupted.
+         */
+        void stopped() {
+            synchronized (JobTable.this) {
+                if (state == PDFProtocol.JobStatus.State.RUNNING) {
+                    finish(this, PDFProtocol.JobStatus.State.CANCELLED, null);
+                }
+            }
+        }
+
+        @Override
+        public void page(PDFProtocol.PageResult result) {
+            progress(result.getPageNumber(), result.getPageCount());
+        }
+
+        @Override
+        public void respond(PDFProtocol.SearchResponse response) {
+            synchronized (JobTable.this) {
+                if (state != PDFProtocol.JobStatus.State.RUNNING) {
+                    return;
+                }
+                if (PDFProtocol.UNKNOWN_DOCUMENT_ERROR.equals(response.getError())) {
+                    // The cached text was evicted after the job was accepted; the
+                    // client resubmits it with the PDF.
+                    error = response.getError();
+                    finish(this, PDFProtocol.JobStatus.State.REJECTED, null);
+                } else {
+                    finish(this, PDFProtocol.JobStatus.State.DONE, response);
+                }
+            }
+        }
+
+        @Override
+        public void progress(int completed, int count) {
+            pagesCompleted = completed;
+            pageCount = count;
+        }
+
+        private PDFProtocol.JobStatus toStatus(boolean includeResult) {
+            PDFProtocol.SearchResponse response = includeResult ? result : null;
+            return new PDFProtocol.JobStatus(id, state, pagesCompleted, pageCount, error, 0, response);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.pdfprocessor.server;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leveled server log. Callers only enqueue the message; a background thread
+ * formats and writes it, so request threads never block on console output.
+ * When the queue is full, messages are dropped and counted rather than
+ * slowing the caller down.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong droppedMessages = new AtomicLong();
+    private static volatile Level level = parseLevel(System.getProperty("pdfprocessor.log.level"), Level.INFO);
+
+    static {
+        Thread writer = new Thread(Log::writeEntries, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private Log() {
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        log(Level.WARN, message, error);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    static Level parseLevel(String name, Level defaultLevel) {
+        if (name == null) {
+            return defaultLevel;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
+        }
+    }
+
+    private static void log(Level messageLevel, String message, Throwable error) {
+        if (messageLevel.compareTo(level) < 0) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), messageLevel, Thread.currentThread().getName(),
+                                message, error);
+        if (!queue.offer(entry)) {
+            droppedMessages.incrementAndGet();
+        }
+    }
+
+    private static void writeEntries() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        long reportedDrops = 0;
+        while (true) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            PrintStream out = System.out;
+            synchronized (out) {
+                long dropped = droppedMessages.get();
+                if (dropped > reportedDrops) {
+                    out.println(format.format(new Date()) + " WARN  [log-writer] " + (dropped - reportedDrops)
+                                + " log messages dropped");
+                    reportedDrops = dropped;
+                }
+                do {
+                    write(out, format, entry);
+                } while ((entry = queue.poll()) != null);
+                out.flush();
+            }
+        }
+    }
+
+    private static void flush() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        PrintStream out = System.out;
+        synchronized (out) {
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                write(out, format, entry);
+            }
+            out.flush();
+        }
+    }
+
+    private static void write(PrintStream out, SimpleDateFormat format, Entry entry) {
+        StringBuilder line = new StringBuilder(entry.message.length() + 64);
+        line.append(format.format(new Date(entry.time))).append(' ').append(entry.level.name());
+        for (int i = entry.level.name().length(); i < 5; i++) {
+            line.append(' ');
+        }
+        line.append(" [").append(entry.thread).append("] ").append(entry.message);
+        out.println(line);
+        if (entry.error != null) {
+            StringWriter trace = new StringWriter();
+            entry.error.printStackTrace(new PrintWriter(trace));
+            out.print(trace);
+        }
+    }
+
+    private static final class Entry {
+        final long time;
+        final Level level;
+        final String thread;
+        final String message;
+        final Throwable error;
+
+        Entry(long time, Level level, String thread, String message, Throwable error) {
+            this.time = time;
+            this.level = level;
+            this.thread = thread;
+            this.message = message;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.pdfprocessor.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.pdfprocessor.shared.BinaryCodec;
+import com.pdfprocessor.shared.Compression;
+import com.pdfprocessor.shared.FrameCompressor;
+import com.pdfprocessor.shared.FrameDecoder;
+import com.pdfprocessor.shared.FrameDecompressor;
+import com.pdfprocessor.shared.MessageSink;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Non-blocking network front end. A single selector thread accepts
+ * connections, decodes request frames (spooling uploads straight to disk) and
+ * writes queued responses, so idle or uploading clients cost no threads.
+ * Complete requests go to the handler, which runs them on the OCR worker pool.
+ * Upload files are allocated on a thread of their own, and a connection is
+ * not read while it waits for one.
+ * Clients of the legacy Java serialization protocol are switched to blocking
+ * mode and handed off to a thread of their own.
+ */
+class NioFrontEnd implements Closeable {
+    interface Handler {
+        void onMessage(Connection connection, PDFProtocol.Envelope envelope);
+
+        void onLegacyConnection(Socket socket, InputStream input);
+
+        void onClosed(Connection connection);
+
+        /**
+         * Called when the spool refuses an upload, because it is full or the
+         * upload is too large. Its request will not be delivered.
+         */
+        void onUploadRejected(Connection connection, int requestId, IOException reason);
+    }
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    private final Handler handler;
+    private final SpoolManager spool;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> allocatedUploads = new ConcurrentLinkedQueue<>();
+    private final ExecutorService uploadAllocator = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "pdf-spool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Connection> connections = new HashSet<>();
+    private final List<Connection> legacyHandOffs = new ArrayList<>();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private final FrameCompressor.Listener compressionMetrics = (bytes, sentBytes, nanos) -> {
+        metrics.record(ServerMetrics.Stage.COMPRESS, nanos);
+        if (sentBytes < bytes) {
+            metrics.add(ServerMetrics.Counter.COMPRESSION_SAVED_BYTES, bytes - sentBytes);
+        } else {
+            metrics.increment(ServerMetrics.Counter.INCOMPRESSIBLE_FRAMES);
+        }
+    };
+    private final FrameDecompressor.Listener decompressionMetrics = (receivedBytes, bytes, nanos) -> {
+        metrics.record(ServerMetrics.Stage.DECOMPRESS, nanos);
+        metrics.add(ServerMetrics.Counter.COMPRESSION_SAVED_BYTES, bytes - receivedBytes);
+    };
+    private volatile boolean running;
+
+    NioFrontEnd(int port, Handler handler, SpoolManager spool) throws IOException {
+        this.handler = handler;
+        this.spool = spool;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            uploadAllocator.shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the selector loop on the calling thread until {@link #close()}.
+     */
+    void run() {
+        running = true;
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                registerPendingWrites();
+                resumeAllocatedUploads();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    }
+                }
+                handOffLegacyConnections();
+                closeFinishedConnections();
+            }
+        } catch (IOException e) {
+            if (running) {
+                Log.error("Selector loop failed: " + e.getMessage());
+            }
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) {
+                closeConnection(connection);
+            }
+            for (Connection connection : legacyHandOffs) {
+                connection.close();
+            }
+            uploadAllocator.shutdown();
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                Log.warn("Error closing selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            Log.debug("New client connected from " + channel.socket().getInetAddress());
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            readBuffer.clear();
+            int read = connection.channel.read(readBuffer);
+            if (read < 0) {
+                onEndOfStream(connection);
+                return;
+            }
+            readBuffer.flip();
+            metrics.add(ServerMetrics.Counter.BYTES_RECEIVED, read);
+            connection.lastActivity = System.currentTimeMillis();
+
+            if (connection.sniffed != null) {
+                sniff(connection);
+            } else {
+                connection.decoder.feed(readBuffer);
+            }
+            if (connection.decoder.isAllocating() && connection.key.isValid()) {
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.debug("Error reading from " + connection.address + ": " + e.getMessage());
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Buffers the first two bytes to tell the binary protocol from a Java
+     * serialization stream header.
+     */
+    private void sniff(Connection connection) throws IOException {
+        while (readBuffer.hasRemaining()) {
+            connection.sniffed.write(readBuffer.get());
+        }
+        if (connection.sniffed.size() < 2) {
+            return;
+        }
+
+        byte[] prefix = connection.sniffed.toByteArray();
+        connection.sniffed = null;
+        if ((((prefix[0] & 0xFF) << 8) | (prefix[1] & 0xFF)) == SERIALIZATION_MAGIC) {
+            handOffLegacy(connection, prefix);
+        } else {
+            connection.decoder.feed(ByteBuffer.wrap(prefix));
+        }
+    }
+
+    /**
+     * Cancels the connection's key; the channel is handed off once the
+     * selected keys have been walked, see {@link #handOffLegacyConnections()}.
+     */
+    private void handOffLegacy(Connection connection, byte[] prefix) {
+        connection.key.cancel();
+        connections.remove(connection);
+        connection.legacyPrefix = prefix;
+        legacyHandOffs.add(connection);
+    }
+
+    private void handOffLegacyConnections() throws IOException {
+        if (legacyHandOffs.isEmpty()) {
+            return;
+        }
+        // A channel can only block once its cancelled key is deregistered,
+        // which happens on the next selection.
+        selector.selectNow();
+        for (Connection connection : legacyHandOffs) {
+            try {
+                connection.channel.configureBlocking(true);
+                Socket socket = connection.channel.socket();
+                InputStream input = new SequenceInputStream(
+                    new ByteArrayInputStream(connection.legacyPrefix), socket.getInputStream());
+                handler.onLegacyConnection(socket, input);
+            } catch (IOException | RuntimeException e) {
+                Log.debug("Error handing off " + connection.address + ": " + e.getMessage());
+                connection.close();
+            }
+        }
+        legacyHandOffs.clear();
+    }
+
+    private void onEndOfStream(Connection connection) {
+        connection.inputClosed = true;
+        connection.decoder.close();
+        if (connection.key.isValid()) {
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        if (connection.isFinished()) {
+            closeConnection(connection);
+        }
+    }
+
+    private void registerPendingWrites() {
+        Connection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.key;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void resumeAllocatedUploads() {
+        Connection connection;
+        while ((connection = allocatedUploads.poll()) != null) {
+            if (!connections.contains(connection)) {
+                continue;
+            }
+            try {
+                connection.decoder.resume();
+                if (!connection.decoder.isAllocating() && connection.key.isValid()) {
+                    connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.debug("Error reading from " + connection.address + ": " + e.getMessage());
+                closeConnection(connection);
+            }
+        }
+    }
+
+    private void flush(Connection connection) {
+        try {
+            synchronized (connection.writeQueue) {
+                while (!connection.writeQueue.isEmpty()) {
+                    ByteBuffer head = connection.writeQueue.peek();
+                    metrics.add(ServerMetrics.Counter.BYTES_SENT, connection.channel.write(head));
+                    if (head.hasRemaining()) {
+                        return;
+                    }
+                    connection.writeQueue.poll();
+                }
+                connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            Log.debug("Error writing to " + connection.address + ": " + e.getMessage());
+            closeConnection(connection);
+        }
+    }
+
+    private void closeFinishedConnections() {
+        long now = System.currentTimeMillis();
+        long idleTimeout = Config.getInstance().getSocketTimeoutMillis();
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (connection.isFinished()) {
+                closeConnection(connection);
+            } else if (!connection.inputClosed && connection.activeRequests.isEmpty()
+                       && now - connection.lastActivity > idleTimeout) {
+                Log.debug("Closing idle connection from " + connection.address);
+                closeConnection(connection);
+            }
+        }
+    }
+
+    private void closeConnection(Connection connection) {
+        if (!connections.remove(connection)) {
+            return;
+        }
+        connection.close();
+        handler.onClosed(connection);
+        Log.debug("Connection from " + connection.address + " closed");
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * A client connection owned by the selector thread. Worker threads reply
+     * through {@link #write}, which only queues the encoded frame.
+     */
+    final class Connection implements MessageSink, FrameDecoder.Listener, Closeable {
+        private final SocketChannel channel;
+        private final SocketAddress remoteAddress;
+        private final String address;
+        private final FrameDecoder decoder;
+        private final Deque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private final Map<Integer, Future<?>> activeRequests = new ConcurrentHashMap<>();
+        private final RetainedDocuments documents;
+        private volatile FrameCompressor compressor;
+        private SelectionKey key;
+        private ByteArrayOutputStream sniffed = new ByteArrayOutputStream(2);
+        private byte[] legacyPrefix;
+        private volatile boolean inputClosed;
+        private volatile boolean closed;
+        private long lastActivity = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.remoteAddress = channel.socket().getRemoteSocketAddress();
+            this.address = String.valueOf(remoteAddress);
+            this.decoder = new FrameDecoder(this, spool, uploadAllocator);
+            this.documents = new RetainedDocuments(spool, Config.getInstance().getRetainedDocumentsPerConnection());
+        }
+
+        /**
+         * The client's address and port, which tell this connection apart from
+         * others of the same host or from behind the same gateway.
+         */
+        SocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        Map<Integer, Future<?>> getActiveRequests() {
+            return activeRequests;
+        }
+
+        RetainedDocuments getDocuments() {
+            return documents;
+        }
+
+        private boolean isFinished() {
+            synchronized (writeQueue) {
+                return inputClosed && activeRequests.isEmpty() && writeQueue.isEmpty();
+            }
+        }
+
+        @Override
+        public void onPreface(int offeredCodecs) throws IOException {
+            Compression codec = Compression.choose(offeredCodecs, Config.getInstance().getCompression());
+            if (codec != null) {
+                compressor = new FrameCompressor(codec, compressionMetrics);
+                decoder.setDecompressor(new FrameDecompressor(codec, decompressionMetrics));
+            }
+            ByteArrayOutputStream preface = new ByteArrayOutputStream(8);
+            BinaryCodec.writePreface(new DataOutputStream(preface), codec != null ? codec.getBit() : 0);
+            enqueue(ByteBuffer.wrap(preface.toByteArray()));
+        }
+
+        @Override
+        public void onMessage(PDFProtocol.Envelope envelope) {
+            handler.onMessage(this, envelope);
+        }
+
+        @Override
+        public void onUploadComplete(long bytes, long nanos) {
+            metrics.record(ServerMetrics.Stage.UPLOAD, nanos);
+        }
+
+        @Override
+        public void onUploadRejected(int requestId, IOException reason) {
+            handler.onUploadRejected(this, requestId, reason);
+        }
+
+        @Override
+        public void onUploadAllocated() {
+            allocatedUploads.add(this);
+            selector.wakeup();
+        }
+
+        @Override
+        public void write(int requestId, Object message) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(frame);
+            BinaryCodec.writeMessage(out, requestId, message, compressor);
+            out.flush();
+            enqueue(ByteBuffer.wrap(frame.toByteArray()));
+        }
+
+        private void enqueue(ByteBuffer frame) throws IOException {
+            synchronized (writeQueue) {
+                if (closed) {
+                    throw new IOException("Connection to " + address + " is closed");
+                }
+                writeQueue.add(frame);
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        @Override
+        public void close() {
+            synchronized (writeQueue) {
+                closed = true;
+                writeQueue.clear();
+            }
+            decoder.close();
+            documents.close();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.warn("Error closing client socket: " + e.getMessage());
+            }
+        }
+    }
+}
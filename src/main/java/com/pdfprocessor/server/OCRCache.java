@@ -0,0 +1,339 @@
+package com.pdfprocessor.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pdfprocessor.shared.ContentHashes;
+
+/**
+ * Caches extracted OCR text keyed by a hash of the PDF bytes and the OCR settings.
+ * Entries live in a bounded LRU memory tier and, when enabled, in a disk tier
+ * under the configured files directory so they survive restarts. The keys
+ * and sizes of the disk tier are listed once at startup and kept in memory,
+ * so asking whether a document is cached never touches the disk, and the
+ * least recently used files are deleted once the tier outgrows
+ * {@link Config#getOcrDiskCacheMaxBytes()}.
+ */
+public class OCRCache {
+    private static OCRCache instance;
+    private static final String CACHE_DIRECTORY = "ocr-cache";
+    private static final String ENTRY_SUFFIX = ".txt";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final LinkedHashMap<String, String> memory;
+    private volatile int maxEntries;
+    private volatile long maxChars;
+    private final Path diskDirectory;
+    /** Sizes of the disk tier's files by key, least recently used first. */
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long maxDiskBytes;
+    private long memoryChars;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private OCRCache() {
+        Config config = Config.getInstance();
+        this.memory = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxEntries = config.getOcrCacheMaxEntries();
+        this.maxChars = config.getOcrCacheMaxChars();
+        this.maxDiskBytes = config.getOcrDiskCacheMaxBytes();
+        this.diskDirectory = config.isOcrDiskCacheEnabled() ? createDiskDirectory(config) : null;
+        if (diskDirectory != null) {
+            listDiskEntries();
+            trimDisk();
+        }
+        Config.addListener(this::resize);
+    }
+
+    private void resize(Config config) {
+        synchronized (memory) {
+            maxEntries = config.getOcrCacheMaxEntries();
+            maxChars = config.getOcrCacheMaxChars();
+            trim();
+        }
+        maxDiskBytes = config.getOcrDiskCacheMaxBytes();
+        if (diskDirectory != null) {
+            trimDisk();
+        }
+    }
+
+    private Path createDiskDirectory(Config config) {
+        Path directory = Paths.get(config.getFilesDirectory(), CACHE_DIRECTORY);
+        try {
+            Files.createDirectories(directory);
+            Log.info("Using OCR disk cache: " + directory.toAbsolutePath());
+            return directory;
+        } catch (IOException e) {
+            Log.warn("OCR disk cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Indexes the entries left by earlier runs, oldest first, and deletes the
+     * temporary files of writes that never finished.
+     */
+    private void listDiskEntries() {
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(diskDirectory)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(entry);
+                } else if (name.endsWith(ENTRY_SUFFIX)) {
+                    files.add(entry);
+                    attributes.put(entry, Files.readAttributes(entry, BasicFileAttributes.class));
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Could not list OCR disk cache: " + e.getMessage());
+        }
+        files.sort(Comparator.comparing(file -> attributes.get(file).lastModifiedTime()));
+        synchronized (diskEntries) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long size = attributes.get(file).size();
+                diskEntries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+                diskBytes += size;
+            }
+            Log.info("OCR disk cache holds " + diskEntries.size() + " documents (" + diskBytes + " bytes)");
+        }
+    }
+
+    public static synchronized OCRCache getInstance() {
+        if (instance == null) {
+            instance = new OCRCache();
+        }
+        return instance;
+    }
+
+    /**
+     * SHA-256 of the PDF bytes. Used as the document id clients refer to.
+     */
+    public static String computeContentHash(byte[] content) {
+        return ContentHashes.of(content);
+    }
+
+    public static String computeContentHash(Path file) throws IOException {
+        return ContentHashes.of(file);
+    }
+
+    /**
+     * Cache key for a document extracted with the given settings, so a change
+     * of OCR settings never returns stale text.
+     */
+    public static String computeKey(String contentHash, String settings) {
+        MessageDigest digest = newDigest();
+        digest.update(contentHash.getBytes(StandardCharsets.UTF_8));
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        return ContentHashes.toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public String get(String key) {
+        String text;
+        synchronized (memory) {
+            text = memory.get(key);
+        }
+        if (text != null) {
+            memoryHits.incrementAndGet();
+            touchDiskEntry(key);
+            return text;
+        }
+
+        text = readFromDisk(key);
+        if (text != null) {
+            touchDiskEntry(key);
+            diskHits.incrementAndGet();
+            putInMemory(key, text);
+            return text;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, String text) {
+        if (text == null) {
+            return;
+        }
+        putInMemory(key, text);
+        writeToDisk(key, text);
+    }
+
+    private void putInMemory(String key, String text) {
+        if (text.length() > maxChars) {
+            return;
+        }
+        synchronized (memory) {
+            String previous = memory.put(key, text);
+            if (previous != null) {
+                memoryChars -= previous.length();
+            }
+            memoryChars += text.length();
+            trim();
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, String>> eldest = memory.entrySet().iterator();
+        while ((memory.size() > maxEntries || memoryChars > maxChars) && eldest.hasNext()) {
+            Map.Entry<String, String> entry = eldest.next();
+            memoryChars -= entry.getValue().length();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Whether text is cached under {@code key}, without reading it. Does no
+     * I/O, so it is safe on the selector thread.
+     */
+    public boolean contains(String key) {
+        synchronized (memory) {
+            if (memory.containsKey(key)) {
+                return true;
+            }
+        }
+        synchronized (diskEntries) {
+            return diskEntries.containsKey(key);
+        }
+    }
+
+    private String readFromDisk(String key) {
+        if (diskDirectory == null) {
+            return null;
+        }
+        Path file = diskDirectory.resolve(key + ENTRY_SUFFIX);
+        if (!Files.exists(file)) {
+            removeDiskEntry(key);
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.warn("Error reading OCR cache entry " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String text) {
+        if (diskDirectory == null) {
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxDiskBytes) {
+            return;
+        }
+        Path file = diskDirectory.resolve(key + ENTRY_SUFFIX);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(diskDirectory, key, TEMP_SUFFIX);
+            Files.write(tempFile, bytes);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (diskEntries) {
+                Long previous = diskEntries.put(key, (long) bytes.length);
+                diskBytes += bytes.length - (previous != null ? previous : 0);
+            }
+            trimDisk();
+        } catch (IOException e) {
+            Log.warn("Error writing OCR cache entry " + key + ": " + e.getMessage());
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /** Marks the entry as recently used, so it is evicted last. */
+    private void touchDiskEntry(String key) {
+        synchronized (diskEntries) {
+            diskEntries.get(key);
+        }
+    }
+
+    private void removeDiskEntry(String key) {
+        synchronized (diskEntries) {
+            Long size = diskEntries.remove(key);
+            if (size != null) {
+                diskBytes -= size;
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier fits its
+     * limit. The files are deleted outside the lock, so {@link #contains}
+     * never waits for the disk.
+     */
+    private void trimDisk() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (diskEntries) {
+            Iterator<Map.Entry<String, Long>> eldest = diskEntries.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String key : evicted) {
+            try {
+                Files.deleteIfExists(diskDirectory.resolve(key + ENTRY_SUFFIX));
+            } catch (IOException e) {
+                Log.warn("Error deleting OCR cache entry " + key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getMemoryEntries() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    public long getDiskBytes() {
+        synchronized (diskEntries) {
+            return diskBytes;
+        }
+    }
+}
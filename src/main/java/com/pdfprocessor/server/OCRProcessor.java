@@ -1,39 +1,180 @@
 package com.pdfprocessor.server;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
-import net.sourceforge.tess4j.Tesseract;
+import com.sun.jna.Pointer;
+
+import net.sourceforge.tess4j.ITessAPI.TessBaseAPI;
+import net.sourceforge.tess4j.TessAPI1;
 import net.sourceforge.tess4j.TesseractException;
+import net.sourceforge.tess4j.util.ImageIOHelper;
 
+/**
+ * Pool of Tesseract engines, one per OCR worker. The pool size, data path and
+ * languages follow the configuration; engines pick up a new data path or
+ * language the next time they are borrowed.
+ * <p>
+ * Each engine keeps its native Tesseract handle, and the language data loaded
+ * into it, from one page to the next. tess4j's {@code Tesseract} class would
+ * create and end a handle on every call instead.
+ */
 public class OCRProcessor {
     private static OCRProcessor instance;
-    private final Tesseract tesseract;
-    private static final String TESSDATA_PATH = "C:\\Program Files\\Tesseract-OCR\\tessdata";
+    private final BlockingQueue<Engine> engines = new LinkedBlockingQueue<>();
+    private volatile int poolSize;
+    private int createdEngines;
+    private volatile String configuredDataPath;
+    private volatile String dataPath;
+    private volatile String languages;
 
     private OCRProcessor() {
-        tesseract = new Tesseract();
-        configureDataPath();
-        
-        tesseract.setLanguage("eng"); 
-        tesseract.setPageSegMode(1); 
-        tesseract.setOcrEngineMode(1);
+        Config config = Config.getInstance();
+        applyLanguageData(config);
+        resize(config.getOcrWorkers());
+        Log.info("Initialized OCR engine pool with " + poolSize + " engines");
+        Config.addListener(this::reconfigure);
     }
 
-    private void configureDataPath() {
-        File tessDataDir = new File(TESSDATA_PATH);
-        File engTrainedData = new File(tessDataDir, "eng.traineddata");
-        
-        if (!tessDataDir.exists() || !engTrainedData.exists()) {
-            System.out.println("\n=== Tesseract Installation Required ===");
-        } else {
-            System.out.println("Using Tesseract data path: " + TESSDATA_PATH);
-            tesseract.setDatapath(TESSDATA_PATH);
+    private void reconfigure(Config config) {
+        if (!config.getTessdataPath().equals(configuredDataPath) || !config.getOcrLanguages().equals(languages)) {
+            applyLanguageData(config);
+        }
+        if (config.getOcrWorkers() != poolSize) {
+            resize(config.getOcrWorkers());
+            Log.info("Resized OCR engine pool to " + poolSize + " engines");
         }
     }
 
+    private void applyLanguageData(Config config) {
+        String path = config.getTessdataPath();
+        String language = config.getOcrLanguages();
+        configuredDataPath = path;
+        languages = language;
+        dataPath = isDataPathAvailable(path, language) ? path : null;
+    }
+
+    private static boolean isDataPathAvailable(String path, String language) {
+        File tessDataDir = new File(path);
+        for (String name : language.split("\\+")) {
+            if (!new File(tessDataDir, name + ".traineddata").exists()) {
+                Log.warn("Tesseract installation required: no " + name + " language data in " + path);
+                return false;
+            }
+        }
+        Log.info("Using Tesseract data path: " + path + " (" + language + ")");
+        return true;
+    }
+
+    /**
+     * Grows the pool right away; when shrinking, engines are discarded as they
+     * are handed back.
+     */
+    private void resize(int size) {
+        int missing;
+        synchronized (this) {
+            poolSize = size;
+            missing = Math.max(0, size - createdEngines);
+            createdEngines += missing;
+        }
+        for (int i = 0; i < missing; i++) {
+            engines.add(new Engine());
+        }
+        synchronized (this) {
+            Engine engine;
+            while (createdEngines > poolSize && (engine = engines.poll()) != null) {
+                createdEngines--;
+                engine.end();
+            }
+        }
+    }
+
+    private void giveBack(Engine engine) {
+        synchronized (this) {
+            if (createdEngines > poolSize) {
+                createdEngines--;
+                engine.end();
+                return;
+            }
+        }
+        engines.add(engine);
+    }
+
+    public void warmUp() {
+        BufferedImage blank = new BufferedImage(32, 32, BufferedImage.TYPE_BYTE_GRAY);
+        OCRSettings settings = OCRSettings.getDefault();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < poolSize; i++) {
+            Engine engine = borrow();
+            try {
+                engine.recognize(blank, dataPath, languages, settings.getPageSegMode(), settings.getOcrEngineMode());
+            } catch (TesseractException | RuntimeException | LinkageError e) {
+                Log.warn("OCR engine warm-up failed: " + e.getMessage());
+                return;
+            } finally {
+                giveBack(engine);
+            }
+        }
+        Log.info("OCR engines warmed up in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
     public String extractTextFromImage(File imageFile) throws TesseractException {
-        File engTrainedData = new File(TESSDATA_PATH, "eng.traineddata");
-        return tesseract.doOCR(imageFile);
+        StringBuilder text = new StringBuilder();
+        try {
+            for (BufferedImage image : ImageIOHelper.getImageList(imageFile)) {
+                text.append(extractTextFromImage(image));
+            }
+        } catch (IOException e) {
+            throw new TesseractException(e);
+        }
+        return text.toString();
+    }
+
+    public String extractTextFromImage(BufferedImage image) throws TesseractException {
+        OCRSettings settings = OCRSettings.getDefault();
+        return extractTextFromImage(image, settings.getPageSegMode(), settings.getOcrEngineMode());
+    }
+
+    /**
+     * OCRs the image with the given Tesseract page segmentation and engine
+     * modes. The page segmentation mode is set on every call; an engine
+     * initialized with another engine mode is initialized again, so a pooled
+     * engine can serve requests with different modes.
+     */
+    public String extractTextFromImage(BufferedImage image, int pageSegMode, int ocrEngineMode)
+            throws TesseractException {
+        Engine engine = borrow();
+        try {
+            return engine.recognize(image, dataPath, languages, pageSegMode, ocrEngineMode);
+        } finally {
+            giveBack(engine);
+        }
+    }
+
+    private Engine borrow() {
+        try {
+            return engines.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an OCR engine", e);
+        }
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getIdleEngines() {
+        return engines.size();
+    }
+
+    public String getSettingsKey(OCRSettings settings) {
+        return languages + "|" + settings.getKey();
     }
 
     public static synchronized OCRProcessor getInstance() {
@@ -42,4 +183,61 @@ public class OCRProcessor {
         }
         return instance;
     }
-} 
\ No newline at end of file
+
+    /**
+     * A native Tesseract handle, initialized on first use and again only when
+     * the data path, languages or engine mode change. Used by one thread at a
+     * time, while borrowed from the pool.
+     */
+    private static final class Engine {
+        private TessBaseAPI handle;
+        private String initializedFor;
+
+        String recognize(BufferedImage image, String path, String language, int pageSegMode, int ocrEngineMode)
+                throws TesseractException {
+            init(path, language, ocrEngineMode);
+            TessAPI1.TessBaseAPISetPageSegMode(handle, pageSegMode);
+
+            // The same pixel layout tess4j's Tesseract.setImage hands over.
+            int bitsPerPixel = image.getRaster().getDataBuffer() instanceof DataBufferByte
+                ? image.getColorModel().getPixelSize() : 8;
+            ByteBuffer pixels = ImageIOHelper.getImageByteBuffer(image);
+            TessAPI1.TessBaseAPISetImage(handle, pixels, image.getWidth(), image.getHeight(), bitsPerPixel / 8,
+                                         (int) Math.ceil(image.getWidth() * bitsPerPixel / 8.0));
+            Pointer text = TessAPI1.TessBaseAPIGetUTF8Text(handle);
+            try {
+                return text != null ? text.getString(0, "UTF-8") : "";
+            } finally {
+                if (text != null) {
+                    TessAPI1.TessDeleteText(text);
+                }
+                TessAPI1.TessBaseAPIClear(handle);
+            }
+        }
+
+        private void init(String path, String language, int ocrEngineMode) throws TesseractException {
+            String key = path + "|" + language + "|" + ocrEngineMode;
+            if (handle != null && key.equals(initializedFor)) {
+                return;
+            }
+            end();
+            TessBaseAPI created = TessAPI1.TessBaseAPICreate();
+            if (TessAPI1.TessBaseAPIInit2(created, path, language, ocrEngineMode) != 0) {
+                TessAPI1.TessBaseAPIDelete(created);
+                throw new TesseractException("Could not initialize Tesseract for " + language
+                                             + " with data path " + path);
+            }
+            handle = created;
+            initializedFor = key;
+        }
+
+        void end() {
+            if (handle != null) {
+                TessAPI1.TessBaseAPIEnd(handle);
+                TessAPI1.TessBaseAPIDelete(handle);
+                handle = null;
+                initializedFor = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.pdfprocessor.server;
+
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * How image-only pages are prepared and OCR'd: render resolution,
+ * preprocessing steps and Tesseract modes. The defaults come from
+ * {@link Config}; a request may choose its own segmentation and engine modes.
+ */
+public final class OCRSettings {
+    static final int MIN_PAGE_SEG_MODE = 1;
+    static final int MAX_PAGE_SEG_MODE = 13;
+    static final int MIN_OCR_ENGINE_MODE = 0;
+    static final int MAX_OCR_ENGINE_MODE = 3;
+    static final float MIN_RENDER_DPI = 72;
+    static final float MAX_RENDER_DPI = 1200;
+
+    private final int pageSegMode;
+    private final int ocrEngineMode;
+    private final float renderDpi;
+    private final boolean binarize;
+    private final boolean deskew;
+    private final boolean skipBlankPages;
+
+    public OCRSettings(int pageSegMode, int ocrEngineMode, float renderDpi,
+                       boolean binarize, boolean deskew, boolean skipBlankPages) {
+        if (pageSegMode < MIN_PAGE_SEG_MODE || pageSegMode > MAX_PAGE_SEG_MODE) {
+            throw new IllegalArgumentException("Unsupported page segmentation mode: " + pageSegMode);
+        }
+        if (ocrEngineMode < MIN_OCR_ENGINE_MODE || ocrEngineMode > MAX_OCR_ENGINE_MODE) {
+            throw new IllegalArgumentException("Unsupported OCR engine mode: " + ocrEngineMode);
+        }
+        if (renderDpi < MIN_RENDER_DPI || renderDpi > MAX_RENDER_DPI) {
+            throw new IllegalArgumentException("Unsupported render resolution: " + renderDpi);
+        }
+        this.pageSegMode = pageSegMode;
+        this.ocrEngineMode = ocrEngineMode;
+        this.renderDpi = renderDpi;
+        this.binarize = binarize;
+        this.deskew = deskew;
+        this.skipBlankPages = skipBlankPages;
+    }
+
+    public static OCRSettings getDefault() {
+        Config config = Config.getInstance();
+        return new OCRSettings(config.getOcrPageSegMode(), config.getOcrEngineMode(), config.getOcrRenderDpi(),
+                               config.isOcrBinarize(), config.isOcrDeskew(), config.isOcrSkipBlankPages());
+    }
+
+    /**
+     * The default settings with the request's segmentation and engine modes,
+     * where it sets them.
+     */
+    public static OCRSettings forRequest(PDFProtocol.SearchRequest request) {
+        OCRSettings defaults = getDefault();
+        if (request.getPageSegMode() == PDFProtocol.DEFAULT_OCR_MODE
+                && request.getOcrEngineMode() == PDFProtocol.DEFAULT_OCR_MODE) {
+            return defaults;
+        }
+        return defaults.withModes(request.getPageSegMode(), request.getOcrEngineMode());
+    }
+
+    /**
+     * Returns a copy with the given modes; {@link PDFProtocol#DEFAULT_OCR_MODE}
+     * keeps the current one.
+     */
+    public OCRSettings withModes(int newPageSegMode, int newOcrEngineMode) {
+        return new OCRSettings(newPageSegMode == PDFProtocol.DEFAULT_OCR_MODE ? pageSegMode : newPageSegMode,
+                               newOcrEngineMode == PDFProtocol.DEFAULT_OCR_MODE ? ocrEngineMode : newOcrEngineMode,
+                               renderDpi, binarize, deskew, skipBlankPages);
+    }
+
+    public int getPageSegMode() {
+        return pageSegMode;
+    }
+
+    public int getOcrEngineMode() {
+        return ocrEngineMode;
+    }
+
+    public float getRenderDpi() {
+        return renderDpi;
+    }
+
+    public boolean isBinarize() {
+        return binarize;
+    }
+
+    public boolean isDeskew() {
+        return deskew;
+    }
+
+    public boolean isSkipBlankPages() {
+        return skipBlankPages;
+    }
+
+    /**
+     * Identifies every setting that can change the OCR output, for cache keys.
+     */
+    public String getKey() {
+        return "psm" + pageSegMode + "|oem" + ocrEngineMode + "|dpi" + Math.round(renderDpi)
+            + (binarize ? "|binarize" : "") + (deskew ? "|deskew" : "") + (skipBlankPages ? "|skip-blank" : "");
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
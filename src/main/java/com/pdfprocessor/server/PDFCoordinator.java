@@ -0,0 +1,656 @@
+package com.pdfprocessor.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.Splitter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import com.pdfprocessor.shared.MessageChannel;
+import com.pdfprocessor.shared.MessageSink;
+import com.pdfprocessor.shared.ObjectStreamChannel;
+import com.pdfprocessor.shared.PDFConnection;
+import com.pdfprocessor.shared.PDFProtocol;
+import com.pdfprocessor.shared.Spool;
+
+/**
+ * Front end that spreads searches over several worker {@link PDFServer}s.
+ * Clients connect to it exactly as to a server. Each document goes to the
+ * least loaded worker; documents with more than
+ * {@link Config#getCoordinatorPagesPerShard()} pages are split into page
+ * ranges that are searched on several workers at once, and the results are
+ * merged back into one response with the original page numbers. A request
+ * whose worker fails is retried on another one. Index searches are sent to
+ * every worker and merged.
+ *
+ * The coordinator only speaks the binary protocol.
+ */
+public class PDFCoordinator {
+    private static final int MAX_INDEX_SEARCH_DOCUMENTS = 1000;
+
+    private final int port;
+    private final WorkerPool workers;
+    private final ExecutorService requestExecutor;
+    private final ExecutorService shardExecutor;
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private final SpoolManager spool = SpoolManager.getInstance();
+    private NioFrontEnd frontEnd;
+
+    public PDFCoordinator(int port, List<String> workerAddresses) {
+        Config config = Config.getInstance();
+        this.port = port;
+        this.workers = new WorkerPool(workerAddresses, config.getWorkerConnections(), config.getWorkerRetryMillis());
+        this.requestExecutor = Executors.newCachedThreadPool();
+        this.shardExecutor = Executors.newCachedThreadPool();
+    }
+
+    public void start() {
+        Config.startWatching();
+        metrics.registerGauge("available_workers", workers::getAvailableCount);
+        metrics.registerGauge("worker_requests_in_flight", () -> {
+            long inFlight = 0;
+            for (WorkerPool.Worker worker : workers.getWorkers()) {
+                inFlight += worker.getInFlight();
+            }
+            return inFlight;
+        });
+        int metricsPort = Config.getInstance().getMetricsPort();
+        if (metricsPort > 0) {
+            try {
+                metrics.startHttpServer(metricsPort);
+            } catch (IOException e) {
+                Log.warn("Could not start metrics endpoint on port " + metricsPort + ": " + e.getMessage());
+            }
+        }
+
+        try {
+            frontEnd = new NioFrontEnd(port, new FrontEndHandler(), spool);
+            Log.info("Coordinator started on port " + port + " with workers " + workers.getWorkers());
+            frontEnd.run();
+        } catch (IOException e) {
+            Log.error("Error starting coordinator: " + e.getMessage());
+        } finally {
+            shutdown();
+        }
+    }
+
+    private final class FrontEndHandler implements NioFrontEnd.Handler {
+        @Override
+        public void onMessage(NioFrontEnd.Connection connection, PDFProtocol.Envelope envelope) {
+            dispatch(connection, envelope, connection.getActiveRequests(), connection.getDocuments());
+        }
+
+        @Override
+        public void onLegacyConnection(Socket socket, InputStream input) {
+            requestExecutor.execute(() -> rejectLegacyClient(socket, input));
+        }
+
+        @Override
+        public void onClosed(NioFrontEnd.Connection connection) {
+            for (Future<?> job : connection.getActiveRequests().values()) {
+                job.cancel(true);
+            }
+        }
+
+        @Override
+        public void onUploadRejected(NioFrontEnd.Connection connection, int requestId, IOException reason) {
+            Log.debug("Refusing upload of request " + requestId + ": " + reason.getMessage());
+            PDFProtocol.SearchResponse response;
+            if (reason instanceof Spool.TooLargeException) {
+                response = new PDFProtocol.SearchResponse(false, null, reason.getMessage());
+            } else {
+                metrics.increment(ServerMetrics.Counter.BUSY_REJECTIONS);
+                response = PDFProtocol.SearchResponse.serverBusy(workers.getRetryDelayMillis());
+            }
+            try {
+                connection.write(requestId, response);
+            } catch (IOException e) {
+                Log.warn("Error sending busy response: " + e.getMessage());
+            }
+        }
+    }
+
+    private void rejectLegacyClient(Socket socket, InputStream input) {
+        try (Socket client = socket) {
+            MessageChannel channel = new ObjectStreamChannel(input, client.getOutputStream());
+            channel.write(0, new PDFProtocol.SearchResponse(false, null,
+                "The coordinator only accepts the binary protocol"));
+        } catch (IOException e) {
+            Log.debug("Error rejecting legacy client: " + e.getMessage());
+        }
+    }
+
+    private void dispatch(MessageSink channel, PDFProtocol.Envelope envelope,
+                          Map<Integer, Future<?>> activeRequests, RetainedDocuments documents) {
+        int requestId = envelope.getRequestId();
+        Object message = envelope.getMessage();
+
+        if (message instanceof PDFProtocol.CancelRequest) {
+            Future<?> job = activeRequests.get(requestId);
+            if (job != null) {
+                metrics.increment(ServerMetrics.Counter.CANCELLED);
+                job.cancel(true);
+            }
+            return;
+        }
+
+        if (message instanceof PDFProtocol.JobRequest
+            || message instanceof PDFProtocol.SearchRequest && ((PDFProtocol.SearchRequest) message).isJob()) {
+            // Jobs are kept by the server that runs them; submit them to a worker directly.
+            if (message instanceof PDFProtocol.SearchRequest) {
+                File pdfFile = ((PDFProtocol.SearchRequest) message).getPdfFile();
+                if (pdfFile != null) {
+                    spool.release(pdfFile.toPath());
+                }
+            }
+            try {
+                channel.write(requestId, PDFProtocol.JobStatus.rejected("The coordinator does not run jobs", 0));
+            } catch (IOException e) {
+                Log.warn("Error sending job status: " + e.getMessage());
+            }
+            return;
+        }
+
+        Runnable body;
+        PDFProtocol.SearchRequest upload = null;
+        // Whoever sets this owns the spooled upload: the job when it starts, or its cancellation.
+        AtomicBoolean uploadTaken = new AtomicBoolean();
+        if (message instanceof PDFProtocol.SearchRequest) {
+            upload = (PDFProtocol.SearchRequest) message;
+            PDFProtocol.SearchRequest request = upload;
+            metrics.increment(ServerMetrics.Counter.REQUESTS);
+            body = () -> {
+                if (uploadTaken.compareAndSet(false, true)) {
+                    coordinateSearch(channel, requestId, request, documents);
+                }
+            };
+        } else if (message instanceof PDFProtocol.IndexSearchRequest) {
+            PDFProtocol.IndexSearchRequest request = (PDFProtocol.IndexSearchRequest) message;
+            metrics.increment(ServerMetrics.Counter.INDEX_SEARCHES);
+            body = () -> coordinateIndexSearch(channel, requestId, request);
+        } else {
+            Log.warn("Invalid request type: " + (message != null ? message.getClass().getName() : "null"));
+            sendErrorResponse(channel, requestId, "Invalid request type");
+            return;
+        }
+
+        CoordinatorJob job = new CoordinatorJob(body, requestId, upload, uploadTaken, activeRequests);
+        activeRequests.put(requestId, job);
+        requestExecutor.execute(job);
+    }
+
+    private void coordinateSearch(MessageSink channel, int requestId, PDFProtocol.SearchRequest request,
+                                  RetainedDocuments documents) {
+        long start = System.nanoTime();
+        Path pdfFile = request.getPdfFile() != null ? request.getPdfFile().toPath() : null;
+        RetainedDocuments.Document document = null;
+        List<Shard> shards = Collections.emptyList();
+        List<Future<PDFProtocol.SearchResponse>> results = new ArrayList<>();
+        try {
+            if (pdfFile == null && request.getDocumentId() != null) {
+                document = documents.acquire(request.getDocumentId());
+                if (document == null) {
+                    // Not an error: the client uploads the document next.
+                    channel.write(requestId, new PDFProtocol.SearchResponse(false, null,
+                                                                            PDFProtocol.UNKNOWN_DOCUMENT_ERROR));
+                    return;
+                }
+                pdfFile = document.getFile();
+            }
+            if (pdfFile == null || request.getSearchPhrases().isEmpty()) {
+                sendErrorResponse(channel, requestId, "Invalid request data");
+                return;
+            }
+
+            String documentId = document != null ? request.getDocumentId() : OCRCache.computeContentHash(pdfFile);
+            if (document == null) {
+                document = documents.retain(documentId, pdfFile);
+            }
+            shards = split(pdfFile, documentId);
+            int pageCount = 0;
+            for (Shard shard : shards) {
+                pageCount += shard.pageCount;
+            }
+            Log.debug("Request " + requestId + " for " + request.getFileName() + " split into " + shards.size()
+                      + " shards");
+
+            ShardContext context = new ShardContext(channel, requestId, request, pageCount);
+            for (Shard shard : shards) {
+                results.add(shardExecutor.submit(() -> searchShard(context, shard)));
+            }
+            List<PDFProtocol.SearchResponse> responses = new ArrayList<>(results.size());
+            int matches = 0;
+            for (Future<PDFProtocol.SearchResponse> result : results) {
+                PDFProtocol.SearchResponse response = result.get();
+                responses.add(response);
+                matches += response.getTotalMatches();
+                if (request.getMaxMatches() > 0 && matches >= request.getMaxMatches()) {
+                    // Enough matches in the leading shards; the rest are cancelled below.
+                    break;
+                }
+            }
+            channel.write(requestId, merge(responses, request.getSearchPhrases(), documentId));
+        } catch (InterruptedException | CancellationException e) {
+            Log.debug("Request " + requestId + " cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Log.warn("Request " + requestId + " failed: " + cause.getMessage());
+            sendErrorResponse(channel, requestId, "Server error: " + cause.getMessage());
+        } catch (IOException | RuntimeException e) {
+            Log.warn("Request " + requestId + " failed: " + e.getMessage());
+            sendErrorResponse(channel, requestId, "Server error: " + e.getMessage());
+        } finally {
+            for (Future<PDFProtocol.SearchResponse> result : results) {
+                result.cancel(true);
+            }
+            for (Shard shard : shards) {
+                if (shard.temporary) {
+                    spool.release(shard.file);
+                }
+            }
+            if (document != null) {
+                documents.release(document);
+            } else {
+                spool.release(pdfFile);
+            }
+            metrics.recordSince(ServerMetrics.Stage.REQUEST, start);
+        }
+    }
+
+    /**
+     * Splits a document into page ranges, one per available worker and no
+     * smaller than the configured shard size. Small documents, or all of them
+     * when only one worker is up, are sent whole.
+     */
+    private List<Shard> split(Path pdfFile, String documentId) throws IOException {
+        int available = workers.getAvailableCount();
+        if (available > 1) {
+            try (PDDocument document = PDDocument.load(pdfFile.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+                int pageCount = document.getNumberOfPages();
+                int pagesPerShard = Config.getInstance().getCoordinatorPagesPerShard();
+                int shardCount = Math.min(available, (pageCount + pagesPerShard - 1) / pagesPerShard);
+                if (shardCount > 1 && !document.isEncrypted()) {
+                    return splitDocument(document, documentId, (pageCount + shardCount - 1) / shardCount);
+                }
+                return Collections.singletonList(new Shard(pdfFile, 0, pageCount, false));
+            }
+        }
+        return Collections.singletonList(new Shard(pdfFile, 0, 0, false));
+    }
+
+    private List<Shard> splitDocument(PDDocument document, String documentId, int pagesEach) throws IOException {
+        Splitter splitter = new Splitter();
+        splitter.setSplitAtPage(pagesEach);
+        List<Shard> shards = new ArrayList<>();
+        int firstPage = 0;
+        try {
+            for (PDDocument part : splitter.split(document)) {
+                try {
+                    // A fixed file ID keeps the part byte-identical across requests, so workers' OCR caches hit.
+                    part.getDocument().getTrailer().setItem(COSName.ID, fileId(documentId, firstPage));
+                    Path file = spool.createFile("shard_");
+                    shards.add(new Shard(file, firstPage, part.getNumberOfPages(), true));
+                    part.save(file.toFile());
+                    firstPage += part.getNumberOfPages();
+                } finally {
+                    part.close();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Shard shard : shards) {
+                spool.release(shard.file);
+            }
+            throw e;
+        }
+        return shards;
+    }
+
+    private static COSArray fileId(String documentId, int firstPage) {
+        byte[] id;
+        try {
+            id = MessageDigest.getInstance("MD5")
+                .digest((documentId + "#" + firstPage).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+        COSArray array = new COSArray();
+        array.add(new COSString(id));
+        array.add(new COSString(id));
+        return array;
+    }
+
+    /**
+     * Searches one shard, moving on to another worker when a worker fails or
+     * is busy. Pages a failed worker already streamed are not sent twice.
+     * Returns a "server busy" response when no worker can take the shard.
+     */
+    private PDFProtocol.SearchResponse searchShard(ShardContext context, Shard shard)
+            throws IOException, InterruptedException {
+        PDFProtocol.SearchRequest request = context.request;
+        PDFProtocol.SearchRequest shardRequest = new PDFProtocol.SearchRequest(
+            shard.file.toFile(), request.getSearchPhrases(), request.getMatchOptions(), request.getFileName(),
+            request.isStreaming()).withOcrModes(request.getPageSegMode(), request.getOcrEngineMode())
+            .withMaxMatches(request.getMaxMatches());
+        AtomicInteger pagesDelivered = new AtomicInteger();
+        Set<WorkerPool.Worker> tried = new HashSet<>();
+        PDFProtocol.SearchResponse busyResponse = null;
+        IOException lastFailure = null;
+
+        int maxAttempts = Config.getInstance().getCoordinatorMaxAttempts();
+        for (int attempt = 0; attempt < maxAttempts; ) {
+            WorkerPool.Worker worker = workers.pick(tried);
+            if (worker == null) {
+                break;
+            }
+            attempt++;
+            worker.started();
+            CompletableFuture<PDFProtocol.SearchResponse> future = null;
+            try {
+                PDFConnection connection = worker.acquire();
+                future = connection.search(shardRequest, page -> relayPage(context, shard, pagesDelivered, page));
+                PDFProtocol.SearchResponse response = future.get();
+                if (response.isServerBusy()) {
+                    worker.busy(response.getRetryAfterMillis());
+                    tried.add(worker);
+                    busyResponse = response;
+                    continue;
+                }
+                worker.succeeded();
+                return response;
+            } catch (InterruptedException e) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+                throw e;
+            } catch (IOException | ExecutionException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                lastFailure = new IOException("Worker " + worker + " failed: " + cause.getMessage(), cause);
+                metrics.increment(ServerMetrics.Counter.WORKER_FAILURES);
+                worker.failed();
+                tried.add(worker);
+            } finally {
+                worker.finished();
+            }
+        }
+
+        if (busyResponse != null || lastFailure == null) {
+            long retryAfter = Math.max(workers.getRetryDelayMillis(),
+                                       busyResponse != null ? busyResponse.getRetryAfterMillis() : 0);
+            return PDFProtocol.SearchResponse.serverBusy(retryAfter);
+        }
+        throw lastFailure;
+    }
+
+    private void relayPage(ShardContext context, Shard shard, AtomicInteger pagesDelivered,
+                           PDFProtocol.PageResult page) {
+        int pageNumber = page.getPageNumber();
+        if (pageNumber <= pagesDelivered.get()) {
+            return;
+        }
+        pagesDelivered.set(pageNumber);
+        List<PDFProtocol.PhraseMatches> phraseMatches = page.getPhraseMatches();
+        try {
+            context.channel.write(context.requestId, new PDFProtocol.PageResult(
+                shard.firstPage + pageNumber, Math.max(context.pageCount, page.getPageCount()),
+                context.pagesCompleted.incrementAndGet(), phraseMatches.isEmpty() ? page.getContexts() : null,
+                phraseMatches));
+        } catch (IOException e) {
+            Log.debug("Error relaying page of request " + context.requestId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Combines the shard responses in page order. Shards without any text do
+     * not make the whole document fail, but any other shard error does.
+     */
+    private PDFProtocol.SearchResponse merge(List<PDFProtocol.SearchResponse> responses, List<String> phrases,
+                                            String documentId) {
+        long retryAfter = 0;
+        int totalMatches = 0;
+        int pagesSearched = 0;
+        long queueWaitMillis = 0;
+        int[] counts = new int[phrases.size()];
+        List<List<String>> contexts = new ArrayList<>(phrases.size());
+        for (int i = 0; i < phrases.size(); i++) {
+            contexts.add(new ArrayList<>());
+        }
+        boolean anyText = false;
+        boolean contextsSent = false;
+
+        for (PDFProtocol.SearchResponse response : responses) {
+            if (response.isServerBusy()) {
+                retryAfter = Math.max(retryAfter, response.getRetryAfterMillis());
+                continue;
+            }
+            if (PDFProtocol.NO_TEXT_ERROR.equals(response.getError())) {
+                continue;
+            }
+            if (response.getError() != null) {
+                metrics.increment(ServerMetrics.Counter.ERRORS);
+                return new PDFProtocol.SearchResponse(false, null, response.getError());
+            }
+            anyText = true;
+            totalMatches += response.getTotalMatches();
+            pagesSearched += response.getPagesSearched();
+            queueWaitMillis = Math.max(queueWaitMillis, response.getQueueWaitMillis());
+            List<PDFProtocol.PhraseMatches> phraseMatches = response.getPhraseMatches();
+            for (int i = 0; i < phraseMatches.size() && i < counts.length; i++) {
+                counts[i] += phraseMatches.get(i).getMatchCount();
+                if (phraseMatches.get(i).getContexts() != null) {
+                    contexts.get(i).addAll(phraseMatches.get(i).getContexts());
+                    contextsSent = true;
+                }
+            }
+        }
+
+        if (retryAfter > 0) {
+            metrics.increment(ServerMetrics.Counter.BUSY_REJECTIONS);
+            return PDFProtocol.SearchResponse.serverBusy(retryAfter);
+        }
+        if (!anyText) {
+            metrics.increment(ServerMetrics.Counter.ERRORS);
+            return new PDFProtocol.SearchResponse(false, null, PDFProtocol.NO_TEXT_ERROR);
+        }
+        List<PDFProtocol.PhraseMatches> merged = new ArrayList<>(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            merged.add(new PDFProtocol.PhraseMatches(phrases.get(i), counts[i], contextsSent ? contexts.get(i) : null));
+        }
+        return new PDFProtocol.SearchResponse(totalMatches > 0, null, null, totalMatches, pagesSearched,
+                                              queueWaitMillis, 0, documentId, merged);
+    }
+
+    /**
+     * Asks every reachable worker and merges their matches, best documents
+     * first. Workers that fail are left out of the result.
+     */
+    private void coordinateIndexSearch(MessageSink channel, int requestId,
+                                       PDFProtocol.IndexSearchRequest request) {
+        long start = System.nanoTime();
+        List<WorkerPool.Worker> asked = new ArrayList<>();
+        List<CompletableFuture<PDFProtocol.IndexSearchResponse>> futures = new ArrayList<>();
+        for (WorkerPool.Worker worker : workers.getWorkers()) {
+            if (!worker.isAvailable(System.currentTimeMillis())) {
+                continue;
+            }
+            try {
+                futures.add(worker.acquire().searchIndex(request));
+                asked.add(worker);
+            } catch (IOException e) {
+                worker.failed();
+            }
+        }
+
+        List<PDFProtocol.DocumentMatch> matches = new ArrayList<>();
+        int totalMatches = 0;
+        int answered = 0;
+        String error = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    PDFProtocol.IndexSearchResponse response = futures.get(i).get();
+                    if (response.getError() != null) {
+                        error = response.getError();
+                        continue;
+                    }
+                    matches.addAll(response.getMatches());
+                    totalMatches += response.getTotalMatches();
+                    answered++;
+                } catch (ExecutionException e) {
+                    asked.get(i).failed();
+                    error = e.getCause().getMessage();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (CompletableFuture<PDFProtocol.IndexSearchResponse> future : futures) {
+                future.cancel(true);
+            }
+            return;
+        }
+
+        metrics.recordSince(ServerMetrics.Stage.INDEX_SEARCH, start);
+        if (answered == 0) {
+            sendErrorResponse(channel, requestId, "Index error: " + (error != null ? error : "no worker available"));
+            return;
+        }
+        matches.sort((a, b) -> Integer.compare(b.getMatchCount(), a.getMatchCount()));
+        int maxDocuments = request.getMaxDocuments() > 0
+            ? Math.min(request.getMaxDocuments(), MAX_INDEX_SEARCH_DOCUMENTS)
+            : MAX_INDEX_SEARCH_DOCUMENTS;
+        if (matches.size() > maxDocuments) {
+            matches = new ArrayList<>(matches.subList(0, maxDocuments));
+        }
+        try {
+            channel.write(requestId, new PDFProtocol.IndexSearchResponse(matches, totalMatches, null));
+        } catch (IOException e) {
+            Log.debug("Error sending index search response: " + e.getMessage());
+        }
+    }
+
+    private void sendErrorResponse(MessageSink channel, int requestId, String errorMessage) {
+        metrics.increment(ServerMetrics.Counter.ERRORS);
+        try {
+            channel.write(requestId, new PDFProtocol.SearchResponse(false, null, errorMessage));
+        } catch (IOException e) {
+            Log.warn("Error sending error response: " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        if (frontEnd != null) {
+            frontEnd.close();
+        }
+        metrics.stopHttpServer();
+        requestExecutor.shutdownNow();
+        shardExecutor.shutdownNow();
+        try {
+            requestExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.close();
+    }
+
+    /**
+     * A page range of the request's document, stored in its own file unless
+     * it is the whole document.
+     */
+    private static final class Shard {
+        final Path file;
+        final int firstPage;
+        final int pageCount;
+        final boolean temporary;
+
+        Shard(Path file, int firstPage, int pageCount, boolean temporary) {
+            this.file = file;
+            this.firstPage = firstPage;
+            this.pageCount = pageCount;
+            this.temporary = temporary;
+        }
+    }
+
+    private static final class ShardContext {
+        final MessageSink channel;
+        final int requestId;
+        final PDFProtocol.SearchRequest request;
+        final int pageCount;
+        final AtomicInteger pagesCompleted = new AtomicInteger();
+
+        ShardContext(MessageSink channel, int requestId, PDFProtocol.SearchRequest request, int pageCount) {
+            this.channel = channel;
+            this.requestId = requestId;
+            this.request = request;
+            this.pageCount = pageCount;
+        }
+    }
+
+    /**
+     * One client request in flight. Deletes the spooled upload if it is
+     * cancelled before it starts.
+     */
+    private final class CoordinatorJob extends FutureTask<Void> {
+        private final int requestId;
+        private final PDFProtocol.SearchRequest upload;
+        private final AtomicBoolean uploadTaken;
+        private final Map<Integer, Future<?>> activeRequests;
+
+        CoordinatorJob(Runnable body, int requestId, PDFProtocol.SearchRequest upload, AtomicBoolean uploadTaken,
+                       Map<Integer, Future<?>> activeRequests) {
+            super(body, null);
+            this.requestId = requestId;
+            this.upload = upload;
+            this.uploadTaken = uploadTaken;
+            this.activeRequests = activeRequests;
+        }
+
+        @Override
+        protected void done() {
+            activeRequests.remove(requestId, this);
+            if (isCancelled() && upload != null && upload.getPdfFile() != null
+                    && uploadTaken.compareAndSet(false, true)) {
+                spool.release(upload.getPdfFile().toPath());
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: PDFCoordinator <port> <host:port>[,<host:port>...]");
+            System.exit(2);
+        }
+        List<String> workerAddresses = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            for (String address : args[i].split(",")) {
+                if (!address.trim().isEmpty()) {
+                    workerAddresses.add(address.trim());
+                }
+            }
+        }
+        new PDFCoordinator(Integer.parseInt(args[0]), workerAddresses).start();
+    }
+}
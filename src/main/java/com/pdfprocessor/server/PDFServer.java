@@ -1,175 +1,212 @@
 package com.pdfprocessor.server;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.Socket;
-import java.nio.file.Files;
+import java.net.SocketTimeoutException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.PatternSyntaxException;
 
+import com.pdfprocessor.shared.MessageChannel;
+import com.pdfprocessor.shared.MessageSink;
+import com.pdfprocessor.shared.ObjectStreamChannel;
 import com.pdfprocessor.shared.PDFProtocol;
+import com.pdfprocessor.shared.Spool;
 
 import net.sourceforge.tess4j.TesseractException;
 
 public class PDFServer {
+    private static final int MAX_INDEX_SEARCH_DOCUMENTS = 1000;
+    private static final int MAX_PHRASES = 1000;
+
     private final int port;
-    private final ExecutorService executorService;
+    private final JobScheduler scheduler;
+    private final JobTable jobs;
+    private final ExecutorService connectionExecutor;
+    private final ThreadPoolExecutor queryExecutor;
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+    private final SpoolManager spool = SpoolManager.getInstance();
     private volatile boolean running;
-    private ServerSocket serverSocket;
+    private NioFrontEnd frontEnd;
 
     public PDFServer(int port) {
         this.port = port;
-        this.executorService = Executors.newFixedThreadPool(2);
+        Config config = Config.getInstance();
+        this.scheduler = new JobScheduler(config.getOcrWorkers(), config.getJobQueueDepth(),
+                                          config.getMaxQueuedJobsPerClient());
+        this.jobs = new JobTable(scheduler);
+        this.connectionExecutor = Executors.newCachedThreadPool();
+        int queryThreads = config.getIndexQueryThreads();
+        this.queryExecutor = new ThreadPoolExecutor(queryThreads, queryThreads, 0L, TimeUnit.MILLISECONDS,
+                                                    new LinkedBlockingQueue<>());
+        Config.addListener(this::reconfigure);
+    }
+
+    /**
+     * Applies changed settings to the worker threads and queue limits.
+     */
+    private void reconfigure(Config config) {
+        scheduler.setWorkerCount(config.getOcrWorkers());
+        scheduler.setQueueLimits(config.getJobQueueDepth(), config.getMaxQueuedJobsPerClient());
+        int queryThreads = config.getIndexQueryThreads();
+        if (queryThreads > queryExecutor.getMaximumPoolSize()) {
+            queryExecutor.setMaximumPoolSize(queryThreads);
+            queryExecutor.setCorePoolSize(queryThreads);
+        } else {
+            queryExecutor.setCorePoolSize(queryThreads);
+            queryExecutor.setMaximumPoolSize(queryThreads);
+        }
     }
 
     public void start() {
         running = true;
+        Config.startWatching();
+        OCRProcessor.getInstance().warmUp();
+        DocumentIndex.getInstance();
+        startMetrics();
         try {
-            serverSocket = new ServerSocket(port);
-            System.out.println("Server started on port " + port);
-
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("New client connected from " + clientSocket.getInetAddress());
-                    executorService.submit(() -> handleClient(clientSocket));
-                } catch (IOException e) {
-                    if (running) {
-                        System.out.println("Error accepting client connection: " + e.getMessage());
-                    }
-                }
+            frontEnd = new NioFrontEnd(port, new FrontEndHandler(), spool);
+            Log.info("Server started on port " + port);
+            if (running) {
+                frontEnd.run();
             }
         } catch (IOException e) {
-            System.out.println("Error starting server: " + e.getMessage());
+            Log.error("Error starting server: " + e.getMessage());
         } finally {
             shutdown();
         }
     }
 
-    private void handleClient(Socket clientSocket) {
-        System.out.println("Handling client connection from: " + clientSocket.getInetAddress());
-        ObjectOutputStream out = null;
-        ObjectInputStream in = null;
-        
-        try {
-            clientSocket.setSoTimeout(60000); 
-            clientSocket.setTcpNoDelay(true);
-            clientSocket.setKeepAlive(true);
-            
-            System.out.println("Creating output stream...");
-            out = new ObjectOutputStream(clientSocket.getOutputStream());
-            out.flush();
-            
-            System.out.println("Creating input stream...");
-            in = new ObjectInputStream(clientSocket.getInputStream());
-            
-            System.out.println("Reading request object...");
-            Object requestObj = in.readObject();
-            
-            if (!(requestObj instanceof PDFProtocol.SearchRequest)) {
-                System.out.println("Invalid request type: " + (requestObj != null ? requestObj.getClass().getName() : "null"));
-                sendErrorResponse(out, "Invalid request type");
-                return;
+    private void startMetrics() {
+        OCRProcessor processor = OCRProcessor.getInstance();
+        metrics.registerGauge("queued_jobs", scheduler::getQueuedJobs);
+        metrics.registerGauge("running_jobs", scheduler::getRunningJobs);
+        metrics.registerGauge("waiting_submitted_jobs", jobs::getWaitingJobs);
+        metrics.registerGauge("retained_job_results", jobs::getFinishedJobs);
+        metrics.registerGauge("active_ocr_engines", () -> processor.getPoolSize() - processor.getIdleEngines());
+        metrics.registerGauge("open_connections", () -> frontEnd != null ? frontEnd.getConnectionCount() : 0);
+        metrics.registerGauge("indexed_documents", DocumentIndex.getInstance()::getDocumentCount);
+        OCRCache cache = OCRCache.getInstance();
+        metrics.registerGauge("ocr_cache_memory_hits", cache::getMemoryHits);
+        metrics.registerGauge("ocr_cache_disk_hits", cache::getDiskHits);
+        metrics.registerGauge("ocr_cache_misses", cache::getMisses);
+        metrics.registerGauge("ocr_cache_disk_bytes", cache::getDiskBytes);
+
+        int metricsPort = Config.getInstance().getMetricsPort();
+        if (metricsPort > 0) {
+            try {
+                metrics.startHttpServer(metricsPort);
+            } catch (IOException e) {
+                Log.warn("Could not start metrics endpoint on port " + metricsPort + ": " + e.getMessage());
             }
-            
-            PDFProtocol.SearchRequest request = (PDFProtocol.SearchRequest) requestObj;
-            System.out.println("Processing search request for file: " + request.getFileName() + 
-                             ", search phrase: '" + request.getSearchText() + "'");
-            
-            if (request.getPdfContent() == null || request.getSearchText() == null) {
-                System.out.println("Invalid request data - null content or search phrase");
-                sendErrorResponse(out, "Invalid request data");
-                return;
+        }
+    }
+
+    private final class FrontEndHandler implements NioFrontEnd.Handler {
+        @Override
+        public void onMessage(NioFrontEnd.Connection connection, PDFProtocol.Envelope envelope) {
+            dispatch(connection, connection.getRemoteAddress(), envelope, connection.getActiveRequests(),
+                     connection.getDocuments());
+        }
+
+        @Override
+        public void onLegacyConnection(Socket socket, InputStream input) {
+            connectionExecutor.submit(() -> handleClient(socket, input));
+        }
+
+        @Override
+        public void onClosed(NioFrontEnd.Connection connection) {
+            for (Future<?> job : connection.getActiveRequests().values()) {
+                job.cancel(true);
             }
+        }
 
-            Path tempFile = null;
+        @Override
+        public void onUploadRejected(NioFrontEnd.Connection connection, int requestId, IOException reason) {
+            Log.debug("Refusing upload of request " + requestId + " from " + connection.getRemoteAddress()
+                      + ": " + reason.getMessage());
+            PDFProtocol.SearchResponse response;
+            if (reason instanceof Spool.TooLargeException) {
+                response = new PDFProtocol.SearchResponse(false, null, reason.getMessage());
+            } else {
+                metrics.increment(ServerMetrics.Counter.BUSY_REJECTIONS);
+                response = PDFProtocol.SearchResponse.serverBusy(scheduler.getRetryAfterMillis());
+            }
             try {
-                tempFile = Files.createTempFile("pdf_", ".pdf");
-                System.out.println("Created temporary file: " + tempFile);
-                
-                Files.write(tempFile, request.getPdfContent());
-                
-                System.out.println("Processing PDF with OCR...");
-                OCRProcessor processor = OCRProcessor.getInstance();
-                String extractedText = processor.extractTextFromImage(tempFile.toFile());
-                
-                if (extractedText == null || extractedText.isEmpty()) {
-                    System.out.println("OCR produced no text output");
-                    sendErrorResponse(out, "No text could be extracted from the PDF");
-                    return;
-                }
-                
-                String formattedText = extractedText.replaceAll("\\r|\\n", " ").toLowerCase();
-                String searchPhrase = request.getSearchText().toLowerCase();
-                
-                System.out.println("Searching for phrase: '" + searchPhrase + "'");
-                PDFProtocol.SearchResponse response;
-                
-                List<String> contexts = new ArrayList<>();
-                int lastIndex = 0;
-                while ((lastIndex = formattedText.indexOf(searchPhrase, lastIndex)) != -1) {
-                    String context = extractContext(formattedText, lastIndex, searchPhrase);
-                    contexts.add(context);
-                    lastIndex += searchPhrase.length();
-                }
-                
-                if (!contexts.isEmpty()) {
-                    response = new PDFProtocol.SearchResponse(true, contexts, null);
-                    System.out.println("Found " + contexts.size() + " matches");
-                } else {
-                    response = new PDFProtocol.SearchResponse(false, null, null);
-                    System.out.println("No matches found");
-                }
-                
-                if (!clientSocket.isClosed() && clientSocket.isConnected()) {
-                    System.out.println("Sending response to client...");
-                    out.writeObject(response);
-                    out.flush();
-                    System.out.println("Response sent successfully");
-                } else {
-                    System.out.println("Client connection lost before sending response");
-                }
-                
-            } catch (TesseractException e) {
-                System.out.println("Tesseract error: " + e.getMessage());
-                e.printStackTrace();
-                sendErrorResponse(out, "Error processing PDF: " + e.getMessage());
-            } finally {
-                if (tempFile != null) {
-                    try {
-                        Files.deleteIfExists(tempFile);
-                        System.out.println("Temporary file deleted");
-                    } catch (IOException e) {
-                        System.out.println("Error deleting temporary file: " + e.getMessage());
+                connection.write(requestId, response);
+            } catch (IOException e) {
+                Log.warn("Error sending busy response: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serves a client of the legacy Java serialization protocol on a blocking
+     * socket. {@code input} replays the bytes the front end already consumed.
+     */
+    private void handleClient(Socket clientSocket, InputStream input) {
+        Log.debug("Handling legacy client connection from: " + clientSocket.getInetAddress());
+        MessageChannel channel = null;
+        Map<Integer, Future<?>> activeRequests = new ConcurrentHashMap<>();
+        RetainedDocuments documents = new RetainedDocuments(spool,
+                                                            Config.getInstance().getRetainedDocumentsPerConnection());
+
+        try {
+            clientSocket.setSoTimeout(Config.getInstance().getSocketTimeoutMillis());
+            clientSocket.setTcpNoDelay(true);
+            clientSocket.setKeepAlive(true);
+
+            channel = new ObjectStreamChannel(input, clientSocket.getOutputStream());
+
+            while (running) {
+                PDFProtocol.Envelope envelope;
+                try {
+                    envelope = channel.read();
+                } catch (SocketTimeoutException e) {
+                    if (activeRequests.isEmpty()) {
+                        Log.debug("Closing idle connection from " + clientSocket.getInetAddress());
+                        break;
                     }
+                    continue;
+                } catch (EOFException e) {
+                    Log.debug("Client closed connection");
+                    break;
                 }
+                dispatch(channel, clientSocket.getRemoteSocketAddress(), envelope, activeRequests, documents);
             }
-            
+            awaitActiveRequests(activeRequests);
+
         } catch (Exception e) {
-            System.out.println("Error handling client request: " + e.getMessage());
-            e.printStackTrace();
-            sendErrorResponse(out, "Server error: " + e.getMessage());
-        } finally {
-            System.out.println("Cleaning up connection...");
-            if (out != null) {
-                try {
-                    out.flush();
-                    out.close();
-                } catch (IOException e) {
-                    System.out.println("Error closing output stream: " + e.getMessage());
-                }
+            Log.warn("Error handling client connection: " + e.getMessage(), e);
+            if (activeRequests.isEmpty()) {
+                sendErrorResponse(channel, 0, "Server error: " + e.getMessage());
+            }
+            for (Future<?> job : activeRequests.values()) {
+                job.cancel(true);
             }
-            if (in != null) {
+        } finally {
+            documents.close();
+            if (channel != null) {
                 try {
-                    in.close();
+                    channel.close();
                 } catch (IOException e) {
-                    System.out.println("Error closing input stream: " + e.getMessage());
+                    Log.warn("Error closing message channel: " + e.getMessage());
                 }
             }
             try {
@@ -177,53 +214,605 @@ public class PDFServer {
                     clientSocket.close();
                 }
             } catch (IOException e) {
-                System.out.println("Error closing client socket: " + e.getMessage());
+                Log.warn("Error closing client socket: " + e.getMessage());
             }
-            System.out.println("Connection cleanup completed");
         }
     }
 
-    private void sendErrorResponse(ObjectOutputStream out, String errorMessage) {
-        if (out != null) {
+    /**
+     * Routes one incoming message. Searches are queued on the scheduler under
+     * the connection's remote address and port, so clients behind one gateway
+     * still get a fair share each; when the queue is full the client is told to
+     * retry later instead. Index searches need no OCR and run on their own
+     * threads.
+     */
+    private void dispatch(MessageSink channel, Object client, PDFProtocol.Envelope envelope,
+                          Map<Integer, Future<?>> activeRequests, RetainedDocuments documents) {
+        int requestId = envelope.getRequestId();
+        Object message = envelope.getMessage();
+
+        if (message instanceof PDFProtocol.CancelRequest) {
+            Future<?> job = activeRequests.get(requestId);
+            if (job != null) {
+                Log.debug("Cancelling request " + requestId);
+                metrics.increment(ServerMetrics.Counter.CANCELLED);
+                job.cancel(true);
+            }
+            return;
+        }
+
+        if (message instanceof PDFProtocol.JobRequest) {
+            PDFProtocol.JobRequest request = (PDFProtocol.JobRequest) message;
+            PDFProtocol.JobStatus status = request.getAction() == PDFProtocol.JobRequest.Action.CANCEL
+                ? jobs.cancel(request.getJobId())
+                : jobs.getStatus(request.getJobId(), request.getAction() == PDFProtocol.JobRequest.Action.FETCH);
+            writeJobStatus(channel, requestId, status);
+            return;
+        }
+
+        if (message instanceof PDFProtocol.IndexSearchRequest) {
+            PDFProtocol.IndexSearchRequest request = (PDFProtocol.IndexSearchRequest) message;
+            RequestJob job = new RequestJob(() -> processIndexSearch(channel, requestId, request),
+                                            client, requestId, null, null, activeRequests);
+            activeRequests.put(requestId, job);
+            queryExecutor.execute(job);
+            return;
+        }
+
+        if (!(message instanceof PDFProtocol.SearchRequest)) {
+            Log.warn("Invalid request type: " + (message != null ? message.getClass().getName() : "null"));
+            sendErrorResponse(channel, requestId, "Invalid request type");
+            return;
+        }
+
+        PDFProtocol.SearchRequest request = (PDFProtocol.SearchRequest) message;
+        metrics.increment(ServerMetrics.Counter.REQUESTS);
+        if (request.isJob()) {
+            submitJob(channel, client, requestId, request);
+            return;
+        }
+        if (isUnknownDocument(request, documents)) {
+            // Ask for the upload right away rather than after a turn in the queue.
+            sendUnknownDocument(new ConnectionResults(channel, requestId), requestId, request.getDocumentId());
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        // Whoever sets this owns the spooled upload: the job when it starts, or its cancellation.
+        AtomicBoolean uploadTaken = new AtomicBoolean();
+        RequestJob job = new RequestJob(() -> {
+            if (uploadTaken.compareAndSet(false, true)) {
+                processSearch(new ConnectionResults(channel, requestId), requestId, request, documents, queuedAt);
+            }
+        }, client, requestId, request, uploadTaken, activeRequests);
+        activeRequests.put(requestId, job);
+        if (!scheduler.offer(client, job)) {
+            activeRequests.remove(requestId, job);
+            releaseUpload(request);
+            long retryAfter = scheduler.getRetryAfterMillis();
+            metrics.increment(ServerMetrics.Counter.BUSY_REJECTIONS);
+            Log.debug("Server busy (" + scheduler.getQueuedJobs() + " queued), refusing request "
+                      + requestId + " from " + client + ", retry after " + retryAfter + " ms");
             try {
-                System.out.println("Sending error response: " + errorMessage);
-                out.writeObject(new PDFProtocol.SearchResponse(false, null, errorMessage));
-                out.flush();
+                channel.write(requestId, PDFProtocol.SearchResponse.serverBusy(retryAfter));
             } catch (IOException e) {
-                System.out.println("Error sending error response: " + e.getMessage());
+                Log.warn("Error sending busy response: " + e.getMessage());
             }
         }
     }
 
-    private String extractContext(String text, int matchIndex, String searchPhrase) {
-        int contextSize = 50;
-        int start = Math.max(0, matchIndex - contextSize);
-        int end = Math.min(text.length(), matchIndex + searchPhrase.length() + contextSize);
-        return "..." + text.substring(start, end) + "...";
+    /**
+     * Queues a search as a job that outlives the connection and answers with
+     * the job's id. A job only uses documents of its own, so a reference must
+     * be answerable from the OCR cache.
+     */
+    private void submitJob(MessageSink channel, Object client, int requestId, PDFProtocol.SearchRequest request) {
+        RetainedDocuments documents = new RetainedDocuments(spool, 0);
+        if (isUnknownDocument(request, documents)) {
+            Log.debug("Document " + request.getDocumentId() + " of job request " + requestId
+                      + " is unknown, asking for upload");
+            writeJobStatus(channel, requestId, PDFProtocol.JobStatus.rejected(PDFProtocol.UNKNOWN_DOCUMENT_ERROR, 0));
+            return;
+        }
+        JobTable.Job job = jobs.create(client, request);
+        if (job == null) {
+            releaseUpload(request);
+            long retryAfter = scheduler.getRetryAfterMillis();
+            metrics.increment(ServerMetrics.Counter.BUSY_REJECTIONS);
+            Log.debug("Too many jobs waiting, refusing job request " + requestId + " from " + client);
+            writeJobStatus(channel, requestId, PDFProtocol.JobStatus.rejected("Server busy", retryAfter));
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        AtomicBoolean uploadTaken = new AtomicBoolean();
+        RequestJob task = new RequestJob(() -> {
+            if (job.start() && uploadTaken.compareAndSet(false, true)) {
+                try {
+                    processSearch(job, requestId, request, documents, queuedAt);
+                } finally {
+                    job.stopped();
+                }
+            }
+        }, client, requestId, request, uploadTaken, null);
+        jobs.submit(job, task);
+        Log.debug("Queued request " + requestId + " from " + client + " as job " + job.getId());
+        writeJobStatus(channel, requestId, jobs.getStatus(job.getId(), false));
     }
 
-    public void shutdown() {
-        running = false;
-        if (serverSocket != null && !serverSocket.isClosed()) {
+    private void writeJobStatus(MessageSink channel, int requestId, PDFProtocol.JobStatus status) {
+        try {
+            channel.write(requestId, status);
+        } catch (IOException e) {
+            Log.warn("Error sending job status: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether {@code request} refers to a document by id that the server holds
+     * neither on this connection nor as cached text. Called on the selector
+     * thread, so it must not do I/O.
+     */
+    private static boolean isUnknownDocument(PDFProtocol.SearchRequest request, RetainedDocuments documents) {
+        if (request.hasContent() || request.getDocumentId() == null || documents.contains(request.getDocumentId())) {
+            return false;
+        }
+        OCRSettings settings;
+        try {
+            settings = OCRSettings.forRequest(request);
+        } catch (IllegalArgumentException e) {
+            // Reported when the request is processed.
+            return false;
+        }
+        String settingsKey = PDFTextExtractor.getInstance().getSettingsKey(settings);
+        return !OCRCache.getInstance().contains(OCRCache.computeKey(request.getDocumentId(), settingsKey));
+    }
+
+    private void sendUnknownDocument(SearchResults results, int requestId, String documentId) {
+        Log.debug("Document " + documentId + " of request " + requestId + " is unknown, asking for upload");
+        try {
+            results.respond(new PDFProtocol.SearchResponse(false, null, PDFProtocol.UNKNOWN_DOCUMENT_ERROR));
+        } catch (IOException e) {
+            Log.warn("Error sending unknown document response: " + e.getMessage());
+        }
+    }
+
+    private void awaitActiveRequests(Map<Integer, Future<?>> activeRequests) throws InterruptedException {
+        for (Future<?> job : new ArrayList<>(activeRequests.values())) {
             try {
-                serverSocket.close();
-            } catch (IOException e) {
-                System.out.println("Error closing server socket: " + e.getMessage());
+                job.get();
+            } catch (ExecutionException | CancellationException e) {
+                // Failures were already reported to the client by the job itself.
+            }
+        }
+    }
+
+    private void processSearch(SearchResults results, int requestId, PDFProtocol.SearchRequest request,
+                               RetainedDocuments documents, long queuedAt) {
+        long started = metrics.recordSince(ServerMetrics.Stage.QUEUE_WAIT, queuedAt);
+        long queueWaitMillis = TimeUnit.NANOSECONDS.toMillis(started - queuedAt);
+        Log.debug("Processing search request " + requestId + " for file: " + request.getFileName() +
+                  ", search phrases: " + request.getSearchPhrases() + " after " + queueWaitMillis + " ms in queue");
+
+        // Uploads over the binary protocol are already spooled to disk and owned by us.
+        Path tempFile = request.getPdfFile() != null ? request.getPdfFile().toPath() : null;
+        RetainedDocuments.Document document = null;
+        // A reference to a document this connection does not hold can still be answered from the OCR cache.
+        boolean reference = !request.hasContent() && request.getDocumentId() != null;
+        try {
+            if (reference) {
+                document = documents.acquire(request.getDocumentId());
+                if (document != null) {
+                    tempFile = document.getFile();
+                    Log.debug("Reusing document " + request.getDocumentId() + " for request " + requestId);
+                }
+            }
+            boolean hasDocument = request.hasContent() || reference;
+            if (!hasDocument || !hasPhrases(request.getSearchPhrases())) {
+                Log.debug("Invalid request data - null content or search phrase");
+                sendError(results, "Invalid request data");
+                return;
+            }
+
+            PhraseSearch search;
+            try {
+                search = new PhraseSearch(request.getSearchPhrases(), request.getMatchOptions());
+            } catch (PatternSyntaxException e) {
+                sendError(results, "Invalid pattern: " + e.getDescription());
+                return;
+            }
+
+            OCRSettings settings;
+            try {
+                settings = OCRSettings.forRequest(request);
+            } catch (IllegalArgumentException e) {
+                sendError(results, e.getMessage());
+                return;
+            }
+
+            PDFTextExtractor extractor = PDFTextExtractor.getInstance();
+            OCRCache cache = OCRCache.getInstance();
+            String documentId;
+            if (reference) {
+                documentId = request.getDocumentId();
+            } else if (tempFile != null) {
+                documentId = OCRCache.computeContentHash(tempFile);
+            } else {
+                documentId = OCRCache.computeContentHash(request.getPdfContent());
+            }
+            String cacheKey = OCRCache.computeKey(documentId, extractor.getSettingsKey(settings));
+            String extractedText = cache.get(cacheKey);
+
+            if (reference && document == null && extractedText == null) {
+                // The cached text was dropped while the request waited.
+                sendUnknownDocument(results, requestId, documentId);
+                return;
+            }
+            if (reference) {
+                metrics.increment(ServerMetrics.Counter.SKIPPED_UPLOADS);
             }
+            if (extractedText != null) {
+                metrics.increment(ServerMetrics.Counter.CACHE_HITS);
+                Log.debug("OCR cache hit for " + request.getFileName());
+            } else if (tempFile == null) {
+                tempFile = spool.write(request.getPdfContent());
+                Log.debug("Spooled upload to " + tempFile);
+            }
+            if (document == null && tempFile != null) {
+                document = documents.retain(documentId, tempFile);
+            }
+
+            // Jobs are never streamed; their progress is polled instead.
+            if (request.isStreaming() && !request.isJob()) {
+                streamResults(results, requestId, request.getFileName(), documentId, extractor, settings, cache,
+                              cacheKey, extractedText, tempFile, search, request.getMaxMatches(), queueWaitMillis);
+                return;
+            }
+
+            boolean cached = extractedText != null;
+            int maxMatches = request.getMaxMatches();
+            int pagesSearched = 0;
+            boolean complete = true;
+            if (maxMatches > 0) {
+                // Only pages up to the one that reaches the limit are extracted and searched.
+                List<String> pages = new ArrayList<>();
+                int[] counts = new int[2]; // matches, pages in the document
+                PDFTextExtractor.PageListener collector = (pageNumber, pageCount, text) -> {
+                    pages.add(text);
+                    counts[0] += PhraseSearch.countMatches(search.search(text));
+                    counts[1] = pageCount;
+                    results.progress(pages.size(), pageCount);
+                    return counts[0] < maxMatches;
+                };
+                if (cached) {
+                    List<String> cachedPages = PDFTextExtractor.splitPages(extractedText);
+                    for (int i = 0; i < cachedPages.size(); i++) {
+                        if (!collector.onPage(i + 1, cachedPages.size(), cachedPages.get(i))) {
+                            break;
+                        }
+                    }
+                } else {
+                    long extractStart = System.nanoTime();
+                    extractor.extractPages(tempFile.toFile(), settings, collector);
+                    metrics.recordSince(ServerMetrics.Stage.EXTRACT, extractStart);
+                }
+                extractedText = PDFTextExtractor.joinPages(pages);
+                pagesSearched = pages.size();
+                complete = pagesSearched == counts[1];
+            } else if (!cached) {
+                List<String> pages = new ArrayList<>();
+                long extractStart = System.nanoTime();
+                extractor.extractPages(tempFile.toFile(), settings, (pageNumber, pageCount, text) -> {
+                    pages.add(text);
+                    results.progress(pages.size(), pageCount);
+                    return true;
+                });
+                metrics.recordSince(ServerMetrics.Stage.EXTRACT, extractStart);
+                extractedText = PDFTextExtractor.joinPages(pages);
+            } else if (request.isJob()) {
+                int pageCount = PDFTextExtractor.splitPages(extractedText).size();
+                results.progress(pageCount, pageCount);
+            }
+            if (!cached) {
+                Log.debug("Pages read from text layer: " + extractor.getTextLayerPages()
+                          + ", pages OCR'd: " + extractor.getOcrPages());
+                if (complete && hasText(extractedText)) {
+                    cache.put(cacheKey, extractedText);
+                }
+            }
+
+            if (!hasText(extractedText)) {
+                Log.debug("OCR produced no text output");
+                sendError(results, PDFProtocol.NO_TEXT_ERROR);
+                return;
+            }
+
+            long searchStart = System.nanoTime();
+            List<PDFProtocol.PhraseMatches> matches = search.search(extractedText);
+            metrics.recordSince(ServerMetrics.Stage.SEARCH, searchStart);
+            int totalMatches = PhraseSearch.countMatches(matches);
+            PDFProtocol.SearchResponse response = new PDFProtocol.SearchResponse(
+                totalMatches > 0, null, null, totalMatches, pagesSearched,
+                queueWaitMillis, 0, documentId, matches);
+            Log.debug((totalMatches > 0 ? "Found " + totalMatches + " matches" : "No matches found")
+                      + (complete ? "" : " in the first " + pagesSearched + " pages"));
+
+            long writeStart = System.nanoTime();
+            results.respond(response);
+            metrics.recordSince(ServerMetrics.Stage.RESPONSE_WRITE, writeStart);
+            if (complete) {
+                indexDocument(documentId, request.getFileName(), PDFTextExtractor.splitPages(extractedText));
+            }
+
+        } catch (TesseractException e) {
+            Log.error("Tesseract error: " + e.getMessage(), e);
+            sendError(results, "Error processing PDF: " + e.getMessage());
+        } catch (PhraseSearch.PatternTimeoutException e) {
+            Log.debug("Request " + requestId + ": " + e.getMessage());
+            sendError(results, e.getMessage());
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                Log.debug("Request " + requestId + " cancelled");
+                return;
+            }
+            Log.error("Error handling client request: " + e.getMessage(), e);
+            sendError(results, "Server error: " + e.getMessage());
+        } finally {
+            if (document != null) {
+                documents.release(document);
+            } else {
+                spool.release(tempFile);
+            }
+            metrics.recordSince(ServerMetrics.Stage.REQUEST, queuedAt);
+        }
+    }
+
+    private void streamResults(SearchResults results, int requestId, String fileName, String documentId,
+                               PDFTextExtractor extractor, OCRSettings settings, OCRCache cache,
+                               String cacheKey, String cachedText, Path pdfFile, PhraseSearch search,
+                               int maxMatches, long queueWaitMillis)
+            throws IOException, TesseractException {
+        List<String> pageTexts = new ArrayList<>();
+        int[] totals = new int[3]; // matches, pages, pages in the document
+        int[] phraseTotals = new int[search.getPhrases().size()];
+        boolean[] anyText = new boolean[1];
+
+        PDFTextExtractor.PageListener listener = (pageNumber, pageCount, text) -> {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Request " + requestId + " cancelled");
+            }
+            if (cachedText == null) {
+                pageTexts.add(text);
+            }
+            anyText[0] |= hasText(text);
+            long searchStart = System.nanoTime();
+            List<PDFProtocol.PhraseMatches> matches = search.search(text);
+            metrics.recordSince(ServerMetrics.Stage.SEARCH, searchStart);
+            for (int i = 0; i < phraseTotals.length; i++) {
+                phraseTotals[i] += matches.get(i).getMatchCount();
+            }
+            totals[0] += PhraseSearch.countMatches(matches);
+            totals[1]++;
+            totals[2] = pageCount;
+            results.page(new PDFProtocol.PageResult(pageNumber, pageCount, totals[1], null, matches));
+            return maxMatches == 0 || totals[0] < maxMatches;
+        };
+
+        boolean complete;
+        if (cachedText != null) {
+            List<String> pages = PDFTextExtractor.splitPages(cachedText);
+            for (int i = 0; i < pages.size(); i++) {
+                if (!listener.onPage(i + 1, pages.size(), pages.get(i))) {
+                    break;
+                }
+            }
+            complete = totals[1] == pages.size();
+        } else {
+            long extractStart = System.nanoTime();
+            extractor.extractPages(pdfFile.toFile(), settings, listener);
+            metrics.recordSince(ServerMetrics.Stage.EXTRACT, extractStart);
+            complete = totals[1] == totals[2];
+            if (complete && anyText[0]) {
+                cache.put(cacheKey, PDFTextExtractor.joinPages(pageTexts));
+            }
+        }
+
+        if (!anyText[0]) {
+            Log.debug("OCR produced no text output");
+            sendError(results, PDFProtocol.NO_TEXT_ERROR);
+            return;
+        }
+
+        List<PDFProtocol.PhraseMatches> phraseSummary = new ArrayList<>(phraseTotals.length);
+        for (int i = 0; i < phraseTotals.length; i++) {
+            phraseSummary.add(new PDFProtocol.PhraseMatches(search.getPhrases().get(i), phraseTotals[i], null));
+        }
+        Log.debug("Streamed " + totals[1] + " pages with " + totals[0] + " matches"
+                  + (complete ? "" : ", stopped at the match limit"));
+        results.respond(new PDFProtocol.SearchResponse(totals[0] > 0, null, null, totals[0], totals[1],
+                                                                queueWaitMillis, 0, documentId, phraseSummary));
+        if (complete) {
+            indexDocument(documentId, fileName,
+                          cachedText != null ? PDFTextExtractor.splitPages(cachedText) : pageTexts);
+        }
+    }
+
+    private void indexDocument(String documentId, String fileName, List<String> pages) {
+        DocumentIndex index = DocumentIndex.getInstance();
+        if (Config.getInstance().isDocumentIndexEnabled() && !index.contains(documentId)) {
+            index.addDocument(documentId, fileName, pages);
+        }
+    }
+
+    private void processIndexSearch(MessageSink channel, int requestId, PDFProtocol.IndexSearchRequest request) {
+        if (request.getSearchText() == null) {
+            sendErrorResponse(channel, requestId, "Invalid request data");
+            return;
         }
-        executorService.shutdown();
+        metrics.increment(ServerMetrics.Counter.INDEX_SEARCHES);
+        long start = System.nanoTime();
+        int maxDocuments = request.getMaxDocuments() > 0
+            ? Math.min(request.getMaxDocuments(), MAX_INDEX_SEARCH_DOCUMENTS)
+            : MAX_INDEX_SEARCH_DOCUMENTS;
         try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            PDFProtocol.IndexSearchResponse response = DocumentIndex.getInstance()
+                .search(request.getDocumentIds(), request.getSearchText(), maxDocuments);
+            metrics.record(ServerMetrics.Stage.INDEX_SEARCH, System.nanoTime() - start);
+            Log.debug("Index search " + requestId + " for '" + request.getSearchText() + "' found "
+                      + response.getTotalMatches() + " matches in " + response.getMatches().size()
+                      + " documents in " + elapsedMillis(start) + " ms");
+            channel.write(requestId, response);
+        } catch (IOException e) {
+            Log.warn("Error searching index: " + e.getMessage());
+            sendErrorResponse(channel, requestId, "Index error: " + e.getMessage());
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static boolean hasPhrases(List<String> phrases) {
+        if (phrases.isEmpty() || phrases.size() > MAX_PHRASES) {
+            return false;
+        }
+        for (String phrase : phrases) {
+            if (phrase == null || phrase.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasText(String text) {
+        if (text == null) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sendErrorResponse(MessageSink channel, int requestId, String errorMessage) {
+        if (channel != null) {
+            sendError(new ConnectionResults(channel, requestId), errorMessage);
+        } else {
+            metrics.increment(ServerMetrics.Counter.ERRORS);
+        }
+    }
+
+    private void sendError(SearchResults results, String errorMessage) {
+        metrics.increment(ServerMetrics.Counter.ERRORS);
+        try {
+            Log.debug("Sending error response: " + errorMessage);
+            results.respond(new PDFProtocol.SearchResponse(false, null, errorMessage));
+        } catch (IOException e) {
+            Log.warn("Error sending error response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a search's results back over the connection it came in on.
+     */
+    private static final class ConnectionResults implements SearchResults {
+        private final MessageSink channel;
+        private final int requestId;
+
+        ConnectionResults(MessageSink channel, int requestId) {
+            this.channel = channel;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void page(PDFProtocol.PageResult result) throws IOException {
+            channel.write(requestId, result);
+        }
+
+        @Override
+        public void respond(PDFProtocol.SearchResponse response) throws IOException {
+            channel.write(requestId, response);
+        }
+
+        @Override
+        public void progress(int pagesCompleted, int pageCount) {
+        }
+    }
+
+    private void releaseUpload(PDFProtocol.SearchRequest request) {
+        if (request.getPdfFile() != null) {
+            spool.release(request.getPdfFile().toPath());
+        }
+    }
+
+    /**
+     * One request in flight on a connection, or a submitted job, which has no
+     * active requests. Removes itself from the connection's active requests
+     * and the scheduler's queue when done, and
+     * releases a spooled upload if it was cancelled before it started
+     * running.
+     */
+    private final class RequestJob extends FutureTask<Void> {
+        private final Object client;
+        private final int requestId;
+        private final PDFProtocol.SearchRequest upload;
+        private final AtomicBoolean uploadTaken;
+        private final Map<Integer, Future<?>> activeRequests;
+
+        RequestJob(Runnable body, Object client, int requestId, PDFProtocol.SearchRequest upload,
+                   AtomicBoolean uploadTaken, Map<Integer, Future<?>> activeRequests) {
+            super(body, null);
+            this.client = client;
+            this.requestId = requestId;
+            this.upload = upload;
+            this.uploadTaken = uploadTaken;
+            this.activeRequests = activeRequests;
+        }
+
+        @Override
+        protected void done() {
+            if (activeRequests != null) {
+                activeRequests.remove(requestId, this);
+            }
+            if (isCancelled() && upload != null) {
+                scheduler.remove(client, this);
+                if (uploadTaken.compareAndSet(false, true)) {
+                    releaseUpload(upload);
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        if (frontEnd != null) {
+            frontEnd.close();
+        }
+        metrics.stopHttpServer();
+        jobs.close();
+        connectionExecutor.shutdown();
+        queryExecutor.shutdown();
+        try {
+            if (!scheduler.shutdown(60, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+            if (!connectionExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                connectionExecutor.shutdownNow();
+            }
+            if (!queryExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                queryExecutor.shutdownNow();
             }
         } catch (InterruptedException e) {
-            executorService.shutdownNow();
+            scheduler.shutdownNow();
+            connectionExecutor.shutdownNow();
+            queryExecutor.shutdownNow();
             Thread.currentThread().interrupt();
         }
     }
 
     public static void main(String[] args) {
-        PDFServer server = new PDFServer(PDFProtocol.DEFAULT_PORT);
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PDFProtocol.DEFAULT_PORT;
+        PDFServer server = new PDFServer(port);
         server.start();
     }
-} 
\ No newline at end of file
+}
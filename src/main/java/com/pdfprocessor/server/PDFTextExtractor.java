@@ -0,0 +1,436 @@
+package com.pdfprocessor.server;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.util.Matrix;
+
+import net.sourceforge.tess4j.TesseractException;
+
+/**
+ * Splits a PDF into pages and extracts the text of each one. Pages with a
+ * usable embedded text layer are read directly. A page mostly covered by
+ * images is a scan, and its text layer is only trusted if it holds about as
+ * much text as a page of print, as a searchable PDF's OCR layer does; a
+ * stamp or fax header on top of a scan is not enough. Other pages are rendered
+ * on the calling thread, then preprocessed and OCR'd concurrently on the OCR
+ * engine pool. Page texts are reassembled in page order.
+ */
+public class PDFTextExtractor {
+    private static PDFTextExtractor instance;
+    private static final int MIN_TEXT_LAYER_CHARS = 32;
+    private static final float SCANNED_PAGE_IMAGE_COVERAGE = 0.5f;
+    private static final float MIN_SCANNED_PAGE_CHARS_PER_SQUARE_INCH = 4;
+    private static final float POINTS_PER_INCH = 72;
+    private static final char PAGE_SEPARATOR = '\f';
+
+    private final OCRProcessor processor;
+    private final ThreadPoolExecutor pageExecutor;
+    // Rendered pages are large, so only a bounded number, across all requests, may wait for an engine at once.
+    private final PagePermits renderedPages;
+    private int maxPagesInFlight;
+    private final AtomicLong textLayerPages = new AtomicLong();
+    private final AtomicLong ocrPages = new AtomicLong();
+    private final ServerMetrics metrics = ServerMetrics.getInstance();
+
+    private PDFTextExtractor() {
+        this.processor = OCRProcessor.getInstance();
+        int workers = processor.getPoolSize();
+        this.maxPagesInFlight = workers * 2;
+        this.renderedPages = new PagePermits(maxPagesInFlight);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pageExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                                                   new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ocr-page-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Config.addListener(config -> resize(config.getOcrWorkers()));
+    }
+
+    private synchronized void resize(int workers) {
+        if (workers == pageExecutor.getCorePoolSize()) {
+            return;
+        }
+        if (workers > pageExecutor.getMaximumPoolSize()) {
+            pageExecutor.setMaximumPoolSize(workers);
+            pageExecutor.setCorePoolSize(workers);
+        } else {
+            pageExecutor.setCorePoolSize(workers);
+            pageExecutor.setMaximumPoolSize(workers);
+        }
+        int pagesInFlight = workers * 2;
+        if (pagesInFlight > maxPagesInFlight) {
+            renderedPages.release(pagesInFlight - maxPagesInFlight);
+        } else {
+            renderedPages.reducePermits(maxPagesInFlight - pagesInFlight);
+        }
+        maxPagesInFlight = pagesInFlight;
+    }
+
+    public static synchronized PDFTextExtractor getInstance() {
+        if (instance == null) {
+            instance = new PDFTextExtractor();
+        }
+        return instance;
+    }
+
+    public interface PageListener {
+        /**
+         * Receives the next page. Returning false stops the extraction; the
+         * remaining pages are not rendered or OCR'd.
+         */
+        boolean onPage(int pageNumber, int pageCount, String text) throws IOException;
+    }
+
+    public String extractText(File pdfFile) throws IOException, TesseractException {
+        return extractText(pdfFile, OCRSettings.getDefault());
+    }
+
+    public String extractText(File pdfFile, OCRSettings settings) throws IOException, TesseractException {
+        return joinPages(extractPages(pdfFile, settings));
+    }
+
+    public List<String> extractPages(File pdfFile) throws IOException, TesseractException {
+        return extractPages(pdfFile, OCRSettings.getDefault());
+    }
+
+    public List<String> extractPages(File pdfFile, OCRSettings settings) throws IOException, TesseractException {
+        List<String> texts = new ArrayList<>();
+        extractPages(pdfFile, settings, (pageNumber, pageCount, text) -> {
+            texts.add(text);
+            return true;
+        });
+        return texts;
+    }
+
+    public void extractPages(File pdfFile, PageListener listener) throws IOException, TesseractException {
+        extractPages(pdfFile, OCRSettings.getDefault(), listener);
+    }
+
+    /**
+     * Extracts every page and hands it to the listener in page order as soon as
+     * it and all earlier pages are done. An exception from the listener aborts
+     * the extraction and cancels pending page work, and so does the listener
+     * asking to stop.
+     */
+    public void extractPages(File pdfFile, OCRSettings settings, PageListener listener)
+            throws IOException, TesseractException {
+        List<Future<String>> pages = new ArrayList<>();
+        int pageCount;
+        int delivered = 0;
+        boolean more = true;
+
+        try (PDDocument document = PDDocument.load(pdfFile)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            pageCount = document.getNumberOfPages();
+            long textStart = System.nanoTime();
+            TextLayer textLayer = readTextLayer(document);
+            metrics.recordSince(ServerMetrics.Stage.TEXT_LAYER, textStart);
+
+            for (int pageIndex = 0; pageIndex < pageCount && more; pageIndex++) {
+                String embeddedText = textLayer.getUsableText(pageIndex);
+                if (embeddedText != null) {
+                    textLayerPages.incrementAndGet();
+                    metrics.increment(ServerMetrics.Counter.TEXT_LAYER_PAGES);
+                    pages.add(CompletableFuture.completedFuture(embeddedText));
+                } else {
+                    ocrPages.incrementAndGet();
+                    metrics.increment(ServerMetrics.Counter.OCR_PAGES);
+                    acquirePagePermit();
+                    BufferedImage image;
+                    try {
+                        long renderStart = System.nanoTime();
+                        image = renderer.renderImageWithDPI(pageIndex, settings.getRenderDpi(), ImageType.GRAY);
+                        metrics.recordSince(ServerMetrics.Stage.RENDER, renderStart);
+                    } catch (IOException | RuntimeException e) {
+                        renderedPages.release();
+                        throw e;
+                    }
+                    PageTask page = new PageTask(() -> ocrPage(image, settings));
+                    pageExecutor.execute(page);
+                    pages.add(page);
+                }
+
+                while (more && delivered < pages.size() && pages.get(delivered).isDone()) {
+                    more = listener.onPage(delivered + 1, pageCount, await(pages.get(delivered), pages));
+                    delivered++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            cancelAll(pages);
+            throw e;
+        }
+
+        try {
+            while (more && delivered < pages.size()) {
+                more = listener.onPage(delivered + 1, pageCount, await(pages.get(delivered), pages));
+                delivered++;
+            }
+        } catch (IOException | RuntimeException e) {
+            cancelAll(pages);
+            throw e;
+        }
+        if (!more) {
+            cancelAll(pages);
+            metrics.add(ServerMetrics.Counter.SKIPPED_PAGES, pageCount - delivered);
+        }
+    }
+
+    private String ocrPage(BufferedImage image, OCRSettings settings) throws TesseractException {
+        long preprocessStart = System.nanoTime();
+        BufferedImage prepared = ImagePreprocessor.prepare(image, settings);
+        long ocrStart = metrics.recordSince(ServerMetrics.Stage.PREPROCESS, preprocessStart);
+        if (prepared == null) {
+            metrics.increment(ServerMetrics.Counter.BLANK_PAGES);
+            return "";
+        }
+        try {
+            return processor.extractTextFromImage(prepared, settings.getPageSegMode(), settings.getOcrEngineMode());
+        } finally {
+            metrics.recordSince(ServerMetrics.Stage.OCR, ocrStart);
+        }
+    }
+
+    public static String joinPages(List<String> pages) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pages.size(); i++) {
+            if (i > 0) {
+                text.append(PAGE_SEPARATOR);
+            }
+            text.append(pages.get(i).replace(PAGE_SEPARATOR, ' '));
+        }
+        return text.toString();
+    }
+
+    public static List<String> splitPages(String text) {
+        List<String> pages = new ArrayList<>();
+        int start = 0;
+        int separator;
+        while ((separator = text.indexOf(PAGE_SEPARATOR, start)) != -1) {
+            pages.add(text.substring(start, separator));
+            start = separator + 1;
+        }
+        pages.add(text.substring(start));
+        return pages;
+    }
+
+    /**
+     * Reads the text layer of every page in one pass over the document.
+     */
+    private TextLayer readTextLayer(PDDocument document) throws IOException {
+        TextLayer textLayer = new TextLayer(document.getNumberOfPages());
+        if (document.isEncrypted() && !document.getCurrentAccessPermission().canExtractContent()) {
+            return textLayer;
+        }
+        textLayer.read(document);
+        return textLayer;
+    }
+
+    private static int countVisibleChars(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public String getSettingsKey(OCRSettings settings) {
+        return processor.getSettingsKey(settings) + "|text-layer" + MIN_TEXT_LAYER_CHARS
+               + "|scan" + SCANNED_PAGE_IMAGE_COVERAGE + "/" + MIN_SCANNED_PAGE_CHARS_PER_SQUARE_INCH + "|paged";
+    }
+
+    public long getTextLayerPages() {
+        return textLayerPages.get();
+    }
+
+    public long getOcrPages() {
+        return ocrPages.get();
+    }
+
+    private String await(Future<String> page, List<Future<String>> pages) throws IOException, TesseractException {
+        try {
+            String text = page.get();
+            return text != null ? text : "";
+        } catch (InterruptedException e) {
+            cancelAll(pages);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for page OCR", e);
+        } catch (ExecutionException e) {
+            cancelAll(pages);
+            Throwable cause = e.getCause();
+            if (cause instanceof TesseractException) {
+                throw (TesseractException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Page OCR failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void acquirePagePermit() throws IOException {
+        try {
+            renderedPages.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering pages", e);
+        }
+    }
+
+    private void cancelAll(List<Future<String>> pages) {
+        for (Future<String> page : pages) {
+            page.cancel(true);
+        }
+    }
+
+    /**
+     * OCRs one rendered page and gives back its permit once it is done, also
+     * when it is cancelled before it ever ran.
+     */
+    private final class PageTask extends FutureTask<String> {
+        private final AtomicBoolean holdsPermit = new AtomicBoolean(true);
+
+        PageTask(Callable<String> ocr) {
+            super(ocr);
+        }
+
+        @Override
+        protected void done() {
+            if (holdsPermit.compareAndSet(true, false)) {
+                renderedPages.release();
+            }
+        }
+    }
+
+    /**
+     * Collects each page's text as the stripper finishes the page, along with
+     * how much of the page images cover.
+     */
+    private static final class TextLayer extends PDFTextStripper {
+        private final String[] texts;
+        private final float[] pageAreas;
+        private final float[] imageAreas;
+
+        TextLayer(int pageCount) throws IOException {
+            this.texts = new String[pageCount];
+            this.pageAreas = new float[pageCount];
+            this.imageAreas = new float[pageCount];
+        }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            super.startPage(page);
+            PDRectangle box = page.getCropBox();
+            pageAreas[getCurrentPageNo() - 1] = box.getWidth() * box.getHeight();
+            clearOutput();
+        }
+
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            super.endPage(page);
+            texts[getCurrentPageNo() - 1] = getOutput().toString();
+            clearOutput();
+        }
+
+        @Override
+        protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+            if ("Do".equals(operator.getName()) && !operands.isEmpty() && operands.get(0) instanceof COSName) {
+                PDResources resources = getResources();
+                if (resources != null && resources.isImageXObject((COSName) operands.get(0))) {
+                    // An image fills the unit square mapped by the current transformation.
+                    Matrix ctm = getGraphicsState().getCurrentTransformationMatrix();
+                    imageAreas[getCurrentPageNo() - 1] += Math.abs(ctm.getScaleX() * ctm.getScaleY()
+                                                                   - ctm.getShearX() * ctm.getShearY());
+                }
+            }
+            super.processOperator(operator, operands);
+        }
+
+        private void clearOutput() {
+            ((StringWriter) getOutput()).getBuffer().setLength(0);
+        }
+
+        /**
+         * Reads every page. Pages from the first unreadable one on are left
+         * to OCR.
+         */
+        void read(PDDocument document) {
+            try {
+                writeText(document, new StringWriter());
+            } catch (IOException | RuntimeException e) {
+                Log.warn("Text layer unreadable from page " + getCurrentPageNo() + ", falling back to OCR: "
+                         + e.getMessage());
+                for (int i = Math.max(0, getCurrentPageNo() - 1); i < texts.length; i++) {
+                    texts[i] = null;
+                }
+            }
+        }
+
+        /**
+         * Returns the page's text layer, or null if the page needs OCR.
+         */
+        String getUsableText(int pageIndex) {
+            String text = texts[pageIndex];
+            if (text == null) {
+                return null;
+            }
+            int visibleChars = countVisibleChars(text);
+            if (visibleChars < MIN_TEXT_LAYER_CHARS) {
+                return null;
+            }
+            float pageArea = pageAreas[pageIndex];
+            if (pageArea > 0 && imageAreas[pageIndex] >= pageArea * SCANNED_PAGE_IMAGE_COVERAGE) {
+                float squareInches = pageArea / (POINTS_PER_INCH * POINTS_PER_INCH);
+                if (visibleChars < squareInches * MIN_SCANNED_PAGE_CHARS_PER_SQUARE_INCH) {
+                    return null;
+                }
+            }
+            return text;
+        }
+    }
+
+    /**
+     * A semaphore whose permits can be taken away when the pool shrinks.
+     */
+    private static final class PagePermits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        PagePermits(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.pdfprocessor.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton that finds any number of literal phrases in a single
+ * pass over the text. Transitions are precomputed into a dense table over the
+ * characters that occur in the phrases, so matching costs one array lookup
+ * per input character regardless of the number of phrases.
+ *
+ * Like the old indexOf loop, matches of the same phrase do not overlap, and
+ * line breaks in the text match spaces in a phrase.
+ */
+public class PhraseMatcher {
+    public interface MatchListener {
+        void onMatch(int phraseIndex, int start, int end);
+    }
+
+    private static final int ROOT = 0;
+
+    private final int phraseCount;
+    private final int[] phraseLengths;
+    private final boolean matchCase;
+    private final boolean wholeWord;
+    private final int[] asciiSymbols = new int[128];
+    private final int[] asciiInputSymbols = new int[128];
+    private final Map<Character, Integer> otherSymbols = new HashMap<>();
+    private final int alphabetSize;
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    public PhraseMatcher(List<String> phrases, boolean matchCase, boolean wholeWord) {
+        this.phraseCount = phrases.size();
+        this.phraseLengths = new int[phraseCount];
+        this.matchCase = matchCase;
+        this.wholeWord = wholeWord;
+        Arrays.fill(asciiSymbols, -1);
+
+        // Build the trie with per-state symbol maps first, then flatten it.
+        List<Map<Integer, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        trie.add(new HashMap<>());
+        stateOutputs.add(new ArrayList<>());
+        int symbols = 0;
+        for (int p = 0; p < phraseCount; p++) {
+            String phrase = phrases.get(p);
+            phraseLengths[p] = phrase.length();
+            int state = ROOT;
+            for (int i = 0; i < phrase.length(); i++) {
+                char c = fold(phrase.charAt(i));
+                int symbol = symbolOf(c);
+                if (symbol < 0) {
+                    symbol = symbols++;
+                    if (c < 128) {
+                        asciiSymbols[c] = symbol;
+                    } else {
+                        otherSymbols.put(c, symbol);
+                    }
+                }
+                Integer next = trie.get(state).get(symbol);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    stateOutputs.add(new ArrayList<>());
+                    trie.get(state).put(symbol, next);
+                }
+                state = next;
+            }
+            if (!phrase.isEmpty()) {
+                stateOutputs.get(state).add(p);
+            }
+        }
+        this.alphabetSize = Math.max(1, symbols);
+        // Input symbols of ASCII characters with case and line break folding already applied.
+        for (char c = 0; c < 128; c++) {
+            asciiInputSymbols[c] = symbolOf(fold(c));
+        }
+
+        int stateCount = trie.size();
+        this.transitions = new int[stateCount * alphabetSize];
+        int[] failure = new int[stateCount];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int symbol = 0; symbol < alphabetSize; symbol++) {
+            Integer next = trie.get(ROOT).get(symbol);
+            transitions[symbol] = next != null ? next : ROOT;
+            if (next != null) {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            stateOutputs.get(state).addAll(stateOutputs.get(failure[state]));
+            for (int symbol = 0; symbol < alphabetSize; symbol++) {
+                Integer next = trie.get(state).get(symbol);
+                int fallback = transitions[failure[state] * alphabetSize + symbol];
+                if (next != null) {
+                    failure[next] = fallback;
+                    transitions[state * alphabetSize + symbol] = next;
+                    queue.add(next);
+                } else {
+                    transitions[state * alphabetSize + symbol] = fallback;
+                }
+            }
+        }
+
+        this.outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            List<Integer> output = stateOutputs.get(state);
+            outputs[state] = new int[output.size()];
+            for (int i = 0; i < output.size(); i++) {
+                outputs[state][i] = output.get(i);
+            }
+        }
+    }
+
+    private char fold(char c) {
+        if (c == '\r' || c == '\n') {
+            return ' ';
+        }
+        return matchCase ? c : Character.toLowerCase(c);
+    }
+
+    private int symbolOf(char c) {
+        if (c < 128) {
+            return asciiSymbols[c];
+        }
+        Integer symbol = otherSymbols.get(c);
+        return symbol != null ? symbol : -1;
+    }
+
+    public int getPhraseCount() {
+        return phraseCount;
+    }
+
+    /**
+     * Reports every match in {@code text} in order of its end offset.
+     */
+    public void match(CharSequence text, MatchListener listener) {
+        int[] nextAllowedStart = new int[phraseCount];
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int symbol = c < 128 ? asciiInputSymbols[c] : symbolOf(fold(c));
+            state = symbol < 0 ? ROOT : transitions[state * alphabetSize + symbol];
+            for (int phrase : outputs[state]) {
+                int end = i + 1;
+                int start = end - phraseLengths[phrase];
+                if (start < nextAllowedStart[phrase]) {
+                    continue;
+                }
+                if (wholeWord && !(isBoundary(text, start - 1) && isBoundary(text, end))) {
+                    continue;
+                }
+                nextAllowedStart[phrase] = end;
+                listener.onMatch(phrase, start, end);
+            }
+        }
+    }
+
+    private static boolean isBoundary(CharSequence text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+}
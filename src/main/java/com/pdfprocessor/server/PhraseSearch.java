@@ -0,0 +1,160 @@
+package com.pdfprocessor.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.pdfprocessor.shared.ContextSpans;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * The phrases of one search request, compiled once and applied to each page
+ * or document. Literal phrases share a single {@link PhraseMatcher} pass;
+ * regular expressions are matched one pattern at a time, and give up when the
+ * thread is interrupted or they run longer than
+ * {@link Config#getRegexTimeoutMillis()} on one text.
+ */
+public class PhraseSearch {
+    private static final int CONTEXT_SIZE = 50;
+
+    private final List<String> phrases;
+    private final boolean matchCase;
+    private final PhraseMatcher matcher;
+    private final Pattern[] patterns;
+    private final long regexTimeoutNanos;
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if regex matching is
+     *         requested and a phrase is not a valid pattern
+     */
+    public PhraseSearch(List<String> phrases, int matchOptions) {
+        this.phrases = phrases;
+        this.matchCase = (matchOptions & PDFProtocol.MATCH_CASE) != 0;
+        boolean wholeWord = (matchOptions & PDFProtocol.WHOLE_WORD) != 0;
+        this.regexTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Config.getInstance().getRegexTimeoutMillis());
+
+        if ((matchOptions & PDFProtocol.REGEX) != 0) {
+            this.matcher = null;
+            this.patterns = new Pattern[phrases.size()];
+            int flags = matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            for (int i = 0; i < patterns.length; i++) {
+                String regex = wholeWord
+                    ? "(?<![\\p{L}\\p{N}])(?:" + phrases.get(i) + ")(?![\\p{L}\\p{N}])"
+                    : phrases.get(i);
+                patterns[i] = Pattern.compile(regex, flags);
+            }
+        } else {
+            this.matcher = new PhraseMatcher(phrases, matchCase, wholeWord);
+            this.patterns = null;
+        }
+    }
+
+    public List<String> getPhrases() {
+        return phrases;
+    }
+
+    /**
+     * Returns the matches of every phrase, in phrase order. Contexts are
+     * recorded as offsets into {@code text} and only turned into strings when
+     * the result is sent.
+     *
+     * @throws PatternTimeoutException if the regular expressions take too
+     *         long on {@code text}
+     * @throws CancellationException if the thread is interrupted while
+     *         regular expressions are matched; the interrupt stays set
+     */
+    public List<PDFProtocol.PhraseMatches> search(String text) {
+        ContextSpans[] contexts = new ContextSpans[phrases.size()];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = new ContextSpans(text, CONTEXT_SIZE, !matchCase);
+        }
+
+        if (matcher != null) {
+            matcher.match(text, (phrase, start, end) -> contexts[phrase].add(start, end));
+        } else {
+            BoundedText bounded = new BoundedText(text, System.nanoTime() + regexTimeoutNanos);
+            for (int i = 0; i < patterns.length; i++) {
+                Matcher match = patterns[i].matcher(bounded);
+                while (match.find()) {
+                    if (match.end() > match.start()) {
+                        contexts[i].add(match.start(), match.end());
+                    }
+                }
+            }
+        }
+
+        List<PDFProtocol.PhraseMatches> results = new ArrayList<>(phrases.size());
+        for (int i = 0; i < contexts.length; i++) {
+            results.add(new PDFProtocol.PhraseMatches(phrases.get(i), contexts[i].size(), contexts[i]));
+        }
+        return results;
+    }
+
+    public static int countMatches(List<PDFProtocol.PhraseMatches> results) {
+        int total = 0;
+        for (PDFProtocol.PhraseMatches result : results) {
+            total += result.getMatchCount();
+        }
+        return total;
+    }
+
+    /**
+     * Thrown when regular expressions run past their time limit on one text.
+     */
+    public static class PatternTimeoutException extends RuntimeException {
+        PatternTimeoutException(long timeoutMillis) {
+            super("Pattern matching took longer than " + timeoutMillis + " ms");
+        }
+    }
+
+    /**
+     * The text as regular expressions see it. A {@link Matcher} never checks
+     * for interrupts and can backtrack for a very long time, but it reads
+     * every character through {@link #charAt}, which checks the interrupt
+     * flag and the deadline every few thousand reads.
+     */
+    private final class BoundedText implements CharSequence {
+        private static final int CHECK_INTERVAL = 4096;
+
+        private final String text;
+        private final long deadline;
+        private int reads;
+
+        BoundedText(String text, long deadline) {
+            this.text = text;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHECK_INTERVAL) {
+                reads = 0;
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Pattern matching interrupted");
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new PatternTimeoutException(TimeUnit.NANOSECONDS.toMillis(regexTimeoutNanos));
+                }
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
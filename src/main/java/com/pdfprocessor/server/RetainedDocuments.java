@@ -0,0 +1,124 @@
+package com.pdfprocessor.server;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads a connection keeps after their requests are done, so follow-up
+ * requests can refer to a document by id instead of uploading it again.
+ * The least recently used document is dropped when the connection holds too
+ * many; a dropped document still in use goes back to the spool when its last
+ * request finishes.
+ */
+final class RetainedDocuments implements Closeable {
+    private final SpoolManager spool;
+    private final int capacity;
+    private final LinkedHashMap<String, Document> documents = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean closed;
+
+    RetainedDocuments(SpoolManager spool, int capacity) {
+        this.spool = spool;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Takes over an uploaded file and returns it as a document in use by the
+     * calling request, or returns null and leaves the file with the caller if
+     * it cannot be kept.
+     */
+    Document retain(String documentId, Path file) {
+        List<Path> released = new ArrayList<>();
+        Document document;
+        synchronized (this) {
+            if (closed || capacity <= 0 || documents.containsKey(documentId) || !spool.hasRoomToRetain()) {
+                return null;
+            }
+            document = new Document(file);
+            documents.put(documentId, document);
+            Iterator<Map.Entry<String, Document>> eldest = documents.entrySet().iterator();
+            while (documents.size() > capacity) {
+                Document dropped = eldest.next().getValue();
+                eldest.remove();
+                if (dropped.drop()) {
+                    released.add(dropped.file);
+                }
+            }
+        }
+        for (Path path : released) {
+            spool.release(path);
+        }
+        return document;
+    }
+
+    /**
+     * Returns the document with the given id for use by a request, or null
+     * if the connection does not hold it.
+     */
+    synchronized Document acquire(String documentId) {
+        Document document = documents.get(documentId);
+        if (document != null) {
+            document.users++;
+        }
+        return document;
+    }
+
+    synchronized boolean contains(String documentId) {
+        return documents.containsKey(documentId);
+    }
+
+    void release(Document document) {
+        boolean free;
+        synchronized (this) {
+            document.users--;
+            free = document.dropped && document.users == 0;
+        }
+        if (free) {
+            spool.release(document.file);
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Path> released = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Document document : documents.values()) {
+                if (document.drop()) {
+                    released.add(document.file);
+                }
+            }
+            documents.clear();
+        }
+        for (Path path : released) {
+            spool.release(path);
+        }
+    }
+
+    static final class Document {
+        private final Path file;
+        private int users = 1;
+        private boolean dropped;
+
+        Document(Path file) {
+            this.file = file;
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        /**
+         * Marks the document as no longer retained and returns whether it can
+         * be released right away.
+         */
+        private boolean drop() {
+            dropped = true;
+            return users == 0;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.pdfprocessor.server;
+
+import java.io.IOException;
+
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Where a search sends its results: back over the connection the request
+ * came in on, or into the job it runs for.
+ */
+interface SearchResults {
+    /**
+     * Receives the result of one page of a streamed search.
+     */
+    void page(PDFProtocol.PageResult result) throws IOException;
+
+    /**
+     * Receives the search's final response, or the error that ended it.
+     */
+    void respond(PDFProtocol.SearchResponse response) throws IOException;
+
+    /**
+     * Told how many pages of a search that is not streamed are extracted.
+     */
+    void progress(int pagesCompleted, int pageCount);
+}
@@ -0,0 +1,260 @@
+package com.pdfprocessor.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Server counters, gauges and per-stage latency histograms. Recording is
+ * lock-free and cheap enough for the request path. The current values are
+ * served in Prometheus text format at {@code http://localhost:<port>/metrics}
+ * when {@link Config#getMetricsPort()} is set.
+ */
+public class ServerMetrics {
+    /**
+     * Stages of a request whose latency is tracked separately.
+     */
+    public enum Stage {
+        UPLOAD, QUEUE_WAIT, EXTRACT, TEXT_LAYER, RENDER, PREPROCESS, OCR, SEARCH, RESPONSE_WRITE, REQUEST, INDEX_SEARCH,
+        COMPRESS, DECOMPRESS
+    }
+
+    /**
+     * Event counters.
+     */
+    public enum Counter {
+        REQUESTS, ERRORS, BUSY_REJECTIONS, CANCELLED, BYTES_RECEIVED, BYTES_SENT,
+        TEXT_LAYER_PAGES, OCR_PAGES, BLANK_PAGES, SKIPPED_PAGES, CACHE_HITS, SKIPPED_UPLOADS, INDEX_SEARCHES,
+        COMPRESSION_SAVED_BYTES, INCOMPRESSIBLE_FRAMES, WORKER_FAILURES
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static ServerMetrics instance;
+
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final Map<String, LongSupplier> gauges = new TreeMap<>();
+    private HttpServer httpServer;
+
+    private ServerMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        registerGauge("log_dropped_messages", Log::getDroppedMessages);
+    }
+
+    public static synchronized ServerMetrics getInstance() {
+        if (instance == null) {
+            instance = new ServerMetrics();
+        }
+        return instance;
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records the time since {@code startNanos} and returns the current
+     * {@link System#nanoTime()}, so consecutive stages can be chained.
+     */
+    public long recordSince(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        record(stage, now - startNanos);
+        return now;
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public void add(Counter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    public Histogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public synchronized void registerGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Starts the HTTP endpoint on the loopback interface.
+     */
+    public synchronized void startHttpServer(int port) throws IOException {
+        if (httpServer != null) {
+            return;
+        }
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", this::handleMetrics);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        httpServer.start();
+        Log.info("Metrics available at http://localhost:" + port + "/metrics");
+    }
+
+    public synchronized void stopHttpServer() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        byte[] body = format().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * All metrics in Prometheus text exposition format.
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder(4096);
+        for (Counter counter : Counter.values()) {
+            String name = "pdfprocessor_" + counter.name().toLowerCase(Locale.ROOT) + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(get(counter)).append('\n');
+        }
+
+        synchronized (this) {
+            for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+                String name = "pdfprocessor_" + gauge.getKey();
+                text.append("# TYPE ").append(name).append(" gauge\n");
+                text.append(name).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+            }
+        }
+
+        text.append("# TYPE pdfprocessor_stage_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = getHistogram(stage);
+            String label = "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"";
+            for (double quantile : QUANTILES) {
+                text.append("pdfprocessor_stage_seconds{").append(label).append(",quantile=\"").append(quantile)
+                    .append("\"} ").append(seconds(histogram.getPercentile(quantile))).append('\n');
+            }
+            text.append("pdfprocessor_stage_seconds_sum{").append(label).append("} ")
+                .append(seconds(histogram.getSum())).append('\n');
+            text.append("pdfprocessor_stage_seconds_count{").append(label).append("} ")
+                .append(histogram.getCount()).append('\n');
+            text.append("pdfprocessor_stage_seconds_max{").append(label).append("} ")
+                .append(seconds(histogram.getMax())).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+    }
+
+    /**
+     * Latency histogram in microseconds with log-linear buckets: values up to
+     * 16 are exact, larger ones fall into one of eight buckets per power of
+     * two, so percentiles are accurate to within about 12%.
+     */
+    public static final class Histogram {
+        private static final int LINEAR_BUCKETS = 16;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKET_COUNT = LINEAR_BUCKETS + (64 - 4) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long micros) {
+            long value = Math.max(0, micros);
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        private static int bucketOf(long value) {
+            if (value < LINEAR_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperBoundOf(int bucket) {
+            if (bucket < LINEAR_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+            int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (1L << exponent) + (subBucket + 1) * width - 1;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given quantile,
+         * capped at the largest value recorded.
+         */
+        public long getPercentile(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+}
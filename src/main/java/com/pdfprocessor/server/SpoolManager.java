@@ -0,0 +1,227 @@
+package com.pdfprocessor.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pdfprocessor.shared.Spool;
+
+/**
+ * The server's upload area under {@code <files directory>/spool}. Files are
+ * sized for their upload when allocated, and released files are kept and
+ * handed out again instead of being deleted and recreated. The bytes of all
+ * files in use count against {@link Config#getSpoolQuotaBytes()}, and no
+ * single upload may exceed {@link Config#getMaxUploadBytes()}. Anything
+ * left in the directory by a previous run is removed on startup.
+ */
+public class SpoolManager implements Spool {
+    private static SpoolManager instance;
+
+    private final Path directory;
+    private volatile long quotaBytes;
+    private volatile int maxIdleFiles;
+    private volatile long maxUploadBytes;
+    private final Map<Path, Long> allocated = new HashMap<>();
+    private final Deque<Path> idle = new ArrayDeque<>();
+    private final Map<Path, Long> idleSizes = new HashMap<>();
+    private final AtomicLong nextFile = new AtomicLong();
+    private final AtomicLong reusedFiles = new AtomicLong();
+    private final AtomicLong rejectedUploads = new AtomicLong();
+    private long allocatedBytes;
+    private long idleBytes;
+
+    private SpoolManager() {
+        Config config = Config.getInstance();
+        this.directory = Paths.get(config.getFilesDirectory(), "spool");
+        this.quotaBytes = config.getSpoolQuotaBytes();
+        this.maxIdleFiles = config.getSpoolIdleFiles();
+        this.maxUploadBytes = config.getMaxUploadBytes();
+        Config.addListener(this::reconfigure);
+        try {
+            Files.createDirectories(directory);
+            removeStaleFiles();
+        } catch (IOException e) {
+            Log.error("Could not prepare spool directory " + directory + ": " + e.getMessage());
+        }
+
+        ServerMetrics metrics = ServerMetrics.getInstance();
+        metrics.registerGauge("spool_allocated_bytes", this::getAllocatedBytes);
+        metrics.registerGauge("spool_idle_files", this::getIdleFiles);
+        metrics.registerGauge("spool_reused_files", reusedFiles::get);
+        metrics.registerGauge("spool_rejected_uploads", rejectedUploads::get);
+    }
+
+    public static synchronized SpoolManager getInstance() {
+        if (instance == null) {
+            instance = new SpoolManager();
+        }
+        return instance;
+    }
+
+    private void reconfigure(Config config) {
+        quotaBytes = config.getSpoolQuotaBytes();
+        maxIdleFiles = config.getSpoolIdleFiles();
+        maxUploadBytes = config.getMaxUploadBytes();
+    }
+
+    private void removeStaleFiles() throws IOException {
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && Files.deleteIfExists(file)) {
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            Log.info("Removed " + removed + " stale files from " + directory);
+        }
+    }
+
+    @Override
+    public Path allocate(long length) throws IOException {
+        if (length > maxUploadBytes) {
+            throw new TooLargeException("File too large: " + length + " bytes (limit " + maxUploadBytes + ")");
+        }
+        Path reused;
+        List<Path> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (allocatedBytes + length > quotaBytes) {
+                rejectedUploads.incrementAndGet();
+                throw new FullException("Upload spool is full (" + allocatedBytes + " of " + quotaBytes
+                                        + " bytes in use)");
+            }
+            // Idle files take up disk space too; drop them when they stand in the way.
+            while (!idle.isEmpty() && allocatedBytes + idleBytes + length > quotaBytes) {
+                Path file = idle.pollLast();
+                idleBytes -= idleSizes.remove(file);
+                evicted.add(file);
+            }
+            reused = idle.pollFirst();
+            if (reused != null) {
+                idleBytes -= idleSizes.remove(reused);
+            }
+            allocatedBytes += length;
+        }
+        for (Path file : evicted) {
+            delete(file);
+        }
+
+        Path file = directory.resolve("upload-" + nextFile.incrementAndGet() + ".pdf");
+        try {
+            if (reused != null) {
+                // A fresh name keeps a reused file from being mistaken for the document it held before.
+                Files.move(reused, file);
+                reusedFiles.incrementAndGet();
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                if (channel.size() > length) {
+                    channel.truncate(length);
+                } else if (channel.size() < length) {
+                    channel.write(ByteBuffer.allocate(1), length - 1);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                allocatedBytes -= length;
+            }
+            delete(reused);
+            delete(file);
+            throw e;
+        }
+        synchronized (this) {
+            allocated.put(file, length);
+        }
+        return file;
+    }
+
+    /**
+     * Allocates a file and writes {@code content} into it.
+     */
+    public Path write(byte[] content) throws IOException {
+        Path file = allocate(content.length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+        } catch (IOException | RuntimeException e) {
+            release(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Creates a file of unknown size in the spool directory, for derived data
+     * such as document parts. It is not counted against the quota, and
+     * {@link #release(Path)} deletes it.
+     */
+    public Path createFile(String prefix) throws IOException {
+        return Files.createTempFile(directory, prefix, ".pdf");
+    }
+
+    @Override
+    public void release(Path file) {
+        if (file == null) {
+            return;
+        }
+        synchronized (this) {
+            Long length = allocated.remove(file);
+            if (length != null) {
+                allocatedBytes -= length;
+                if (idle.size() < maxIdleFiles && allocatedBytes + idleBytes + length <= quotaBytes) {
+                    idle.addFirst(file);
+                    idleSizes.put(file, length);
+                    idleBytes += length;
+                    return;
+                }
+            }
+        }
+        delete(file);
+    }
+
+    /**
+     * Whether there is room to keep a finished upload for follow-up requests.
+     * Kept uploads may only fill half of the quota, so they never crowd out
+     * new ones.
+     */
+    synchronized boolean hasRoomToRetain() {
+        return allocatedBytes < quotaBytes / 2;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long getIdleFiles() {
+        return idle.size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private static void delete(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            Log.warn("Error deleting spool file " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.pdfprocessor.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.pdfprocessor.shared.PDFConnection;
+import com.pdfprocessor.shared.PDFConnectionPool;
+
+/**
+ * The worker servers behind a coordinator. Tracks how many requests each
+ * worker has in flight and picks the least loaded one. A worker whose
+ * connection fails is left out for a backoff period that doubles with each
+ * consecutive failure; a worker that answers "busy" is left out until its
+ * suggested retry time.
+ */
+class WorkerPool implements Closeable {
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final List<Worker> workers;
+    private final long baseBackoffMillis;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    WorkerPool(List<String> addresses, int connectionsPerWorker, long baseBackoffMillis) {
+        List<Worker> list = new ArrayList<>();
+        for (String address : addresses) {
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Worker address must be host:port: " + address);
+            }
+            String host = address.substring(0, colon);
+            int port = Integer.parseInt(address.substring(colon + 1));
+            list.add(new Worker(address, new PDFConnectionPool(host, port, connectionsPerWorker)));
+        }
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException("No workers configured");
+        }
+        this.workers = Collections.unmodifiableList(list);
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    List<Worker> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Number of workers that are neither failed nor busy right now.
+     */
+    int getAvailableCount() {
+        long now = System.currentTimeMillis();
+        int available = 0;
+        for (Worker worker : workers) {
+            if (worker.isAvailable(now)) {
+                available++;
+            }
+        }
+        return available;
+    }
+
+    /**
+     * Returns the available worker with the fewest requests in flight,
+     * skipping {@code excluded}, or null if there is none. Ties are broken
+     * round-robin so idle workers share the load.
+     */
+    Worker pick(Collection<Worker> excluded) {
+        long now = System.currentTimeMillis();
+        int start = Math.floorMod(nextWorker.getAndIncrement(), workers.size());
+        Worker best = null;
+        for (int i = 0; i < workers.size(); i++) {
+            Worker worker = workers.get((start + i) % workers.size());
+            if (excluded.contains(worker) || !worker.isAvailable(now)) {
+                continue;
+            }
+            if (best == null || worker.inFlight.get() < best.inFlight.get()) {
+                best = worker;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Time until the first worker becomes available again, or 0 if one
+     * already is.
+     */
+    long getRetryDelayMillis() {
+        long now = System.currentTimeMillis();
+        long delay = Long.MAX_VALUE;
+        for (Worker worker : workers) {
+            delay = Math.min(delay, Math.max(0, worker.unavailableUntil - now));
+        }
+        return delay;
+    }
+
+    @Override
+    public void close() {
+        for (Worker worker : workers) {
+            worker.connections.close();
+        }
+    }
+
+    final class Worker {
+        private final String address;
+        private final PDFConnectionPool connections;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long unavailableUntil;
+        private int consecutiveFailures;
+
+        Worker(String address, PDFConnectionPool connections) {
+            this.address = address;
+            this.connections = connections;
+        }
+
+        String getAddress() {
+            return address;
+        }
+
+        int getInFlight() {
+            return inFlight.get();
+        }
+
+        boolean isAvailable(long now) {
+            return now >= unavailableUntil;
+        }
+
+        PDFConnection acquire() throws IOException {
+            return connections.acquire();
+        }
+
+        void started() {
+            inFlight.incrementAndGet();
+        }
+
+        void finished() {
+            inFlight.decrementAndGet();
+        }
+
+        synchronized void succeeded() {
+            consecutiveFailures = 0;
+        }
+
+        synchronized void failed() {
+            int failures = Math.min(++consecutiveFailures, 16);
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << (failures - 1));
+            unavailableUntil = System.currentTimeMillis() + backoff;
+            Log.warn("Worker " + address + " failed, retrying it in " + backoff + " ms");
+        }
+
+        void busy(long retryAfterMillis) {
+            unavailableUntil = Math.max(unavailableUntil, System.currentTimeMillis() + retryAfterMillis);
+        }
+
+        @Override
+        public String toString() {
+            return address;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.pdfprocessor.shared;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Length-prefixed binary wire format, see {@link BinaryCodec}. Frames are
+ * compressed when both sides agree on a codec in their prefaces; the codecs
+ * this side accepts come from -Dpdfprocessor.compression.
+ */
+public class BinaryChannel implements MessageChannel {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Path spoolDirectory;
+    private final List<Compression> compression = Compression.getClientPreference();
+    private boolean prefaceSent;
+    private boolean prefaceReceived;
+    private volatile FrameCompressor compressor;
+    private volatile FrameDecompressor decompressor;
+
+    public BinaryChannel(InputStream input, OutputStream output) {
+        this(input, output, null);
+    }
+
+    /**
+     * @param spoolDirectory where uploaded PDFs are spooled, or null for the
+     *                       system temp directory
+     */
+    public BinaryChannel(InputStream input, OutputStream output, Path spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+        this.in = new DataInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+    }
+
+    /**
+     * Sent first, the preface offers the codecs this side accepts; sent in
+     * reply, it names the codec picked from the peer's offer.
+     */
+    public void sendPreface() throws IOException {
+        int codecs;
+        if (!prefaceReceived) {
+            codecs = Compression.toMask(compression);
+        } else {
+            codecs = compressor != null ? compressor.getCodec().getBit() : 0;
+        }
+        BinaryCodec.writePreface(out, codecs);
+        out.flush();
+        prefaceSent = true;
+    }
+
+    public void receivePreface() throws IOException {
+        int codecs = BinaryCodec.readPreface(in);
+        Compression codec = Compression.choose(codecs, compression);
+        if (prefaceSent && codecs != 0 && (codec == null || codec.getBit() != codecs)) {
+            throw new ProtocolException("Peer picked compression 0x" + Integer.toHexString(codecs)
+                                        + ", which was not offered");
+        }
+        compressor = codec != null ? new FrameCompressor(codec, null) : null;
+        decompressor = codec != null ? new FrameDecompressor(codec, null) : null;
+        prefaceReceived = true;
+    }
+
+    @Override
+    public PDFProtocol.Envelope read() throws IOException {
+        return BinaryCodec.readMessage(in, spoolDirectory, decompressor);
+    }
+
+    @Override
+    public synchronized void write(int requestId, Object message) throws IOException {
+        BinaryCodec.writeMessage(out, requestId, message, compressor);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,830 @@
+package com.pdfprocessor.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hand-written encoder and decoder for the binary wire format.
+ *
+ * <pre>
+ * connection preface: int magic ("PDFP"), byte version, byte codecs
+ * frame:              byte type, int requestId, int payloadLength, payload
+ * string:             int byteLength (-1 for null), UTF-8 bytes
+ * </pre>
+ *
+ * A search request frame declares the PDF length; the PDF itself follows in
+ * DATA frames of at most {@link #CHUNK_SIZE} bytes with the same request id,
+ * terminated by an empty DATA frame. The decoder spools the chunks straight into a file so neither
+ * side needs the whole document in memory.
+ *
+ * <p>The client's preface offers compression codecs as a {@link Compression}
+ * bit mask and the server's preface names the one it picked, if any. Frames
+ * of a compressed connection are encoded by its {@link FrameCompressor} and
+ * decoded by its {@link FrameDecompressor}.
+ */
+public final class BinaryCodec {
+    public static final int MAGIC = 0x50444650;
+    public static final byte VERSION = 11;
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    static final byte TYPE_SEARCH_REQUEST = 1;
+    static final byte TYPE_PAGE_RESULT = 2;
+    static final byte TYPE_SEARCH_RESPONSE = 3;
+    static final byte TYPE_DATA = 4;
+    static final byte TYPE_CANCEL = 5;
+    static final byte TYPE_INDEX_SEARCH_REQUEST = 6;
+    static final byte TYPE_INDEX_SEARCH_RESPONSE = 7;
+    static final byte TYPE_JOB_REQUEST = 8;
+    static final byte TYPE_JOB_STATUS = 9;
+
+    private static final int FLAG_STREAMING = 1;
+    private static final int FLAG_JOB = 2;
+    private static final int FLAG_FOUND = 1;
+    private static final int FLAG_GROUPED = 2;
+
+    static final int MAX_STRING_BYTES = 1024 * 1024;
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    static final int MAX_COMPRESSED_CHUNK_SIZE = CHUNK_SIZE + 64;
+
+    private BinaryCodec() {
+    }
+
+    public static void writePreface(DataOutputStream out, int codecs) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(codecs);
+    }
+
+    /**
+     * Reads the preface and returns its codec mask.
+     */
+    public static int readPreface(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new ProtocolException("Not a PDF protocol connection (magic 0x" + Integer.toHexString(magic) + ")");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new ProtocolException("Unsupported protocol version " + version);
+        }
+        return in.readUnsignedByte();
+    }
+
+    public static void writeMessage(DataOutputStream out, int requestId, Object message) throws IOException {
+        writeMessage(out, requestId, message, null);
+    }
+
+    /**
+     * Writes {@code message}, compressing its frames with {@code compressor}
+     * unless it is null.
+     */
+    public static void writeMessage(DataOutputStream out, int requestId, Object message,
+                                    FrameCompressor compressor) throws IOException {
+        if (message instanceof PDFProtocol.SearchRequest) {
+            writeSearchRequest(out, requestId, (PDFProtocol.SearchRequest) message, compressor);
+        } else if (compressor != null) {
+            ByteArrayOutputStream frames = new ByteArrayOutputStream(256);
+            writeMessage(new DataOutputStream(frames), requestId, message, null);
+            compressor.writeFrames(out, frames.toByteArray(), frames.size());
+        } else if (message instanceof PDFProtocol.PageResult) {
+            writePageResult(out, requestId, (PDFProtocol.PageResult) message);
+        } else if (message instanceof PDFProtocol.SearchResponse) {
+            writeSearchResponse(out, requestId, (PDFProtocol.SearchResponse) message);
+        } else if (message instanceof PDFProtocol.CancelRequest) {
+            writeHeader(out, TYPE_CANCEL, requestId, 0);
+        } else if (message instanceof PDFProtocol.IndexSearchRequest) {
+            writeIndexSearchRequest(out, requestId, (PDFProtocol.IndexSearchRequest) message);
+        } else if (message instanceof PDFProtocol.IndexSearchResponse) {
+            writeIndexSearchResponse(out, requestId, (PDFProtocol.IndexSearchResponse) message);
+        } else if (message instanceof PDFProtocol.JobRequest) {
+            writeJobRequest(out, requestId, (PDFProtocol.JobRequest) message);
+        } else if (message instanceof PDFProtocol.JobStatus) {
+            writeJobStatus(out, requestId, (PDFProtocol.JobStatus) message);
+        } else {
+            throw new IllegalArgumentException("Unsupported message type: "
+                + (message != null ? message.getClass().getName() : "null"));
+        }
+    }
+
+    public static PDFProtocol.Envelope readMessage(DataInputStream in) throws IOException {
+        return readMessage(in, null);
+    }
+
+    /**
+     * Reads the next message. Uploaded PDF content is spooled into a new file in
+     * {@code spoolDirectory} (the system temp directory when null); the caller
+     * owns and must delete {@link PDFProtocol.SearchRequest#getPdfFile()}.
+     */
+    public static PDFProtocol.Envelope readMessage(DataInputStream in, Path spoolDirectory) throws IOException {
+        return readMessage(in, spoolDirectory, null);
+    }
+
+    /**
+     * Reads the next message, decompressing its frames with
+     * {@code decompressor}. Compressed frames are refused when it is null.
+     */
+    public static PDFProtocol.Envelope readMessage(DataInputStream in, Path spoolDirectory,
+                                                   FrameDecompressor decompressor) throws IOException {
+        byte type = in.readByte();
+        int requestId = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Invalid frame length " + length);
+        }
+        DataInputStream payload = in;
+        if (isCompressed(type)) {
+            byte[] compressed = new byte[length];
+            in.readFully(compressed);
+            payload = new DataInputStream(new ByteArrayInputStream(decompress(decompressor, compressed, MAX_FRAME_SIZE)));
+            type = uncompressedType(type);
+        }
+        if (type == TYPE_SEARCH_REQUEST) {
+            return new PDFProtocol.Envelope(requestId, readSearchRequest(payload, in, requestId, spoolDirectory, decompressor));
+        }
+        return new PDFProtocol.Envelope(requestId, readControlPayload(payload, type));
+    }
+
+    static boolean isCompressed(byte type) {
+        return (type & FrameCompressor.FLAG_COMPRESSED) != 0;
+    }
+
+    static byte uncompressedType(byte type) {
+        return (byte) (type & ~FrameCompressor.FLAG_COMPRESSED);
+    }
+
+    static byte[] decompress(FrameDecompressor decompressor, byte[] payload, int maxLength) throws IOException {
+        if (decompressor == null) {
+            throw new ProtocolException("Compressed frame on a connection without compression");
+        }
+        return decompressor.decompress(payload, maxLength);
+    }
+
+    static void writeHeader(DataOutputStream out, byte type, int requestId, int length) throws IOException {
+        out.writeByte(type);
+        out.writeInt(requestId);
+        out.writeInt(length);
+    }
+
+    private static void writeSearchRequest(DataOutputStream out, int requestId, PDFProtocol.SearchRequest request,
+                                           FrameCompressor compressor) throws IOException {
+        byte[] searchText = encode(request.getSearchText());
+        byte[] fileName = encode(request.getFileName());
+        byte[][] phrases = encodeAll(request.getSearchPhrases());
+        byte[] documentId = encode(request.getDocumentId());
+        long contentLength = request.getContentLength();
+        if (contentLength > PDFProtocol.MAX_FILE_SIZE) {
+            throw new IOException("File too large: " + contentLength + " bytes");
+        }
+
+        int length = 1 + sizeOf(searchText) + sizeOf(fileName) + 4 + sizeOf(phrases) + 8 + 2 + sizeOf(documentId) + 4;
+        ByteArrayOutputStream frame = compressor != null ? new ByteArrayOutputStream(9 + length) : null;
+        DataOutputStream header = frame != null ? new DataOutputStream(frame) : out;
+        writeHeader(header, TYPE_SEARCH_REQUEST, requestId, length);
+        header.writeByte((request.isStreaming() ? FLAG_STREAMING : 0) | (request.isJob() ? FLAG_JOB : 0));
+        writeBytes(header, searchText);
+        writeBytes(header, fileName);
+        header.writeInt(request.getMatchOptions());
+        writeAll(header, phrases);
+        header.writeLong(contentLength);
+        header.writeByte(request.getPageSegMode());
+        header.writeByte(request.getOcrEngineMode());
+        writeBytes(header, documentId);
+        header.writeInt(request.getMaxMatches());
+        if (frame != null) {
+            compressor.writeFrames(out, frame.toByteArray(), frame.size());
+        }
+
+        if (request.getPdfFile() != null) {
+            writeChunks(out, requestId, request.getPdfFile().toPath(), contentLength, compressor);
+        } else if (request.getPdfContent() != null) {
+            writeChunks(out, requestId, request.getPdfContent(), compressor);
+        }
+    }
+
+    private static void writeChunks(DataOutputStream out, int requestId, byte[] content,
+                                    FrameCompressor compressor) throws IOException {
+        for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, content.length - offset);
+            if (compressor != null) {
+                compressor.writeFrame(out, TYPE_DATA, requestId, content, offset, length);
+            } else {
+                writeHeader(out, TYPE_DATA, requestId, length);
+                out.write(content, offset, length);
+            }
+        }
+        writeHeader(out, TYPE_DATA, requestId, 0);
+    }
+
+    private static void writeChunks(DataOutputStream out, int requestId, Path file, long contentLength,
+                                    FrameCompressor compressor) throws IOException {
+        if (compressor != null) {
+            writeCompressedChunks(out, requestId, file, contentLength, compressor);
+            return;
+        }
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < contentLength) {
+                int length = (int) Math.min(CHUNK_SIZE, contentLength - position);
+                writeHeader(out, TYPE_DATA, requestId, length);
+                long end = position + length;
+                while (position < end) {
+                    long transferred = source.transferTo(position, end - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException("File changed while uploading: " + file);
+                    }
+                    position += transferred;
+                }
+            }
+        }
+        writeHeader(out, TYPE_DATA, requestId, 0);
+    }
+
+    /**
+     * Reads the file a chunk at a time, since a compressed chunk cannot be
+     * transferred straight from the file to the socket.
+     */
+    private static void writeCompressedChunks(DataOutputStream out, int requestId, Path file, long contentLength,
+                                              FrameCompressor compressor) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (InputStream source = Files.newInputStream(file)) {
+            long position = 0;
+            while (position < contentLength) {
+                int length = (int) Math.min(CHUNK_SIZE, contentLength - position);
+                int filled = 0;
+                while (filled < length) {
+                    int read = source.read(chunk, filled, length - filled);
+                    if (read < 0) {
+                        throw new IOException("File changed while uploading: " + file);
+                    }
+                    filled += read;
+                }
+                compressor.writeFrame(out, TYPE_DATA, requestId, chunk, 0, length);
+                position += length;
+            }
+        }
+        writeHeader(out, TYPE_DATA, requestId, 0);
+    }
+
+    /**
+     * Reads the request header from {@code payload} and the upload that
+     * follows it from {@code in}.
+     */
+    private static PDFProtocol.SearchRequest readSearchRequest(DataInputStream payload, DataInputStream in,
+                                                               int requestId, Path spoolDirectory,
+                                                               FrameDecompressor decompressor) throws IOException {
+        RequestHeader header = readRequestHeader(payload);
+        File pdfFile = header.contentLength >= 0
+            ? spoolChunks(in, requestId, spoolDirectory, header.contentLength, decompressor)
+            : null;
+        return header.toRequest(pdfFile);
+    }
+
+    static RequestHeader readRequestHeader(DataInputStream in) throws IOException {
+        int flags = in.readByte();
+        String searchText = readString(in);
+        String fileName = readString(in);
+        int matchOptions = in.readInt();
+        List<String> phrases = readStrings(in);
+        long contentLength = in.readLong();
+        if (contentLength > PDFProtocol.MAX_FILE_SIZE) {
+            throw new ProtocolException("File too large: " + contentLength + " bytes");
+        }
+        int pageSegMode = in.readByte();
+        int ocrEngineMode = in.readByte();
+        String documentId = readString(in);
+        int maxMatches = in.readInt();
+        if (maxMatches < 0) {
+            throw new ProtocolException("Invalid match limit " + maxMatches);
+        }
+        return new RequestHeader(flags, searchText, phrases, matchOptions, fileName, contentLength,
+                                 pageSegMode, ocrEngineMode, documentId, maxMatches);
+    }
+
+    /**
+     * Decodes the payload of any frame type that does not carry upload data.
+     */
+    static Object readControlPayload(DataInputStream in, byte type) throws IOException {
+        switch (type) {
+            case TYPE_PAGE_RESULT:
+                return readPageResult(in);
+            case TYPE_SEARCH_RESPONSE:
+                return readSearchResponse(in);
+            case TYPE_CANCEL:
+                return new PDFProtocol.CancelRequest();
+            case TYPE_INDEX_SEARCH_REQUEST:
+                return readIndexSearchRequest(in);
+            case TYPE_INDEX_SEARCH_RESPONSE:
+                return readIndexSearchResponse(in);
+            case TYPE_JOB_REQUEST:
+                return readJobRequest(in);
+            case TYPE_JOB_STATUS:
+                return readJobStatus(in);
+            default:
+                throw new ProtocolException("Unknown frame type " + type);
+        }
+    }
+
+    static Path createSpoolFile(Path spoolDirectory) throws IOException {
+        return spoolDirectory != null
+            ? Files.createTempFile(spoolDirectory, "pdf_", ".pdf")
+            : Files.createTempFile("pdf_", ".pdf");
+    }
+
+    private static File spoolChunks(DataInputStream in, int requestId, Path spoolDirectory, long contentLength,
+                                    FrameDecompressor decompressor) throws IOException {
+        Path file = createSpoolFile(spoolDirectory);
+        boolean complete = false;
+        try (FileChannel target = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(in);
+            long position = 0;
+            while (true) {
+                byte type = in.readByte();
+                int chunkRequestId = in.readInt();
+                int length = in.readInt();
+                boolean compressed = isCompressed(type);
+                if (uncompressedType(type) != TYPE_DATA || chunkRequestId != requestId) {
+                    throw new ProtocolException("Expected data frame for request " + requestId
+                        + " but got type " + type + " for request " + chunkRequestId);
+                }
+                if (length == 0 && !compressed) {
+                    break;
+                }
+                if (compressed) {
+                    if (length < 0 || length > MAX_COMPRESSED_CHUNK_SIZE) {
+                        throw new ProtocolException("Invalid data frame length " + length);
+                    }
+                    byte[] chunk = new byte[length];
+                    in.readFully(chunk);
+                    ByteBuffer data = ByteBuffer.wrap(decompress(decompressor, chunk,
+                                                                 (int) Math.min(CHUNK_SIZE, contentLength - position)));
+                    while (data.hasRemaining()) {
+                        position += target.write(data, position);
+                    }
+                    continue;
+                }
+                if (length < 0 || length > CHUNK_SIZE || position + length > contentLength) {
+                    throw new ProtocolException("Invalid data frame length " + length);
+                }
+                long end = position + length;
+                while (position < end) {
+                    long transferred = target.transferFrom(source, position, end - position);
+                    if (transferred <= 0) {
+                        throw new EOFException("Connection closed during upload");
+                    }
+                    position += transferred;
+                }
+            }
+            if (position != contentLength) {
+                throw new ProtocolException("Expected " + contentLength + " bytes but received " + position);
+            }
+            complete = true;
+            return file.toFile();
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void writePageResult(DataOutputStream out, int requestId, PDFProtocol.PageResult result) throws IOException {
+        Matches matches = new Matches(result.getPhraseMatches().isEmpty() ? result.getContexts() : null,
+                                      result.getPhraseMatches());
+
+        writeHeader(out, TYPE_PAGE_RESULT, requestId, 1 + 12 + matches.size());
+        out.writeByte(matches.grouped ? FLAG_GROUPED : 0);
+        out.writeInt(result.getPageNumber());
+        out.writeInt(result.getPageCount());
+        out.writeInt(result.getPagesCompleted());
+        matches.write(out);
+    }
+
+    private static PDFProtocol.PageResult readPageResult(DataInputStream in) throws IOException {
+        int flags = in.readByte();
+        int pageNumber = in.readInt();
+        int pageCount = in.readInt();
+        int pagesCompleted = in.readInt();
+        Matches matches = Matches.read(in, (flags & FLAG_GROUPED) != 0);
+        return new PDFProtocol.PageResult(pageNumber, pageCount, pagesCompleted, matches.contexts, matches.phraseMatches);
+    }
+
+    private static void writeSearchResponse(DataOutputStream out, int requestId, PDFProtocol.SearchResponse response) throws IOException {
+        byte[] error = encode(response.getError());
+        byte[] documentId = encode(response.getDocumentId());
+        Matches matches = new Matches(response.getPhraseMatches().isEmpty() ? response.getContexts() : null,
+                                      response.getPhraseMatches());
+
+        writeHeader(out, TYPE_SEARCH_RESPONSE, requestId,
+                    1 + sizeOf(error) + 24 + sizeOf(documentId) + matches.size());
+        out.writeByte((response.isFound() ? FLAG_FOUND : 0) | (matches.grouped ? FLAG_GROUPED : 0));
+        writeBytes(out, error);
+        out.writeInt(response.getTotalMatches());
+        out.writeInt(response.getPagesSearched());
+        out.writeLong(response.getQueueWaitMillis());
+        out.writeLong(response.getRetryAfterMillis());
+        writeBytes(out, documentId);
+        matches.write(out);
+    }
+
+    private static PDFProtocol.SearchResponse readSearchResponse(DataInputStream in) throws IOException {
+        int flags = in.readByte();
+        String error = readString(in);
+        int totalMatches = in.readInt();
+        int pagesSearched = in.readInt();
+        long queueWaitMillis = in.readLong();
+        long retryAfterMillis = in.readLong();
+        String documentId = readString(in);
+        Matches matches = Matches.read(in, (flags & FLAG_GROUPED) != 0);
+        return new PDFProtocol.SearchResponse((flags & FLAG_FOUND) != 0, matches.contexts, error, totalMatches,
+                                              pagesSearched, queueWaitMillis, retryAfterMillis, documentId,
+                                              matches.phraseMatches);
+    }
+
+    private static void writeIndexSearchRequest(DataOutputStream out, int requestId,
+                                                PDFProtocol.IndexSearchRequest request) throws IOException {
+        byte[] searchText = encode(request.getSearchText());
+        byte[][] documentIds = encodeAll(request.getDocumentIds());
+
+        writeHeader(out, TYPE_INDEX_SEARCH_REQUEST, requestId, sizeOf(searchText) + 4 + sizeOf(documentIds));
+        writeBytes(out, searchText);
+        out.writeInt(request.getMaxDocuments());
+        writeAll(out, documentIds);
+    }
+
+    private static PDFProtocol.IndexSearchRequest readIndexSearchRequest(DataInputStream in) throws IOException {
+        String searchText = readString(in);
+        int maxDocuments = in.readInt();
+        return new PDFProtocol.IndexSearchRequest(readStrings(in), searchText, maxDocuments);
+    }
+
+    private static void writeIndexSearchResponse(DataOutputStream out, int requestId,
+                                                 PDFProtocol.IndexSearchResponse response) throws IOException {
+        byte[] error = encode(response.getError());
+        List<PDFProtocol.DocumentMatch> matches = response.getMatches();
+        byte[][] documentIds = new byte[matches.size()][];
+        byte[][] fileNames = new byte[matches.size()][];
+        byte[][][] contexts = new byte[matches.size()][][];
+        int length = sizeOf(error) + 4 + 4;
+        for (int i = 0; i < matches.size(); i++) {
+            PDFProtocol.DocumentMatch match = matches.get(i);
+            documentIds[i] = encode(match.getDocumentId());
+            fileNames[i] = encode(match.getFileName());
+            contexts[i] = encodeAll(match.getContexts());
+            length += sizeOf(documentIds[i]) + sizeOf(fileNames[i]) + 4 + sizeOf(contexts[i]) + 4 * contexts[i].length;
+        }
+
+        writeHeader(out, TYPE_INDEX_SEARCH_RESPONSE, requestId, length);
+        writeBytes(out, error);
+        out.writeInt(response.getTotalMatches());
+        out.writeInt(matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            writeBytes(out, documentIds[i]);
+            writeBytes(out, fileNames[i]);
+            out.writeInt(matches.get(i).getMatchCount());
+            writeAll(out, contexts[i]);
+            for (int page : matches.get(i).getContextPages()) {
+                out.writeInt(page);
+            }
+        }
+    }
+
+    private static PDFProtocol.IndexSearchResponse readIndexSearchResponse(DataInputStream in) throws IOException {
+        String error = readString(in);
+        int totalMatches = in.readInt();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_FRAME_SIZE / 16) {
+            throw new ProtocolException("Invalid match count " + count);
+        }
+        List<PDFProtocol.DocumentMatch> matches = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            String documentId = readString(in);
+            String fileName = readString(in);
+            int matchCount = in.readInt();
+            List<String> contexts = readStrings(in);
+            List<Integer> contextPages = new ArrayList<>(contexts.size());
+            for (int j = 0; j < contexts.size(); j++) {
+                contextPages.add(in.readInt());
+            }
+            matches.add(new PDFProtocol.DocumentMatch(documentId, fileName, matchCount, contexts, contextPages));
+        }
+        return new PDFProtocol.IndexSearchResponse(matches, totalMatches, error);
+    }
+
+    private static void writeJobRequest(DataOutputStream out, int requestId,
+                                        PDFProtocol.JobRequest request) throws IOException {
+        byte[] jobId = encode(request.getJobId());
+
+        writeHeader(out, TYPE_JOB_REQUEST, requestId, sizeOf(jobId) + 1);
+        writeBytes(out, jobId);
+        out.writeByte(request.getAction().ordinal());
+    }
+
+    private static PDFProtocol.JobRequest readJobRequest(DataInputStream in) throws IOException {
+        String jobId = readString(in);
+        return new PDFProtocol.JobRequest(jobId, readEnum(in, PDFProtocol.JobRequest.Action.values()));
+    }
+
+    /**
+     * The result of a done job is embedded as the payload of a search
+     * response frame.
+     */
+    private static void writeJobStatus(DataOutputStream out, int requestId,
+                                       PDFProtocol.JobStatus status) throws IOException {
+        byte[] jobId = encode(status.getJobId());
+        byte[] error = encode(status.getError());
+        byte[] result = null;
+        if (status.getResult() != null) {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(256);
+            writeSearchResponse(new DataOutputStream(frame), requestId, status.getResult());
+            result = Arrays.copyOfRange(frame.toByteArray(), 9, frame.size());
+        }
+
+        writeHeader(out, TYPE_JOB_STATUS, requestId, sizeOf(jobId) + 1 + 8 + sizeOf(error) + 8 + sizeOf(result));
+        writeBytes(out, jobId);
+        out.writeByte(status.getState().ordinal());
+        out.writeInt(status.getPagesCompleted());
+        out.writeInt(status.getPageCount());
+        writeBytes(out, error);
+        out.writeLong(status.getRetryAfterMillis());
+        writeBytes(out, result);
+    }
+
+    private static PDFProtocol.JobStatus readJobStatus(DataInputStream in) throws IOException {
+        String jobId = readString(in);
+        PDFProtocol.JobStatus.State state = readEnum(in, PDFProtocol.JobStatus.State.values());
+        int pagesCompleted = in.readInt();
+        int pageCount = in.readInt();
+        String error = readString(in);
+        long retryAfterMillis = in.readLong();
+        byte[] result = readBytes(in, MAX_FRAME_SIZE);
+        PDFProtocol.SearchResponse response = result != null
+            ? readSearchResponse(new DataInputStream(new ByteArrayInputStream(result)))
+            : null;
+        return new PDFProtocol.JobStatus(jobId, state, pagesCompleted, pageCount, error, retryAfterMillis, response);
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= values.length) {
+            throw new ProtocolException("Invalid " + values[0].getDeclaringClass().getSimpleName() + " " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    private static byte[] encode(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[][] encodeAll(List<String> values) {
+        byte[][] encoded = new byte[values.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = encode(values.get(i));
+        }
+        return encoded;
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + (bytes != null ? bytes.length : 0);
+    }
+
+    private static int sizeOf(byte[][] values) {
+        int size = 4;
+        for (byte[] value : values) {
+            size += sizeOf(value);
+        }
+        return size;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeAll(DataOutputStream out, byte[][] values) throws IOException {
+        out.writeInt(values.length);
+        for (byte[] value : values) {
+            writeBytes(out, value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > maxLength) {
+            throw new ProtocolException("Invalid field length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in, MAX_STRING_BYTES);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_FRAME_SIZE / 4) {
+            throw new ProtocolException("Invalid list length " + count);
+        }
+        List<String> values = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    /**
+     * The contexts of a result, sent either as one flat list or, when the
+     * result is grouped by phrase, as the groups alone. The flat list of a
+     * grouped result is their concatenation and is rebuilt when reading.
+     */
+    private static final class Matches {
+        final boolean grouped;
+        final List<String> contexts;
+        final List<PDFProtocol.PhraseMatches> phraseMatches;
+        private StringList flat;
+        private byte[][] encodedPhrases;
+        private StringList[] groups;
+
+        Matches(List<String> contexts, List<PDFProtocol.PhraseMatches> phraseMatches) {
+            this.grouped = !phraseMatches.isEmpty();
+            this.contexts = contexts;
+            this.phraseMatches = phraseMatches;
+            if (grouped) {
+                encodedPhrases = new byte[phraseMatches.size()][];
+                groups = new StringList[phraseMatches.size()];
+                for (int i = 0; i < encodedPhrases.length; i++) {
+                    encodedPhrases[i] = encode(phraseMatches.get(i).getPhrase());
+                    groups[i] = new StringList(phraseMatches.get(i).getContexts());
+                }
+            } else {
+                flat = new StringList(contexts);
+            }
+        }
+
+        private Matches(List<String> contexts, List<PDFProtocol.PhraseMatches> phraseMatches, boolean grouped) {
+            this.grouped = grouped;
+            this.contexts = contexts;
+            this.phraseMatches = phraseMatches;
+        }
+
+        int size() {
+            if (!grouped) {
+                return flat.size();
+            }
+            int size = 4;
+            for (int i = 0; i < encodedPhrases.length; i++) {
+                size += sizeOf(encodedPhrases[i]) + 4 + groups[i].size();
+            }
+            return size;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            if (!grouped) {
+                flat.write(out);
+                return;
+            }
+            out.writeInt(encodedPhrases.length);
+            for (int i = 0; i < encodedPhrases.length; i++) {
+                writeBytes(out, encodedPhrases[i]);
+                out.writeInt(phraseMatches.get(i).getMatchCount());
+                groups[i].write(out);
+            }
+        }
+
+        static Matches read(DataInputStream in, boolean grouped) throws IOException {
+            if (!grouped) {
+                return new Matches(readStrings(in), new ArrayList<>(), false);
+            }
+            int count = in.readInt();
+            if (count < 0 || count > MAX_FRAME_SIZE / 12) {
+                throw new ProtocolException("Invalid phrase count " + count);
+            }
+            List<String> contexts = new ArrayList<>();
+            List<PDFProtocol.PhraseMatches> phraseMatches = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                String phrase = readString(in);
+                int matchCount = in.readInt();
+                List<String> phraseContexts = readStrings(in);
+                contexts.addAll(phraseContexts);
+                phraseMatches.add(new PDFProtocol.PhraseMatches(phrase, matchCount, phraseContexts));
+            }
+            return new Matches(contexts, phraseMatches, true);
+        }
+    }
+
+    /**
+     * A list of strings ready to be sized and written. {@link ContextSpans}
+     * are encoded straight from their source text; other lists are encoded
+     * once up front.
+     */
+    private static final class StringList {
+        private final ContextSpans spans;
+        private final byte[][] encoded;
+        private final int size;
+
+        StringList(List<String> values) {
+            if (values instanceof ContextSpans) {
+                spans = (ContextSpans) values;
+                encoded = null;
+                int total = 4;
+                for (int i = 0; i < spans.size(); i++) {
+                    total += 4 + spans.utf8Length(i);
+                }
+                size = total;
+            } else {
+                spans = null;
+                encoded = encodeAll(values);
+                size = sizeOf(encoded);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            if (encoded != null) {
+                writeAll(out, encoded);
+                return;
+            }
+            out.writeInt(spans.size());
+            byte[] scratch = new byte[spans.maxUtf8Length()];
+            for (int i = 0; i < spans.size(); i++) {
+                spans.writeUtf8(i, out, scratch);
+            }
+        }
+    }
+
+    static final class RequestHeader {
+        final int flags;
+        final String searchText;
+        final List<String> phrases;
+        final int matchOptions;
+        final String fileName;
+        final long contentLength;
+        final int pageSegMode;
+        final int ocrEngineMode;
+        final String documentId;
+        final int maxMatches;
+
+        RequestHeader(int flags, String searchText, List<String> phrases, int matchOptions,
+                      String fileName, long contentLength, int pageSegMode, int ocrEngineMode,
+                      String documentId, int maxMatches) {
+            this.flags = flags;
+            this.searchText = searchText;
+            this.phrases = phrases;
+            this.matchOptions = matchOptions;
+            this.fileName = fileName;
+            this.contentLength = contentLength;
+            this.pageSegMode = pageSegMode;
+            this.ocrEngineMode = ocrEngineMode;
+            this.documentId = documentId;
+            this.maxMatches = maxMatches;
+        }
+
+        PDFProtocol.SearchRequest toRequest(File pdfFile) {
+            boolean streaming = (flags & FLAG_STREAMING) != 0;
+            PDFProtocol.SearchRequest request = phrases.size() <= 1 && matchOptions == 0
+                ? new PDFProtocol.SearchRequest(pdfFile, searchText, fileName, streaming)
+                : new PDFProtocol.SearchRequest(pdfFile, phrases, matchOptions, fileName, streaming);
+            if (pageSegMode != PDFProtocol.DEFAULT_OCR_MODE || ocrEngineMode != PDFProtocol.DEFAULT_OCR_MODE) {
+                request = request.withOcrModes(pageSegMode, ocrEngineMode);
+            }
+            if (maxMatches > 0) {
+                request = request.withMaxMatches(maxMatches);
+            }
+            if ((flags & FLAG_JOB) != 0) {
+                request = request.asJob();
+            }
+            return documentId != null && pdfFile == null ? request.asReference(documentId) : request;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.pdfprocessor.shared;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Codecs that can compress frame payloads. In the connection preface the
+ * client offers the codecs it has, as a bit mask, and the server answers with
+ * the one it prefers, or none.
+ */
+public enum Compression {
+    SNAPPY(1),
+    DEFLATE(2);
+
+    public static final String PROPERTY = "pdfprocessor.compression";
+    public static final String DEFAULT = "snappy,deflate";
+
+    private static final boolean SNAPPY_AVAILABLE = isOnClasspath("org.iq80.snappy.Snappy");
+
+    private final int bit;
+
+    Compression(int bit) {
+        this.bit = bit;
+    }
+
+    public int getBit() {
+        return bit;
+    }
+
+    public boolean isAvailable() {
+        return this != SNAPPY || SNAPPY_AVAILABLE;
+    }
+
+    /**
+     * Parses a comma-separated list of codec names in order of preference;
+     * "none" stands for the empty list. Codecs missing at runtime are left
+     * out.
+     */
+    public static List<Compression> parse(String names) {
+        if (names.trim().equalsIgnoreCase("none")) {
+            return Collections.emptyList();
+        }
+        List<Compression> codecs = new ArrayList<>();
+        for (String name : names.split(",")) {
+            Compression codec;
+            try {
+                codec = valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown compression '" + name.trim() + "'");
+            }
+            if (codec.isAvailable() && !codecs.contains(codec)) {
+                codecs.add(codec);
+            }
+        }
+        return codecs;
+    }
+
+    /**
+     * The codecs a client offers, from -Dpdfprocessor.compression. Clients
+     * offer every available codec by default.
+     */
+    public static List<Compression> getClientPreference() {
+        return parse(System.getProperty(PROPERTY, DEFAULT));
+    }
+
+    public static int toMask(List<Compression> codecs) {
+        int mask = 0;
+        for (Compression codec : codecs) {
+            mask |= codec.bit;
+        }
+        return mask;
+    }
+
+    /**
+     * Picks the first codec of {@code preference} that is in {@code offered},
+     * or null to send frames uncompressed.
+     */
+    public static Compression choose(int offered, List<Compression> preference) {
+        for (Compression codec : preference) {
+            if ((offered & codec.bit) != 0) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isOnClasspath(String className) {
+        try {
+            Class.forName(className, false, Compression.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
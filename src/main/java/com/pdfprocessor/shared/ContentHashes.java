@@ -0,0 +1,102 @@
+package com.pdfprocessor.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SHA-256 content hashes of PDFs. The server uses the hash as a document's id,
+ * so a client that knows it can ask for a document without uploading it.
+ * Hashes of files are remembered by path, size and modification time, so an
+ * unchanged file is only read once per process, or not at all when a caller
+ * {@link #remember remembers} a hash it kept from an earlier run.
+ */
+public final class ContentHashes {
+    private static final int MAX_CACHED_FILES = 4096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<String, String> fileHashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    private ContentHashes() {
+    }
+
+    public static String of(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    public static String of(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        }
+    }
+
+    /**
+     * Returns the hash of {@code file}, reading it only if it changed since
+     * its hash was last computed.
+     */
+    public static String ofFile(File file) throws IOException {
+        String key = fileKey(file);
+        synchronized (fileHashes) {
+            String hash = fileHashes.get(key);
+            if (hash != null) {
+                return hash;
+            }
+        }
+        String hash = of(file.toPath());
+        synchronized (fileHashes) {
+            fileHashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Records {@code hash} as the hash of {@code file} as it is now, so
+     * {@link #ofFile} returns it without reading the file.
+     */
+    public static void remember(File file, String hash) {
+        String key = fileKey(file);
+        synchronized (fileHashes) {
+            fileHashes.put(key, hash);
+        }
+    }
+
+    private static String fileKey(File file) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.pdfprocessor.shared;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Match contexts kept as offsets into the searched text. Nothing is copied
+ * while searching; each context is built only when it is read or written to
+ * the wire, and the binary codec encodes it straight from the source text
+ * without creating a String at all.
+ *
+ * A context is the match plus up to {@code contextSize} characters on either
+ * side, with line breaks turned into spaces, optionally lower-cased, and
+ * wrapped in "...".
+ */
+public final class ContextSpans extends AbstractList<String> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String ELLIPSIS = "...";
+
+    private final String text;
+    private final int contextSize;
+    private final boolean lowerCase;
+    private int[] spans = new int[8];
+    private int size;
+
+    public ContextSpans(String text, int contextSize, boolean lowerCase) {
+        this.text = text;
+        this.contextSize = contextSize;
+        this.lowerCase = lowerCase;
+    }
+
+    public void add(int matchStart, int matchEnd) {
+        if (size * 2 == spans.length) {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[size * 2] = Math.max(0, matchStart - contextSize);
+        spans[size * 2 + 1] = Math.min(text.length(), matchEnd + contextSize);
+        size++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String get(int index) {
+        checkIndex(index);
+        int from = spans[index * 2];
+        int to = spans[index * 2 + 1];
+        char[] context = new char[to - from + 2 * ELLIPSIS.length()];
+        ELLIPSIS.getChars(0, ELLIPSIS.length(), context, 0);
+        for (int i = from; i < to; i++) {
+            context[ELLIPSIS.length() + i - from] = fold(text.charAt(i));
+        }
+        ELLIPSIS.getChars(0, ELLIPSIS.length(), context, context.length - ELLIPSIS.length());
+        return new String(context);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private char fold(char c) {
+        if (c == '\r' || c == '\n') {
+            return ' ';
+        }
+        return lowerCase ? Character.toLowerCase(c) : c;
+    }
+
+    /**
+     * Length of a context in UTF-8, as {@link String#getBytes} would encode it.
+     */
+    int utf8Length(int index) {
+        checkIndex(index);
+        int length = 2 * ELLIPSIS.length();
+        int to = spans[index * 2 + 1];
+        for (int i = spans[index * 2]; i < to; i++) {
+            char c = fold(text.charAt(i));
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes a context as UTF-8 without materializing it. {@code scratch}
+     * must hold at least {@link #utf8Length(int)} bytes.
+     */
+    void writeUtf8(int index, DataOutputStream out, byte[] scratch) throws IOException {
+        checkIndex(index);
+        int n = 0;
+        for (int i = 0; i < ELLIPSIS.length(); i++) {
+            scratch[n++] = (byte) ELLIPSIS.charAt(i);
+        }
+        int to = spans[index * 2 + 1];
+        for (int i = spans[index * 2]; i < to; i++) {
+            char c = fold(text.charAt(i));
+            if (c < 0x80) {
+                scratch[n++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[n++] = (byte) (0xC0 | (c >> 6));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                scratch[n++] = (byte) (0xF0 | (codePoint >> 18));
+                scratch[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                scratch[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                scratch[n++] = '?';
+            } else {
+                scratch[n++] = (byte) (0xE0 | (c >> 12));
+                scratch[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        for (int i = 0; i < ELLIPSIS.length(); i++) {
+            scratch[n++] = (byte) ELLIPSIS.charAt(i);
+        }
+        out.writeInt(n);
+        out.write(scratch, 0, n);
+    }
+
+    /**
+     * Upper bound of {@link #utf8Length(int)} over all contexts.
+     */
+    int maxUtf8Length() {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, spans[i * 2 + 1] - spans[i * 2]);
+        }
+        return 3 * max + 2 * ELLIPSIS.length();
+    }
+
+    /**
+     * Java serialization sends plain strings, so the receiver needs neither
+     * this class's state nor the whole source text.
+     */
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+}
@@ -0,0 +1,165 @@
+package com.pdfprocessor.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.zip.Deflater;
+
+import org.iq80.snappy.CorruptionException;
+import org.iq80.snappy.Snappy;
+
+/**
+ * Compresses the frames one side of a connection sends, with the codec
+ * negotiated in the preface. Every frame is compressed on its own, so uploads
+ * and long result lists are compressed chunk by chunk as they are written.
+ * Any thread may write; frames are compressed one at a time. Received frames
+ * are expanded by a {@link FrameDecompressor} of their own.
+ *
+ * <pre>
+ * compressed frame: byte type | 0x80, int requestId, int payloadLength,
+ *                   int uncompressedLength, compressed payload
+ * </pre>
+ *
+ * Small payloads, and payloads that would not shrink by at least an eighth,
+ * are sent as they are. An upload chunk that does not compress (a PDF of
+ * already compressed images, say) also skips the next few chunks, so such
+ * uploads cost little CPU.
+ */
+public final class FrameCompressor {
+    static final byte FLAG_COMPRESSED = (byte) 0x80;
+    private static final int MIN_COMPRESSED_SIZE = 256;
+    private static final int SKIPPED_DATA_FRAMES = 8;
+
+    /**
+     * Sees every payload the compressor tried to compress.
+     */
+    public interface Listener {
+        /**
+         * {@code sentBytes} equals {@code bytes} when the payload did not
+         * compress and was sent as it was.
+         */
+        void onCompressed(int bytes, int sentBytes, long nanos);
+    }
+
+    private final Compression codec;
+    private final Listener listener;
+    private final Deflater deflater;
+    private byte[] buffer = new byte[0];
+    private int dataFramesToSkip;
+
+    public FrameCompressor(Compression codec, Listener listener) {
+        this.codec = codec;
+        this.listener = listener;
+        this.deflater = codec == Compression.DEFLATE ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    public Compression getCodec() {
+        return codec;
+    }
+
+    /**
+     * Writes one frame, compressed if that makes it noticeably smaller.
+     */
+    synchronized void writeFrame(DataOutputStream out, byte type, int requestId,
+                                 byte[] payload, int offset, int length) throws IOException {
+        boolean attempt = length >= MIN_COMPRESSED_SIZE;
+        if (attempt && type == BinaryCodec.TYPE_DATA && dataFramesToSkip > 0) {
+            dataFramesToSkip--;
+            attempt = false;
+        }
+        if (attempt) {
+            long start = System.nanoTime();
+            int compressed = compress(payload, offset, length, length - length / 8 - 4);
+            long nanos = System.nanoTime() - start;
+            if (compressed >= 0) {
+                BinaryCodec.writeHeader(out, (byte) (type | FLAG_COMPRESSED), requestId, 4 + compressed);
+                out.writeInt(length);
+                out.write(buffer, 0, compressed);
+                notifyCompressed(length, 4 + compressed, nanos);
+                return;
+            }
+            notifyCompressed(length, length, nanos);
+            if (type == BinaryCodec.TYPE_DATA) {
+                dataFramesToSkip = SKIPPED_DATA_FRAMES;
+            }
+        }
+        BinaryCodec.writeHeader(out, type, requestId, length);
+        out.write(payload, offset, length);
+    }
+
+    /**
+     * Writes the frames encoded in {@code frames}, compressing each one.
+     */
+    void writeFrames(DataOutputStream out, byte[] frames, int length) throws IOException {
+        DataInputStream headers = new DataInputStream(new ByteArrayInputStream(frames, 0, length));
+        int position = 0;
+        while (position < length) {
+            byte type = headers.readByte();
+            int requestId = headers.readInt();
+            int payloadLength = headers.readInt();
+            writeFrame(out, type, requestId, frames, position + 9, payloadLength);
+            position += 9 + payloadLength;
+            headers.skipBytes(payloadLength);
+        }
+    }
+
+    /**
+     * Compresses into {@link #buffer} and returns the compressed size, or -1
+     * if it would exceed {@code maxCompressed}.
+     */
+    private int compress(byte[] payload, int offset, int length, int maxCompressed) {
+        if (codec == Compression.SNAPPY) {
+            ensureBuffer(SnappyCodec.maxCompressedLength(length));
+            int compressed = SnappyCodec.compress(payload, offset, length, buffer);
+            return compressed <= maxCompressed ? compressed : -1;
+        }
+        ensureBuffer(maxCompressed + 1);
+        deflater.reset();
+        deflater.setInput(payload, offset, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished() && compressed <= maxCompressed) {
+            compressed += deflater.deflate(buffer, compressed, buffer.length - compressed);
+        }
+        return deflater.finished() && compressed <= maxCompressed ? compressed : -1;
+    }
+
+    private void ensureBuffer(int size) {
+        if (buffer.length < size) {
+            buffer = new byte[size];
+        }
+    }
+
+    private void notifyCompressed(int bytes, int sentBytes, long nanos) {
+        if (listener != null) {
+            listener.onCompressed(bytes, sentBytes, nanos);
+        }
+    }
+
+    /**
+     * Keeps the Snappy classes from loading unless Snappy was negotiated.
+     */
+    static final class SnappyCodec {
+        static int maxCompressedLength(int length) {
+            return Snappy.maxCompressedLength(length);
+        }
+
+        static int compress(byte[] input, int offset, int length, byte[] output) {
+            return Snappy.compress(input, offset, length, output, 0);
+        }
+
+        static void uncompress(byte[] input, int offset, int length, byte[] output) throws ProtocolException {
+            try {
+                if (Snappy.getUncompressedLength(input, offset) != output.length) {
+                    throw new ProtocolException("Compressed frame does not match its declared length "
+                                                + output.length);
+                }
+                Snappy.uncompress(input, offset, length, output, 0);
+            } catch (CorruptionException | IndexOutOfBoundsException e) {
+                throw new ProtocolException("Corrupt compressed frame: " + e.getMessage());
+            }
+        }
+    }
+}
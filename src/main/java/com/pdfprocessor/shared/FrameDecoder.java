@@ -0,0 +1,423 @@
+package com.pdfprocessor.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Incremental, non-blocking decoder for the client-to-server direction of the
+ * binary protocol. Bytes are fed in whatever pieces the network delivers;
+ * complete messages are passed to the listener. Upload chunks are written
+ * from the input buffer straight into a file allocated from the spool;
+ * compressed chunks are decompressed first.
+ * <p>
+ * The file for an upload is allocated on a separate executor, since that
+ * touches the file system. Until it is ready the decoder holds back the
+ * rest of its input and {@link #isAllocating()} is true; the listener is
+ * told when to {@link #resume()}.
+ */
+public class FrameDecoder {
+    private static final int PREFACE_SIZE = 6;
+    private static final int HEADER_SIZE = 9;
+    private static final int MAX_REQUEST_FRAME_SIZE = 4 * BinaryCodec.MAX_STRING_BYTES + 64;
+
+    public interface Listener {
+        /**
+         * Called with the codec mask the client offers. The listener replies
+         * with its own preface and passes the decompressor for the chosen
+         * codec, if any, to {@link #setDecompressor}.
+         */
+        void onPreface(int offeredCodecs) throws IOException;
+
+        void onMessage(PDFProtocol.Envelope envelope) throws IOException;
+
+        /**
+         * Called when an upload has been spooled, before its request is
+         * delivered. {@code nanos} runs from the request header to the last
+         * data frame.
+         */
+        default void onUploadComplete(long bytes, long nanos) {
+        }
+
+        /**
+         * Called when the spool refuses an upload. Its data frames are
+         * read and discarded, and its request is never delivered. Throwing
+         * closes the connection.
+         */
+        default void onUploadRejected(int requestId, IOException reason) throws IOException {
+            throw reason;
+        }
+
+        /**
+         * Called on the allocating thread once an upload's file is ready or
+         * could not be allocated. The listener arranges for {@link #resume()}
+         * to be called on the thread that feeds the decoder.
+         */
+        void onUploadAllocated();
+    }
+
+    private enum State { PREFACE, HEADER, PAYLOAD, DATA, ALLOCATING }
+
+    private final Listener listener;
+    private final Spool spool;
+    private final Executor allocator;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private FrameDecompressor decompressor;
+
+    private State state = State.PREFACE;
+    private byte frameType;
+    private int frameRequestId;
+    private byte[] payload;
+    private int payloadFilled;
+
+    private BinaryCodec.RequestHeader upload;
+    private int uploadRequestId;
+    private Path uploadFile;
+    private FileChannel uploadChannel;
+    private long uploadPosition;
+    private long uploadStartNanos;
+    private int dataRemaining;
+
+    private ByteBuffer held;
+    private Path allocatedFile;
+    private FileChannel allocatedChannel;
+    private IOException allocationError;
+    private boolean closed;
+
+    /**
+     * @param spool where uploads are stored, or null for files in the system
+     *              temp directory that the receiver deletes itself
+     * @param allocator runs the allocation of upload files
+     */
+    public FrameDecoder(Listener listener, Spool spool, Executor allocator) {
+        this.listener = listener;
+        this.spool = spool;
+        this.allocator = allocator;
+        this.header.limit(PREFACE_SIZE);
+    }
+
+    public void setDecompressor(FrameDecompressor decompressor) {
+        this.decompressor = decompressor;
+    }
+
+    /**
+     * Consumes all readable bytes of {@code input}. Bytes that arrive while
+     * an upload's file is being allocated are copied and decoded on
+     * {@link #resume()}.
+     */
+    public void feed(ByteBuffer input) throws IOException {
+        while (input.hasRemaining()) {
+            if (state == State.ALLOCATING) {
+                hold(input);
+                return;
+            }
+            switch (state) {
+                case PREFACE:
+                    if (fill(header, input)) {
+                        header.flip();
+                        int magic = header.getInt();
+                        byte version = header.get();
+                        int codecs = header.get() & 0xFF;
+                        if (magic != BinaryCodec.MAGIC) {
+                            throw new ProtocolException("Not a PDF protocol connection (magic 0x" + Integer.toHexString(magic) + ")");
+                        }
+                        if (version != BinaryCodec.VERSION) {
+                            throw new ProtocolException("Unsupported protocol version " + version);
+                        }
+                        header.clear();
+                        state = State.HEADER;
+                        listener.onPreface(codecs);
+                    }
+                    break;
+                case HEADER:
+                    if (fill(header, input)) {
+                        header.flip();
+                        onHeader(header.get(), header.getInt(), header.getInt());
+                        header.clear();
+                    }
+                    break;
+                case PAYLOAD:
+                    int count = Math.min(input.remaining(), payload.length - payloadFilled);
+                    input.get(payload, payloadFilled, count);
+                    payloadFilled += count;
+                    if (payloadFilled == payload.length) {
+                        onPayload();
+                    }
+                    break;
+                case DATA:
+                    writeData(input);
+                    break;
+                default:
+                    throw new IllegalStateException(state.name());
+            }
+        }
+    }
+
+    /**
+     * Whether the decoder waits for an upload's file. The caller should stop
+     * reading until the listener is told the allocation is done.
+     */
+    public boolean isAllocating() {
+        return state == State.ALLOCATING;
+    }
+
+    /**
+     * Continues after {@link Listener#onUploadAllocated()}: opens the upload,
+     * or rejects it, and decodes the input held back in the meantime.
+     */
+    public void resume() throws IOException {
+        if (state != State.ALLOCATING) {
+            return;
+        }
+        IOException error;
+        synchronized (this) {
+            uploadFile = allocatedFile;
+            uploadChannel = allocatedChannel;
+            error = allocationError;
+            allocatedFile = null;
+            allocatedChannel = null;
+            allocationError = null;
+        }
+        state = State.HEADER;
+        if (error instanceof Spool.FullException || error instanceof Spool.TooLargeException) {
+            listener.onUploadRejected(uploadRequestId, error);
+        } else if (error != null) {
+            throw error;
+        }
+        ByteBuffer input = held;
+        held = null;
+        if (input != null) {
+            feed(input);
+        }
+    }
+
+    private void hold(ByteBuffer input) {
+        ByteBuffer buffer = ByteBuffer.allocate((held != null ? held.remaining() : 0) + input.remaining());
+        if (held != null) {
+            buffer.put(held);
+        }
+        buffer.put(input);
+        buffer.flip();
+        held = buffer;
+    }
+
+    private boolean fill(ByteBuffer target, ByteBuffer input) {
+        while (target.hasRemaining() && input.hasRemaining()) {
+            target.put(input.get());
+        }
+        return !target.hasRemaining();
+    }
+
+    private void onHeader(byte type, int requestId, int length) throws IOException {
+        if (upload != null) {
+            boolean compressed = BinaryCodec.isCompressed(type);
+            if (BinaryCodec.uncompressedType(type) != BinaryCodec.TYPE_DATA || requestId != uploadRequestId) {
+                throw new ProtocolException("Expected data frame for request " + uploadRequestId
+                    + " but got type " + type + " for request " + requestId);
+            }
+            if (length == 0 && !compressed) {
+                finishUpload();
+                return;
+            }
+            if (compressed) {
+                if (length < 0 || length > BinaryCodec.MAX_COMPRESSED_CHUNK_SIZE) {
+                    throw new ProtocolException("Invalid data frame length " + length);
+                }
+                readPayload(type, requestId, length);
+                return;
+            }
+            if (length < 0 || length > BinaryCodec.CHUNK_SIZE || uploadPosition + length > upload.contentLength) {
+                throw new ProtocolException("Invalid data frame length " + length);
+            }
+            dataRemaining = length;
+            state = State.DATA;
+            return;
+        }
+
+        if (length < 0 || length > MAX_REQUEST_FRAME_SIZE) {
+            throw new ProtocolException("Invalid frame length " + length);
+        }
+        readPayload(type, requestId, length);
+    }
+
+    private void readPayload(byte type, int requestId, int length) throws IOException {
+        frameType = type;
+        frameRequestId = requestId;
+        payload = new byte[length];
+        payloadFilled = 0;
+        state = State.PAYLOAD;
+        if (length == 0) {
+            onPayload();
+        }
+    }
+
+    private void onPayload() throws IOException {
+        byte[] frame = payload;
+        byte type = frameType;
+        payload = null;
+        state = State.HEADER;
+        if (BinaryCodec.isCompressed(type)) {
+            type = BinaryCodec.uncompressedType(type);
+            if (upload != null) {
+                writeData(BinaryCodec.decompress(decompressor, frame,
+                                                 (int) Math.min(BinaryCodec.CHUNK_SIZE, upload.contentLength - uploadPosition)));
+                return;
+            }
+            frame = BinaryCodec.decompress(decompressor, frame, MAX_REQUEST_FRAME_SIZE);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+
+        if (type != BinaryCodec.TYPE_SEARCH_REQUEST) {
+            listener.onMessage(new PDFProtocol.Envelope(frameRequestId, BinaryCodec.readControlPayload(in, type)));
+            return;
+        }
+
+        BinaryCodec.RequestHeader request = BinaryCodec.readRequestHeader(in);
+        if (request.contentLength < 0) {
+            listener.onMessage(new PDFProtocol.Envelope(frameRequestId, request.toRequest(null)));
+            return;
+        }
+        upload = request;
+        uploadRequestId = frameRequestId;
+        uploadPosition = 0;
+        uploadStartNanos = System.nanoTime();
+        state = State.ALLOCATING;
+        long length = request.contentLength;
+        try {
+            allocator.execute(() -> allocate(length));
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Upload allocator is shut down", e);
+        }
+    }
+
+    private void allocate(long length) {
+        Path file = null;
+        FileChannel channel = null;
+        IOException error = null;
+        try {
+            file = spool != null ? spool.allocate(length) : BinaryCodec.createSpoolFile(null);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            error = e instanceof IOException ? (IOException) e : new IOException(e);
+            discard(file);
+            file = null;
+        }
+        boolean abandoned;
+        synchronized (this) {
+            abandoned = closed;
+            if (!abandoned) {
+                allocatedFile = file;
+                allocatedChannel = channel;
+                allocationError = error;
+            }
+        }
+        if (abandoned) {
+            // The connection closed while the file was being allocated.
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            discard(file);
+            return;
+        }
+        listener.onUploadAllocated();
+    }
+
+    private void writeData(ByteBuffer input) throws IOException {
+        int count = Math.min(input.remaining(), dataRemaining);
+        if (uploadChannel == null) {
+            // A rejected upload: skip its data.
+            uploadPosition += count;
+        } else {
+            ByteBuffer chunk = input.duplicate();
+            chunk.limit(chunk.position() + count);
+            while (chunk.hasRemaining()) {
+                uploadPosition += uploadChannel.write(chunk, uploadPosition);
+            }
+        }
+        input.position(input.position() + count);
+        dataRemaining -= count;
+        if (dataRemaining == 0) {
+            state = State.HEADER;
+        }
+    }
+
+    private void writeData(byte[] data) throws IOException {
+        if (uploadChannel == null) {
+            uploadPosition += data.length;
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.wrap(data);
+        while (chunk.hasRemaining()) {
+            uploadPosition += uploadChannel.write(chunk, uploadPosition);
+        }
+    }
+
+    private void finishUpload() throws IOException {
+        if (uploadPosition != upload.contentLength) {
+            throw new ProtocolException("Expected " + upload.contentLength + " bytes but received " + uploadPosition);
+        }
+        if (uploadChannel == null) {
+            upload = null;
+            return;
+        }
+        uploadChannel.close();
+        PDFProtocol.SearchRequest request = upload.toRequest(uploadFile.toFile());
+        int requestId = uploadRequestId;
+        upload = null;
+        uploadChannel = null;
+        uploadFile = null;
+        listener.onUploadComplete(uploadPosition, System.nanoTime() - uploadStartNanos);
+        listener.onMessage(new PDFProtocol.Envelope(requestId, request));
+    }
+
+    /**
+     * Releases a partially received upload. Call when the connection closes.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (allocatedFile != null) {
+                uploadChannel = allocatedChannel;
+                uploadFile = allocatedFile;
+                allocatedChannel = null;
+                allocatedFile = null;
+            }
+        }
+        if (uploadChannel != null) {
+            try {
+                uploadChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        discard(uploadFile);
+        upload = null;
+        uploadChannel = null;
+        uploadFile = null;
+        held = null;
+    }
+
+    private void discard(Path file) {
+        if (file == null) {
+            return;
+        }
+        if (spool != null) {
+            spool.release(file);
+        } else {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.pdfprocessor.shared;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Expands the compressed frames one side of a connection receives, in the
+ * format {@link FrameCompressor} writes. Frames are read by one thread at a
+ * time, so unlike the compressor it takes no lock.
+ */
+public final class FrameDecompressor {
+    /**
+     * Sees every payload the decompressor expanded.
+     */
+    public interface Listener {
+        void onDecompressed(int receivedBytes, int bytes, long nanos);
+    }
+
+    private final Compression codec;
+    private final Listener listener;
+    private final Inflater inflater;
+
+    public FrameDecompressor(Compression codec, Listener listener) {
+        this.codec = codec;
+        this.listener = listener;
+        this.inflater = codec == Compression.DEFLATE ? new Inflater() : null;
+    }
+
+    /**
+     * Decompresses the payload of a compressed frame, which may expand to at
+     * most {@code maxLength} bytes.
+     */
+    byte[] decompress(byte[] payload, int maxLength) throws IOException {
+        if (payload.length < 4) {
+            throw new ProtocolException("Invalid compressed frame length " + payload.length);
+        }
+        int length = ((payload[0] & 0xFF) << 24) | ((payload[1] & 0xFF) << 16)
+                     | ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+        if (length < 0 || length > maxLength) {
+            throw new ProtocolException("Invalid uncompressed frame length " + length);
+        }
+        long start = System.nanoTime();
+        byte[] result = new byte[length];
+        try {
+            if (codec == Compression.SNAPPY) {
+                FrameCompressor.SnappyCodec.uncompress(payload, 4, payload.length - 4, result);
+            } else {
+                inflater.reset();
+                inflater.setInput(payload, 4, payload.length - 4);
+                byte[] overflow = new byte[1];
+                int filled = 0;
+                while (!inflater.finished() && filled <= length) {
+                    int inflated = filled < length
+                        ? inflater.inflate(result, filled, length - filled)
+                        : inflater.inflate(overflow);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    filled += inflated;
+                }
+                if (filled != length || !inflater.finished()) {
+                    throw new ProtocolException("Compressed frame does not match its declared length " + length);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Corrupt compressed frame: " + e.getMessage());
+        }
+        if (listener != null) {
+            listener.onDecompressed(payload.length, length, System.nanoTime() - start);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,12 @@
+package com.pdfprocessor.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A bidirectional stream of protocol messages over one connection, independent
+ * of the wire format used to encode them.
+ */
+public interface MessageChannel extends MessageSink, Closeable {
+    PDFProtocol.Envelope read() throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,51 @@
+package com.pdfprocessor.shared;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Path;
+
+public final class MessageChannels {
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    private MessageChannels() {
+    }
+
+    public static MessageChannel forClient(Socket socket) throws IOException {
+        if (!PDFProtocol.useBinaryProtocol()) {
+            return new ObjectStreamChannel(socket.getInputStream(), socket.getOutputStream());
+        }
+        BinaryChannel channel = new BinaryChannel(socket.getInputStream(), socket.getOutputStream());
+        channel.sendPreface();
+        channel.receivePreface();
+        return channel;
+    }
+
+    /**
+     * Detects the wire format from the first bytes the client sends, so both
+     * protocols can be served on the same port during the migration.
+     */
+    public static MessageChannel forServer(Socket socket) throws IOException {
+        return forServer(socket, null);
+    }
+
+    public static MessageChannel forServer(Socket socket, Path spoolDirectory) throws IOException {
+        InputStream input = new BufferedInputStream(socket.getInputStream());
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        input.reset();
+        if (first < 0 || second < 0) {
+            throw new IOException("Connection closed before any data was received");
+        }
+
+        if (((first << 8) | second) == SERIALIZATION_MAGIC) {
+            return new ObjectStreamChannel(input, socket.getOutputStream());
+        }
+        BinaryChannel channel = new BinaryChannel(input, socket.getOutputStream(), spoolDirectory);
+        channel.receivePreface();
+        channel.sendPreface();
+        return channel;
+    }
+}
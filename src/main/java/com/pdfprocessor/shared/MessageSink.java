@@ -0,0 +1,15 @@
+package com.pdfprocessor.shared;
+
+import java.io.IOException;
+
+/**
+ * The sending side of a connection, for code that only replies to messages
+ * it was handed.
+ */
+public interface MessageSink {
+    /**
+     * Writes one message. Implementations are safe to call from several threads;
+     * each message is written atomically.
+     */
+    void write(int requestId, Object message) throws IOException;
+}
@@ -0,0 +1,48 @@
+package com.pdfprocessor.shared;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Legacy wire format: Java serialization over object streams.
+ */
+public class ObjectStreamChannel implements MessageChannel {
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    public ObjectStreamChannel(InputStream input, OutputStream output) throws IOException {
+        this.out = new ObjectOutputStream(output);
+        this.out.flush();
+        this.in = new ObjectInputStream(input);
+    }
+
+    @Override
+    public PDFProtocol.Envelope read() throws IOException, ClassNotFoundException {
+        Object message = in.readObject();
+        if (message instanceof PDFProtocol.Envelope) {
+            return (PDFProtocol.Envelope) message;
+        }
+        return new PDFProtocol.Envelope(0, message);
+    }
+
+    @Override
+    public synchronized void write(int requestId, Object message) throws IOException {
+        // Untagged messages stay bare so one-shot clients of the old protocol can read them.
+        out.writeObject(requestId != 0 ? new PDFProtocol.Envelope(requestId, message) : message);
+        out.flush();
+        // Drop the stream's back-references so sent messages can be collected.
+        out.reset();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            in.close();
+        }
+    }
+}
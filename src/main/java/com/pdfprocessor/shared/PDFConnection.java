@@ -0,0 +1,342 @@
+package com.pdfprocessor.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A long-lived client connection that carries many concurrent requests.
+ * Requests are tagged with ids and a background reader thread routes each
+ * response to the request it belongs to, in whatever order they arrive.
+ * A search first asks for the document by its content hash, without the
+ * PDF; only if the server holds neither the document nor its extracted text
+ * is the PDF uploaded. Searches can also be submitted as jobs, whose
+ * results are fetched later, on this or another connection.
+ */
+public class PDFConnection implements Closeable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long UPLOAD_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private final Socket socket;
+    private final MessageChannel channel;
+    private final String address;
+    private final Map<Integer, RequestFuture<?>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ThreadPoolExecutor uploader;
+    private volatile boolean closed;
+
+    private PDFConnection(Socket socket, MessageChannel channel) {
+        this.socket = socket;
+        this.channel = channel;
+        this.address = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        this.uploader = new ThreadPoolExecutor(0, 1, UPLOAD_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "pdf-upload-" + address);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread reader = new Thread(this::readResponses, "pdf-connection-" + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static PDFConnection open(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            return new PDFConnection(socket, MessageChannels.forClient(socket));
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends a search request. The document's hash is sent from the calling
+     * thread; if the server asks for the PDF, it is uploaded on the
+     * connection's upload thread, one upload at a time. Page results of
+     * streaming requests are passed to {@code pageListener} on the
+     * connection's reader thread. Cancelling the returned future tells the
+     * server to stop working on the request.
+     */
+    public CompletableFuture<PDFProtocol.SearchResponse> search(PDFProtocol.SearchRequest request,
+                                                                 Consumer<PDFProtocol.PageResult> pageListener) {
+        return search(request, pageListener, uploader);
+    }
+
+    /**
+     * Like {@link #search(PDFProtocol.SearchRequest, Consumer)}, but uploads
+     * the PDF, if the server asks for it, on {@code uploadExecutor}.
+     */
+    public CompletableFuture<PDFProtocol.SearchResponse> search(PDFProtocol.SearchRequest request,
+                                                                 Consumer<PDFProtocol.PageResult> pageListener,
+                                                                 Executor uploadExecutor) {
+        return sendByReference(request, PDFProtocol.SearchResponse.class, pageListener, uploadExecutor,
+                               response -> PDFProtocol.UNKNOWN_DOCUMENT_ERROR.equals(response.getError()));
+    }
+
+    /**
+     * Submits a search as a job that runs on the server independently of
+     * this connection. The returned status carries the job's id, or says the
+     * submission was rejected, in which case a busy server suggests when to
+     * try again. Poll the job with {@link #getJobStatus} or {@link #fetchJob}.
+     * A job that refers to a document the server has since dropped from its
+     * cache ends {@link PDFProtocol.JobStatus#isUnknownDocument unknown}, and
+     * must be submitted again.
+     */
+    public CompletableFuture<PDFProtocol.JobStatus> submit(PDFProtocol.SearchRequest request) {
+        return sendByReference(request.asJob(), PDFProtocol.JobStatus.class, null, uploader,
+                               PDFProtocol.JobStatus::isUnknownDocument);
+    }
+
+    public CompletableFuture<PDFProtocol.JobStatus> getJobStatus(String jobId) {
+        return sendJobRequest(jobId, PDFProtocol.JobRequest.Action.STATUS);
+    }
+
+    /**
+     * Returns the job's status, with its result once it is done.
+     */
+    public CompletableFuture<PDFProtocol.JobStatus> fetchJob(String jobId) {
+        return sendJobRequest(jobId, PDFProtocol.JobRequest.Action.FETCH);
+    }
+
+    public CompletableFuture<PDFProtocol.JobStatus> cancelJob(String jobId) {
+        return sendJobRequest(jobId, PDFProtocol.JobRequest.Action.CANCEL);
+    }
+
+    private CompletableFuture<PDFProtocol.JobStatus> sendJobRequest(String jobId, PDFProtocol.JobRequest.Action action) {
+        return send(new PDFProtocol.JobRequest(jobId, action), new RequestFuture<>(PDFProtocol.JobStatus.class, null));
+    }
+
+    /**
+     * Sends {@code request} by reference to its document's content hash, and
+     * uploads the document only if the response says the server does not
+     * know it. The upload runs on {@code uploadExecutor}, never on the
+     * reader thread.
+     */
+    private <T> CompletableFuture<T> sendByReference(PDFProtocol.SearchRequest request, Class<T> responseType,
+                                                     Consumer<PDFProtocol.PageResult> pageListener,
+                                                     Executor uploadExecutor, Predicate<T> unknownDocument) {
+        String documentId = contentHash(request);
+        if (documentId == null) {
+            return send(request, new RequestFuture<>(responseType, pageListener));
+        }
+
+        RetryingFuture<T> future = new RetryingFuture<>();
+        future.attempt = send(request.asReference(documentId), new RequestFuture<>(responseType, pageListener));
+        future.attempt.whenComplete((response, error) -> {
+            if (error != null || !unknownDocument.test(response)) {
+                future.relay(response, error);
+                return;
+            }
+            try {
+                uploadExecutor.execute(() -> {
+                    if (!future.isDone()) {
+                        future.attempt = send(request, new RequestFuture<>(responseType, pageListener));
+                        if (future.isCancelled()) {
+                            future.attempt.cancel(true);
+                        }
+                        future.attempt.whenComplete(future::relay);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(new IOException("Could not upload " + request.getFileName(), e));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the content hash the server knows the request's document by,
+     * or null if the request has no content or it cannot be read.
+     */
+    private static String contentHash(PDFProtocol.SearchRequest request) {
+        if (request.getPdfFile() != null) {
+            try {
+                return ContentHashes.ofFile(request.getPdfFile());
+            } catch (IOException e) {
+                // Let the upload report the problem.
+                return null;
+            }
+        }
+        return request.getPdfContent() != null ? ContentHashes.of(request.getPdfContent()) : null;
+    }
+
+    /**
+     * Searches documents the server has indexed from earlier requests.
+     */
+    public CompletableFuture<PDFProtocol.IndexSearchResponse> searchIndex(PDFProtocol.IndexSearchRequest request) {
+        return send(request, new RequestFuture<>(PDFProtocol.IndexSearchResponse.class, null));
+    }
+
+    private <T> CompletableFuture<T> send(Object request, RequestFuture<T> future) {
+        if (closed) {
+            future.completeExceptionally(new IOException("Connection to " + address + " is closed"));
+            return future;
+        }
+
+        pending.put(future.requestId, future);
+        try {
+            channel.write(future.requestId, request);
+        } catch (IOException e) {
+            pending.remove(future.requestId);
+            future.completeExceptionally(e);
+            close();
+        }
+        return future;
+    }
+
+    private void readResponses() {
+        try {
+            while (!closed) {
+                PDFProtocol.Envelope envelope = channel.read();
+                dispatch(envelope.getRequestId(), envelope.getMessage());
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            if (!closed) {
+                failPending(new IOException("Connection to " + address + " lost: " + e.getMessage(), e));
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void dispatch(int requestId, Object message) {
+        if (requestId == 0 && message instanceof PDFProtocol.SearchResponse) {
+            // An untagged error concerns the whole connection.
+            failPending(new IOException(((PDFProtocol.SearchResponse) message).getError()));
+            return;
+        }
+
+        RequestFuture<?> future = pending.get(requestId);
+        if (future == null) {
+            return;
+        }
+        if (message instanceof PDFProtocol.PageResult) {
+            if (future.pageListener != null) {
+                future.pageListener.accept((PDFProtocol.PageResult) message);
+            }
+        } else if (future.responseType.isInstance(message)) {
+            pending.remove(requestId);
+            future.completeWith(message);
+        } else if (message instanceof PDFProtocol.SearchResponse) {
+            // Errors such as "server busy" are reported as a search response to any request.
+            pending.remove(requestId);
+            PDFProtocol.SearchResponse response = (PDFProtocol.SearchResponse) message;
+            if (future.responseType == PDFProtocol.JobStatus.class) {
+                future.completeWith(PDFProtocol.JobStatus.rejected(response.getError(),
+                                                                   response.getRetryAfterMillis()));
+            } else {
+                future.completeExceptionally(new IOException(response.getError()));
+            }
+        }
+    }
+
+    private void failPending(IOException cause) {
+        List<RequestFuture<?>> failed = new ArrayList<>(pending.values());
+        pending.clear();
+        for (RequestFuture<?> future : failed) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    public int getPendingRequests() {
+        return pending.size();
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        uploader.shutdownNow();
+        failPending(new IOException("Connection to " + address + " closed"));
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * A request that may take a second attempt; cancelling it cancels
+     * whichever attempt is current.
+     */
+    private static final class RetryingFuture<T> extends CompletableFuture<T> {
+        private volatile CompletableFuture<T> attempt;
+
+        void relay(T response, Throwable error) {
+            if (error != null) {
+                completeExceptionally(error);
+            } else {
+                complete(response);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                attempt.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+
+    private final class RequestFuture<T> extends CompletableFuture<T> {
+        private final int requestId = nextRequestId.incrementAndGet();
+        private final Class<T> responseType;
+        private final Consumer<PDFProtocol.PageResult> pageListener;
+
+        RequestFuture(Class<T> responseType, Consumer<PDFProtocol.PageResult> pageListener) {
+            this.responseType = responseType;
+            this.pageListener = pageListener;
+        }
+
+        void completeWith(Object message) {
+            complete(responseType.cast(message));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && pending.remove(requestId) != null && !closed) {
+                try {
+                    channel.write(requestId, new PDFProtocol.CancelRequest());
+                } catch (IOException e) {
+                    close();
+                }
+            }
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.pdfprocessor.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A small pool of multiplexed connections to one server. Connections are
+ * shared rather than borrowed: each call picks the least busy open connection
+ * and only opens a new one while all existing ones have requests in flight.
+ */
+public class PDFConnectionPool implements Closeable {
+    private final String host;
+    private final int port;
+    private final int maxConnections;
+    private final List<PDFConnection> connections = new ArrayList<>();
+    private boolean closed;
+
+    public PDFConnectionPool(String host, int port, int maxConnections) {
+        this.host = host;
+        this.port = port;
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    public synchronized PDFConnection acquire() throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+
+        PDFConnection leastBusy = null;
+        Iterator<PDFConnection> iterator = connections.iterator();
+        while (iterator.hasNext()) {
+            PDFConnection connection = iterator.next();
+            if (!connection.isOpen()) {
+                iterator.remove();
+            } else if (leastBusy == null || connection.getPendingRequests() < leastBusy.getPendingRequests()) {
+                leastBusy = connection;
+            }
+        }
+
+        if (leastBusy == null || (leastBusy.getPendingRequests() > 0 && connections.size() < maxConnections)) {
+            PDFConnection connection = PDFConnection.open(host, port);
+            connections.add(connection);
+            return connection;
+        }
+        return leastBusy;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (PDFConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+    }
+}
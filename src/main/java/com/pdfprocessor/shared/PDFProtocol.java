@@ -1,60 +1,684 @@
 package com.pdfprocessor.shared;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class PDFProtocol {
     public static final int DEFAULT_PORT = 12349;
     public static final int MAX_FILE_SIZE = 50 * 1024 * 1024; // 50MB
+    public static final String PROTOCOL_PROPERTY = "pdfprocessor.protocol";
+    public static final String NO_TEXT_ERROR = "No text could be extracted from the PDF";
+    public static final String UNKNOWN_DOCUMENT_ERROR = "Document is no longer held by the server";
+
+    /** Match options of a {@link SearchRequest}. */
+    public static final int MATCH_CASE = 1;
+    public static final int WHOLE_WORD = 2;
+    public static final int REGEX = 4;
+
+    /** Page segmentation or OCR engine mode that leaves the choice to the server. */
+    public static final int DEFAULT_OCR_MODE = -1;
+
+    /**
+     * Clients use the binary wire format unless started with
+     * -Dpdfprocessor.protocol=java. The server accepts both.
+     */
+    public static boolean useBinaryProtocol() {
+        return !"java".equalsIgnoreCase(System.getProperty(PROTOCOL_PROPERTY, "binary"));
+    }
+
+    private static List<String> joinContexts(List<PhraseMatches> phraseMatches) {
+        List<String> contexts = new ArrayList<>();
+        for (PhraseMatches matches : phraseMatches) {
+            contexts.addAll(matches.getContexts());
+        }
+        return contexts;
+    }
+
+    /**
+     * Tags a message with the id of the request it belongs to, so one connection
+     * can carry many requests and their responses can arrive in any order.
+     * Request id 0 means an untagged message from a one-shot client.
+     */
+    public static class Envelope implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int requestId;
+        private final Object message;
+
+        public Envelope(int requestId, Object message) {
+            this.requestId = requestId;
+            this.message = message;
+        }
+
+        public int getRequestId() {
+            return requestId;
+        }
+
+        public Object getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Asks the server to stop working on the request identified by the
+     * envelope's request id. No further responses are sent for it.
+     */
+    public static class CancelRequest implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
 
     public static class SearchRequest implements Serializable {
         private static final long serialVersionUID = 1L;
         private final byte[] pdfContent;
+        private final transient File pdfFile;
         private final String searchText;
+        private final List<String> searchPhrases;
+        private final int matchOptions;
         private final String fileName;
+        private final boolean streaming;
+        private final Integer pageSegMode;
+        private final Integer ocrEngineMode;
+        private final String documentId;
+        private final int maxMatches;
+        private final boolean job;
 
         public SearchRequest(byte[] pdfContent, String searchText, String fileName) {
+            this(pdfContent, searchText, fileName, false);
+        }
+
+        public SearchRequest(byte[] pdfContent, String searchText, String fileName, boolean streaming) {
+            this(pdfContent, null, searchText, null, 0, fileName, streaming);
+        }
+
+        /**
+         * Creates a request that looks for several phrases in one pass over the
+         * document. {@code matchOptions} combines {@link #MATCH_CASE},
+         * {@link #WHOLE_WORD} and {@link #REGEX}.
+         */
+        public SearchRequest(byte[] pdfContent, List<String> searchPhrases, int matchOptions,
+                             String fileName, boolean streaming) {
+            this(pdfContent, null, firstOf(searchPhrases), searchPhrases, matchOptions, fileName, streaming);
+        }
+
+        /**
+         * Creates a request whose PDF is streamed from disk. Only the binary wire
+         * format can carry file-backed content; on the server side decoded
+         * requests are always file-backed.
+         */
+        public SearchRequest(File pdfFile, String searchText, String fileName, boolean streaming) {
+            this(null, pdfFile, searchText, null, 0, fileName, streaming);
+        }
+
+        public SearchRequest(File pdfFile, List<String> searchPhrases, int matchOptions,
+                             String fileName, boolean streaming) {
+            this(null, pdfFile, firstOf(searchPhrases), searchPhrases, matchOptions, fileName, streaming);
+        }
+
+        private SearchRequest(byte[] pdfContent, File pdfFile, String searchText, List<String> searchPhrases,
+                              int matchOptions, String fileName, boolean streaming) {
+            this(pdfContent, pdfFile, searchText, searchPhrases, matchOptions, fileName, streaming,
+                 null, null, null, 0, false);
+        }
+
+        private SearchRequest(byte[] pdfContent, File pdfFile, String searchText, List<String> searchPhrases,
+                              int matchOptions, String fileName, boolean streaming,
+                              Integer pageSegMode, Integer ocrEngineMode, String documentId, int maxMatches,
+                              boolean job) {
             this.pdfContent = pdfContent;
+            this.pdfFile = pdfFile;
             this.searchText = searchText;
+            this.searchPhrases = searchPhrases;
+            this.matchOptions = matchOptions;
             this.fileName = fileName;
+            this.streaming = streaming;
+            this.pageSegMode = pageSegMode;
+            this.ocrEngineMode = ocrEngineMode;
+            this.documentId = documentId;
+            this.maxMatches = maxMatches;
+            this.job = job;
+        }
+
+        /**
+         * Returns a copy of this request that OCRs image-only pages with the
+         * given Tesseract page segmentation and engine modes.
+         * {@link PDFProtocol#DEFAULT_OCR_MODE} keeps the server's setting.
+         */
+        public SearchRequest withOcrModes(int pageSegMode, int ocrEngineMode) {
+            return new SearchRequest(pdfContent, pdfFile, searchText, searchPhrases, matchOptions, fileName,
+                                     streaming, pageSegMode, ocrEngineMode, documentId, maxMatches, job);
+        }
+
+        /**
+         * Returns a copy of this request without content that refers to a
+         * document by its id, the SHA-256 of its bytes as returned in
+         * responses. The server answers {@link PDFProtocol#UNKNOWN_DOCUMENT_ERROR}
+         * if it holds neither the document nor text extracted from it with the
+         * request's OCR settings; the request must then be sent with content.
+         */
+        public SearchRequest asReference(String documentId) {
+            return new SearchRequest(null, null, searchText, searchPhrases, matchOptions, fileName,
+                                     streaming, pageSegMode, ocrEngineMode, documentId, maxMatches, job);
+        }
+
+        /**
+         * Returns a copy of this request that stops once {@code maxMatches}
+         * matches have been found: the server extracts pages in order and
+         * skips the rest of the document after the page that reaches the
+         * limit. The response covers the pages searched up to there. 1 only
+         * asks whether the phrases occur at all; 0 searches the whole
+         * document.
+         */
+        public SearchRequest withMaxMatches(int maxMatches) {
+            if (maxMatches < 0) {
+                throw new IllegalArgumentException("maxMatches must not be negative: " + maxMatches);
+            }
+            return new SearchRequest(pdfContent, pdfFile, searchText, searchPhrases, matchOptions, fileName,
+                                     streaming, pageSegMode, ocrEngineMode, documentId, maxMatches, job);
+        }
+
+        /**
+         * Returns a copy of this request to be run as a job: the server
+         * answers with a {@link JobStatus} carrying the job's id right away,
+         * and the result is fetched later with a {@link JobRequest}, on this
+         * or any other connection. Jobs are never streamed.
+         */
+        public SearchRequest asJob() {
+            return new SearchRequest(pdfContent, pdfFile, searchText, searchPhrases, matchOptions, fileName,
+                                     streaming, pageSegMode, ocrEngineMode, documentId, maxMatches, true);
+        }
+
+        private static String firstOf(List<String> phrases) {
+            return phrases != null && !phrases.isEmpty() ? phrases.get(0) : null;
         }
 
         public byte[] getPdfContent() {
             return pdfContent;
         }
 
+        public File getPdfFile() {
+            return pdfFile;
+        }
+
+        public boolean hasContent() {
+            return pdfContent != null || pdfFile != null;
+        }
+
+        public long getContentLength() {
+            if (pdfFile != null) {
+                return pdfFile.length();
+            }
+            return pdfContent != null ? pdfContent.length : -1;
+        }
+
         public String getSearchText() {
             return searchText;
         }
 
+        /**
+         * The phrases to look for; a single-phrase request returns its search
+         * text.
+         */
+        public List<String> getSearchPhrases() {
+            if (searchPhrases != null && !searchPhrases.isEmpty()) {
+                return searchPhrases;
+            }
+            return searchText != null ? Collections.singletonList(searchText) : Collections.<String>emptyList();
+        }
+
+        public int getMatchOptions() {
+            return matchOptions;
+        }
+
         public String getFileName() {
             return fileName;
         }
+
+        public boolean isStreaming() {
+            return streaming;
+        }
+
+        public int getPageSegMode() {
+            return pageSegMode != null ? pageSegMode : DEFAULT_OCR_MODE;
+        }
+
+        public int getOcrEngineMode() {
+            return ocrEngineMode != null ? ocrEngineMode : DEFAULT_OCR_MODE;
+        }
+
+        /**
+         * The id of an earlier upload this request refers to, or null if it
+         * carries its own content.
+         */
+        public String getDocumentId() {
+            return documentId;
+        }
+
+        /**
+         * The number of matches after which the search may stop, or 0 to
+         * search the whole document.
+         */
+        public int getMaxMatches() {
+            return maxMatches;
+        }
+
+        public boolean isJob() {
+            return job;
+        }
+    }
+
+    /**
+     * Asks about a job submitted with {@link SearchRequest#asJob()}. The
+     * server answers with a {@link JobStatus}.
+     */
+    public static class JobRequest implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public enum Action {
+            /** Reports the job's state and progress. */
+            STATUS,
+            /** Like STATUS, and includes the result once the job is done. */
+            FETCH,
+            /** Stops the job if it has not finished yet. */
+            CANCEL
+        }
+
+        private final String jobId;
+        private final Action action;
+
+        public JobRequest(String jobId, Action action) {
+            this.jobId = jobId;
+            this.action = action;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+    }
+
+    /**
+     * The state of a job, sent in reply to its submission and to each
+     * {@link JobRequest}. Results of finished jobs are kept for a limited
+     * time, after which the job is {@link State#UNKNOWN}.
+     */
+    public static class JobStatus implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public enum State {
+            QUEUED, RUNNING, DONE, CANCELLED,
+            /** No such job, or its result has expired. */
+            UNKNOWN,
+            /**
+             * The submission was refused, or the job found its document gone
+             * from the server's cache before it ran; see {@link #getError()}.
+             */
+            REJECTED,
+            /** The job waited longer than the server allows for a worker. */
+            EXPIRED
+        }
+
+        private final String jobId;
+        private final State state;
+        private final int pagesCompleted;
+        private final int pageCount;
+        private final String error;
+        private final long retryAfterMillis;
+        private final SearchResponse result;
+
+        public JobStatus(String jobId, State state, int pagesCompleted, int pageCount, String error,
+                         long retryAfterMillis, SearchResponse result) {
+            this.jobId = jobId;
+            this.state = state;
+            this.pagesCompleted = pagesCompleted;
+            this.pageCount = pageCount;
+            this.error = error;
+            this.retryAfterMillis = retryAfterMillis;
+            this.result = result;
+        }
+
+        public static JobStatus rejected(String error, long retryAfterMillis) {
+            return new JobStatus(null, State.REJECTED, 0, 0, error, retryAfterMillis, null);
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public boolean isFinished() {
+            return state != State.QUEUED && state != State.RUNNING;
+        }
+
+        /**
+         * Pages extracted so far, out of {@link #getPageCount()}, which is 0
+         * until the job has opened the document.
+         */
+        public int getPagesCompleted() {
+            return pagesCompleted;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /**
+         * Why a job was rejected. Errors of the search itself are in the
+         * result.
+         */
+        public String getError() {
+            return error;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        public boolean isServerBusy() {
+            return retryAfterMillis > 0;
+        }
+
+        /**
+         * Whether the server did not have the document the job refers to.
+         * Submitting the job again uploads the PDF.
+         */
+        public boolean isUnknownDocument() {
+            return state == State.REJECTED && UNKNOWN_DOCUMENT_ERROR.equals(error);
+        }
+
+        /**
+         * The search response of a done job, included when fetched with
+         * {@link JobRequest.Action#FETCH}.
+         */
+        public SearchResponse getResult() {
+            return result;
+        }
     }
 
+    /**
+     * Incremental result sent for each page in streaming mode. The stream ends
+     * with a {@link SearchResponse} summarizing the whole document.
+     */
+    public static class PageResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final int pageNumber;
+        private final int pageCount;
+        private final int pagesCompleted;
+        private final List<String> contexts;
+        private final List<PhraseMatches> phraseMatches;
+
+        public PageResult(int pageNumber, int pageCount, int pagesCompleted, List<String> contexts) {
+            this(pageNumber, pageCount, pagesCompleted, contexts, null);
+        }
+
+        public PageResult(int pageNumber, int pageCount, int pagesCompleted, List<String> contexts,
+                          List<PhraseMatches> phraseMatches) {
+            this.pageNumber = pageNumber;
+            this.pageCount = pageCount;
+            this.pagesCompleted = pagesCompleted;
+            this.phraseMatches = phraseMatches != null ? phraseMatches : new ArrayList<>();
+            this.contexts = contexts != null || !this.phraseMatches.isEmpty() ? contexts : new ArrayList<>();
+        }
+
+        public int getPageNumber() {
+            return pageNumber;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        public int getPagesCompleted() {
+            return pagesCompleted;
+        }
+
+        /**
+         * All contexts of the page. When the result is grouped by phrase and no
+         * separate list was given, this joins the groups.
+         */
+        public List<String> getContexts() {
+            return contexts != null ? contexts : joinContexts(phraseMatches);
+        }
+
+        public List<PhraseMatches> getPhraseMatches() {
+            return phraseMatches;
+        }
+    }
+
+    /**
+     * Matches of one phrase of a request. In the final response of a streaming
+     * search only the count is filled in; contexts came with the pages.
+     */
+    public static class PhraseMatches implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String phrase;
+        private final int matchCount;
+        private final List<String> contexts;
+
+        public PhraseMatches(String phrase, int matchCount, List<String> contexts) {
+            this.phrase = phrase;
+            this.matchCount = matchCount;
+            this.contexts = contexts != null ? contexts : new ArrayList<>();
+        }
+
+        public String getPhrase() {
+            return phrase;
+        }
+
+        public int getMatchCount() {
+            return matchCount;
+        }
+
+        public List<String> getContexts() {
+            return contexts;
+        }
+    }
+
+    /**
+     * Final response to a search. A response with {@link #isServerBusy()} set
+     * means the request was refused without being queued and may be sent again
+     * after {@link #getRetryAfterMillis()}.
+     */
     public static class SearchResponse implements Serializable {
         private static final long serialVersionUID = 1L;
         private final boolean found;
         private final List<String> contexts;
         private final String error;
+        private final int totalMatches;
+        private final int pagesSearched;
+        private final long queueWaitMillis;
+        private final long retryAfterMillis;
+        private final String documentId;
+        private final List<PhraseMatches> phraseMatches;
 
         public SearchResponse(boolean found, List<String> contexts, String error) {
+            this(found, contexts, error, contexts != null ? contexts.size() : 0, 0);
+        }
+
+        public SearchResponse(boolean found, List<String> contexts, String error, int totalMatches, int pagesSearched) {
+            this(found, contexts, error, totalMatches, pagesSearched, 0, 0, null, null);
+        }
+
+        public SearchResponse(boolean found, List<String> contexts, String error, int totalMatches, int pagesSearched,
+                              long queueWaitMillis, long retryAfterMillis, String documentId,
+                              List<PhraseMatches> phraseMatches) {
             this.found = found;
-            this.contexts = contexts != null ? contexts : new ArrayList<>();
             this.error = error;
+            this.totalMatches = totalMatches;
+            this.pagesSearched = pagesSearched;
+            this.queueWaitMillis = queueWaitMillis;
+            this.retryAfterMillis = retryAfterMillis;
+            this.documentId = documentId;
+            this.phraseMatches = phraseMatches != null ? phraseMatches : new ArrayList<>();
+            this.contexts = contexts != null || !this.phraseMatches.isEmpty() ? contexts : new ArrayList<>();
+        }
+
+        public static SearchResponse serverBusy(long retryAfterMillis) {
+            return new SearchResponse(false, null, "Server busy, retry after " + retryAfterMillis + " ms",
+                                      0, 0, 0, Math.max(1, retryAfterMillis), null, null);
         }
 
         public boolean isFound() {
             return found;
         }
 
+        /**
+         * All contexts of the response. When the response is grouped by phrase
+         * and no separate list was given, this joins the groups.
+         */
         public List<String> getContexts() {
-            return contexts;
+            return contexts != null ? contexts : joinContexts(phraseMatches);
         }
 
         public String getError() {
             return error;
         }
+
+        public int getTotalMatches() {
+            return totalMatches;
+        }
+
+        public int getPagesSearched() {
+            return pagesSearched;
+        }
+
+        /**
+         * Time the request waited for a free worker before processing started.
+         */
+        public long getQueueWaitMillis() {
+            return queueWaitMillis;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        public boolean isServerBusy() {
+            return retryAfterMillis > 0;
+        }
+
+        /**
+         * Content hash of the searched PDF. Pass it in an
+         * {@link IndexSearchRequest} to search the document again later without
+         * uploading it.
+         */
+        public String getDocumentId() {
+            return documentId;
+        }
+
+        /**
+         * Matches grouped by the phrase they belong to, in request order.
+         * {@link #getContexts()} holds the same contexts as one list.
+         */
+        public List<PhraseMatches> getPhraseMatches() {
+            return phraseMatches;
+        }
+    }
+
+    /**
+     * Searches documents the server has already processed, identified by the
+     * document ids of earlier responses. An empty id list searches every
+     * indexed document.
+     */
+    public static class IndexSearchRequest implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<String> documentIds;
+        private final String searchText;
+        private final int maxDocuments;
+
+        public IndexSearchRequest(List<String> documentIds, String searchText, int maxDocuments) {
+            this.documentIds = documentIds != null ? documentIds : new ArrayList<>();
+            this.searchText = searchText;
+            this.maxDocuments = maxDocuments;
+        }
+
+        public List<String> getDocumentIds() {
+            return documentIds;
+        }
+
+        public String getSearchText() {
+            return searchText;
+        }
+
+        public int getMaxDocuments() {
+            return maxDocuments;
+        }
+    }
+
+    public static class IndexSearchResponse implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<DocumentMatch> matches;
+        private final int totalMatches;
+        private final String error;
+
+        public IndexSearchResponse(List<DocumentMatch> matches, int totalMatches, String error) {
+            this.matches = matches != null ? matches : new ArrayList<>();
+            this.totalMatches = totalMatches;
+            this.error = error;
+        }
+
+        public List<DocumentMatch> getMatches() {
+            return matches;
+        }
+
+        public int getTotalMatches() {
+            return totalMatches;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Matches of an index search within one document. Contexts may be capped;
+     * {@link #getMatchCount()} counts all matches.
+     */
+    public static class DocumentMatch implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String documentId;
+        private final String fileName;
+        private final int matchCount;
+        private final List<String> contexts;
+        private final List<Integer> contextPages;
+
+        public DocumentMatch(String documentId, String fileName, int matchCount,
+                             List<String> contexts, List<Integer> contextPages) {
+            this.documentId = documentId;
+            this.fileName = fileName;
+            this.matchCount = matchCount;
+            this.contexts = contexts != null ? contexts : new ArrayList<>();
+            this.contextPages = contextPages != null ? contextPages : new ArrayList<>();
+        }
+
+        public String getDocumentId() {
+            return documentId;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public int getMatchCount() {
+            return matchCount;
+        }
+
+        public List<String> getContexts() {
+            return contexts;
+        }
+
+        /**
+         * Page number of each context, in the same order.
+         */
+        public List<Integer> getContextPages() {
+            return contextPages;
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,49 @@
+package com.pdfprocessor.shared;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Storage for uploaded PDFs on the receiving side. A file is allocated at its
+ * final size before the first data frame arrives and handed back once the
+ * request that owns it is done.
+ */
+public interface Spool {
+    /**
+     * Returns an empty file of exactly {@code length} bytes for an upload.
+     *
+     * @throws FullException if the spool has no room for the upload right now
+     * @throws TooLargeException if the spool does not take uploads this large
+     */
+    Path allocate(long length) throws IOException;
+
+    /**
+     * Hands back a file that is no longer needed. The spool may keep it for
+     * reuse or delete it.
+     */
+    void release(Path file);
+
+    /**
+     * Thrown when an upload would exceed the spool's disk quota. The request
+     * can be retried once other uploads are done.
+     */
+    class FullException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public FullException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown when an upload is larger than the spool accepts at all. Sending
+     * it again will not help.
+     */
+    class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public TooLargeException(String message) {
+            super(message);
+        }
+    }
+}
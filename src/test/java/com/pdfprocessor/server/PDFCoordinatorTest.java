@@ -0,0 +1,205 @@
+package com.pdfprocessor.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.pdfprocessor.shared.PDFConnection;
+import com.pdfprocessor.shared.PDFProtocol;
+
+/**
+ * Runs a coordinator in front of three servers, all on ephemeral ports, and
+ * searches a document that it splits into page ranges, before and after one
+ * of the servers is killed.
+ */
+public class PDFCoordinatorTest {
+    private static final int WORKER_COUNT = 3;
+    private static final int PAGE_COUNT = 12;
+    private static final int PAGES_PER_SHARD = 4;
+    private static final Set<Integer> NEEDLE_PAGES = new TreeSet<>(Arrays.asList(2, 7, 11));
+    private static final long TIMEOUT_SECONDS = 60;
+    private static final String[] PROPERTIES = {
+        "pdfprocessor.files.directory", "pdfprocessor.metrics.port", "pdfprocessor.coordinator.pages-per-shard"
+    };
+
+    private static Path directory;
+    private static File document;
+    private static final List<PDFServer> workers = new ArrayList<>();
+    private static final List<Integer> workerPorts = new ArrayList<>();
+    private static PDFCoordinator coordinator;
+    private static int coordinatorPort;
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        directory = Files.createTempDirectory("pdf-coordinator-test");
+        System.setProperty("pdfprocessor.files.directory", directory.resolve("files").toString());
+        System.setProperty("pdfprocessor.metrics.port", "0");
+        System.setProperty("pdfprocessor.coordinator.pages-per-shard", String.valueOf(PAGES_PER_SHARD));
+        document = createDocument(directory.resolve("sharded.pdf"));
+
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < WORKER_COUNT; i++) {
+            int port = freePort();
+            PDFServer worker = new PDFServer(port);
+            start(worker::start, "test-worker-" + i);
+            workers.add(worker);
+            workerPorts.add(port);
+            addresses.add("localhost:" + port);
+        }
+        coordinatorPort = freePort();
+        coordinator = new PDFCoordinator(coordinatorPort, addresses);
+        start(coordinator::start, "test-coordinator");
+
+        for (int port : workerPorts) {
+            awaitListening(port, true);
+        }
+        awaitListening(coordinatorPort, true);
+    }
+
+    @AfterClass
+    public static void stopCluster() throws IOException {
+        if (coordinator != null) {
+            coordinator.shutdown();
+        }
+        for (PDFServer worker : workers) {
+            worker.shutdown();
+        }
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void retriesShardOfKilledWorkerAndKeepsPageNumbers() throws Exception {
+        try (PDFConnection connection = PDFConnection.open("localhost", coordinatorPort)) {
+            assertSearchFindsNeedles(connection);
+
+            PDFServer killed = workers.get(1);
+            killed.shutdown();
+            awaitListening(workerPorts.get(1), false);
+
+            // Shards go to the worker with the fewest requests in flight, so the killed one
+            // gets a shard within a few searches; each of them must still come back whole.
+            ServerMetrics metrics = ServerMetrics.getInstance();
+            long failuresBefore = metrics.get(ServerMetrics.Counter.WORKER_FAILURES);
+            for (int search = 0; search < 5
+                 && metrics.get(ServerMetrics.Counter.WORKER_FAILURES) == failuresBefore; search++) {
+                assertSearchFindsNeedles(connection);
+            }
+            assertTrue("No shard was retried after a worker was killed",
+                       metrics.get(ServerMetrics.Counter.WORKER_FAILURES) > failuresBefore);
+        }
+    }
+
+    private static void assertSearchFindsNeedles(PDFConnection connection) throws Exception {
+        Map<Integer, Integer> pages = new ConcurrentSkipListMap<>();
+        AtomicInteger pageResults = new AtomicInteger();
+        PDFProtocol.SearchRequest request = new PDFProtocol.SearchRequest(
+            document, Collections.singletonList("needle"), 0, document.getName(), true);
+        PDFProtocol.SearchResponse response = connection.search(request, page -> {
+            pageResults.incrementAndGet();
+            pages.put(page.getPageNumber(), page.getContexts().size());
+        }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertNull(response.getError());
+        assertEquals(NEEDLE_PAGES.size(), response.getTotalMatches());
+        assertEquals(PAGE_COUNT, response.getPagesSearched());
+        assertEquals("Each page is reported once", PAGE_COUNT, pageResults.get());
+        Set<Integer> expectedPages = new TreeSet<>();
+        Set<Integer> matchedPages = new TreeSet<>();
+        for (int page = 1; page <= PAGE_COUNT; page++) {
+            expectedPages.add(page);
+        }
+        for (Map.Entry<Integer, Integer> page : pages.entrySet()) {
+            if (page.getValue() > 0) {
+                matchedPages.add(page.getKey());
+            }
+        }
+        assertEquals(expectedPages, pages.keySet());
+        assertEquals(NEEDLE_PAGES, matchedPages);
+    }
+
+    private static File createDocument(Path file) throws IOException {
+        try (PDDocument pdf = new PDDocument()) {
+            for (int pageNumber = 1; pageNumber <= PAGE_COUNT; pageNumber++) {
+                PDPage page = new PDPage();
+                pdf.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(pdf, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 700);
+                    content.showText("This is page " + pageNumber + " of a document the coordinator splits up.");
+                    if (NEEDLE_PAGES.contains(pageNumber)) {
+                        content.newLineAtOffset(0, -20);
+                        content.showText("The needle is hidden on this page.");
+                    }
+                    content.endText();
+                }
+            }
+            pdf.save(file.toFile());
+        }
+        return file.toFile();
+    }
+
+    private static void start(Runnable server, String name) {
+        Thread thread = new Thread(server, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(int port, boolean listening) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            boolean connected;
+            try {
+                new Socket("localhost", port).close();
+                connected = true;
+            } catch (IOException e) {
+                connected = false;
+            }
+            if (connected == listening) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Port " + port + (listening ? " never opened" : " never closed"));
+    }
+}